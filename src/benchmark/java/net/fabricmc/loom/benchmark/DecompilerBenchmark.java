@@ -0,0 +1,364 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2024 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.benchmark;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.jetbrains.annotations.Nullable;
+
+import net.fabricmc.loom.api.decompilers.DecompilationMetadata;
+import net.fabricmc.loom.api.decompilers.LoomDecompiler;
+import net.fabricmc.loom.decompilers.ClassLineNumbers;
+import net.fabricmc.loom.decompilers.DecompilerConfiguration;
+import net.fabricmc.loom.decompilers.cache.CachedData;
+import net.fabricmc.loom.decompilers.cache.CachedFileStore;
+import net.fabricmc.loom.decompilers.cache.CachedFileStoreImpl;
+import net.fabricmc.loom.decompilers.cache.CachedJarProcessor;
+import net.fabricmc.loom.decompilers.cache.DecompileCacheBackend;
+import net.fabricmc.loom.decompilers.cache.SourceBlobStore;
+import net.fabricmc.loom.decompilers.cache.SourceCompression;
+
+/**
+ * Decompiles a {@link SyntheticJar} through the {@link CachedJarProcessor} with one of the builtin decompilers, and
+ * writes the throughput, peak heap and output size of each phase as JSON.
+ *
+ * <p>Each iteration starts from an empty cache and runs three phases: cold decompiles the whole jar, partial
+ * decompiles a revision of the jar where a fraction of the classes changed, and warm reads that revision back from the
+ * cache. Only one decompiler is run per JVM as their classpaths conflict, see the {@code benchmarkDecompilers} task.
+ * The time spent looking up the cache and the size of the cache on disk are reported as well, to compare the source
+ * compression settings.
+ *
+ * <p>Options are passed as {@code --name=value}, see {@link #main(String[])}.
+ */
+public final class DecompilerBenchmark {
+	private static final Gson GSON = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+	private static final CachedFileStoreImpl.CacheRules CACHE_RULES = new CachedFileStoreImpl.CacheRules(Integer.MAX_VALUE, Long.MAX_VALUE, Duration.ofDays(1));
+	private static final Map<String, Class<? extends LoomDecompiler>> DECOMPILERS = Map.of(
+			"fernflower", DecompilerConfiguration.BuiltinFernflower.class,
+			"cfr", DecompilerConfiguration.BuiltinCfr.class,
+			"vineflower", DecompilerConfiguration.BuiltinVineflower.class
+	);
+
+	private final LoomDecompiler decompiler;
+	private final SyntheticJar jar;
+	private final double changedFraction;
+	private final int threads;
+	private final DecompileCacheBackend backend;
+	private final SourceCompression compression;
+	private final Path workDir;
+
+	private DecompilerBenchmark(LoomDecompiler decompiler, SyntheticJar jar, double changedFraction, int threads, DecompileCacheBackend backend, SourceCompression compression, Path workDir) {
+		this.decompiler = decompiler;
+		this.jar = jar;
+		this.changedFraction = changedFraction;
+		this.threads = threads;
+		this.backend = backend;
+		this.compression = compression;
+		this.workDir = workDir;
+	}
+
+	/**
+	 * Required options: {@code decompiler} (fernflower, cfr or vineflower), {@code work-dir} and {@code output}.
+	 *
+	 * <p>Optional: {@code classes}, {@code inner-depth}, {@code lambdas}, {@code switch-cases}, {@code seed},
+	 * {@code changed} (the fraction of classes changed for the partial phase), {@code threads}, {@code backend},
+	 * {@code compression} (none or deflate), {@code compression-level} and {@code iterations}.
+	 */
+	public static void main(String[] args) throws IOException {
+		final Options options = Options.parse(args);
+		final String decompilerName = options.required("decompiler");
+		final Class<? extends LoomDecompiler> decompilerClass = DECOMPILERS.get(decompilerName);
+
+		if (decompilerClass == null) {
+			throw new IllegalArgumentException("Unknown decompiler: " + decompilerName + ", expected one of " + DECOMPILERS.keySet());
+		}
+
+		final var jar = new SyntheticJar(
+				options.getInt("classes", 500),
+				options.getInt("inner-depth", 3),
+				options.getInt("lambdas", 8),
+				options.getInt("switch-cases", 64),
+				options.getLong("seed", 0)
+		);
+
+		final var benchmark = new DecompilerBenchmark(
+				newInstance(decompilerClass),
+				jar,
+				options.getDouble("changed", 0.1),
+				options.getInt("threads", Runtime.getRuntime().availableProcessors()),
+				DecompileCacheBackend.valueOf(options.get("backend", "files").toUpperCase(Locale.ROOT)),
+				new SourceCompression(
+						SourceCompression.Codec.valueOf(options.get("compression", SourceCompression.DEFAULT.codec().name()).toUpperCase(Locale.ROOT)),
+						options.getInt("compression-level", SourceCompression.DEFAULT.level())
+				),
+				Path.of(options.required("work-dir"))
+		);
+
+		final List<PhaseResult> results = benchmark.run(options.getInt("iterations", 1));
+		final var report = new Report(
+				decompilerName,
+				System.getProperty("java.version"),
+				Runtime.getRuntime().availableProcessors(),
+				Runtime.getRuntime().maxMemory(),
+				benchmark.threads,
+				benchmark.backend.name().toLowerCase(Locale.ROOT),
+				benchmark.compression.codec().name().toLowerCase(Locale.ROOT),
+				benchmark.compression.level(),
+				jar,
+				jar.classFiles(),
+				benchmark.changedFraction,
+				results
+		);
+
+		final Path output = Path.of(options.required("output"));
+		Files.createDirectories(output.toAbsolutePath().getParent());
+
+		try (Writer writer = Files.newBufferedWriter(output)) {
+			GSON.toJson(report, writer);
+		}
+
+		System.out.printf(Locale.ROOT, "Wrote %s benchmark results to %s%n", decompilerName, output);
+	}
+
+	private List<PhaseResult> run(int iterations) throws IOException {
+		final Path input = workDir.resolve("input-0.jar");
+		final Path changedInput = workDir.resolve("input-1.jar");
+		deleteRecursively(workDir);
+		jar.write(input, 0, changedFraction);
+		jar.write(changedInput, 1, changedFraction);
+
+		final List<PhaseResult> results = new ArrayList<>();
+
+		for (int iteration = 0; iteration < iterations; iteration++) {
+			final Path cacheRoot = workDir.resolve("cache");
+			deleteRecursively(cacheRoot);
+
+			try (SourceBlobStore sourceBlobs = SourceBlobStore.open(cacheRoot.resolve("blobs"), compression);
+					CachedFileStore<CachedData> cache = backend.open(cacheRoot.resolve("entries"), CachedData.serializer(sourceBlobs), CACHE_RULES)) {
+				final var processor = new CachedJarProcessor(cache, "benchmark", CachedJarProcessor.DEFAULT_PARALLELISM, sourceBlobs);
+
+				results.add(runPhase(processor, Phase.COLD, iteration, input, cacheRoot));
+				results.add(runPhase(processor, Phase.PARTIAL, iteration, changedInput, cacheRoot));
+				results.add(runPhase(processor, Phase.WARM, iteration, changedInput, cacheRoot));
+			}
+		}
+
+		return results;
+	}
+
+	private PhaseResult runPhase(CachedJarProcessor processor, Phase phase, int iteration, Path input, Path cacheRoot) throws IOException {
+		final Path sourcesJar = workDir.resolve("sources-" + phase.name().toLowerCase(Locale.ROOT) + ".jar");
+		Files.deleteIfExists(sourcesJar);
+
+		System.gc();
+		resetPeakHeap();
+		final long start = System.nanoTime();
+
+		final CachedJarProcessor.WorkRequest request = processor.prepareJob(input);
+		final long prepareNanos = System.nanoTime() - start;
+
+		try (CachedJarProcessor.WorkJob job = request.job()) {
+			ClassLineNumbers lineNumbers = null;
+
+			if (job instanceof CachedJarProcessor.WorkToDoJob workToDoJob) {
+				final Path existingClasses = job instanceof CachedJarProcessor.PartialWorkJob partialWorkJob ? partialWorkJob.existingClasses() : null;
+				lineNumbers = decompile(workToDoJob.incomplete(), workToDoJob.output(), existingClasses);
+			}
+
+			processor.completeJob(sourcesJar, job, lineNumbers);
+		}
+
+		final long nanos = System.nanoTime() - start;
+		final long peakHeap = peakHeap();
+		final CachedJarProcessor.CacheStats stats = request.stats();
+		final int classes = stats.hits() + stats.misses();
+		final double seconds = nanos / 1_000_000_000D;
+
+		final var result = new PhaseResult(
+				phase.name().toLowerCase(Locale.ROOT),
+				iteration,
+				classes,
+				stats.misses(),
+				nanos / 1_000_000,
+				classes / seconds,
+				stats.misses() / seconds,
+				peakHeap,
+				Files.size(sourcesJar),
+				prepareNanos / 1_000_000,
+				stats.hits() > 0 ? prepareNanos / 1_000D / stats.hits() : 0,
+				directorySize(cacheRoot)
+		);
+
+		System.out.printf(Locale.ROOT, "%-8s #%d: %d classes (%d decompiled) in %d ms, %.1f classes/s, peak heap %d MiB, %d bytes of sources, cache lookup %d ms (%.1f us/hit), %d bytes cached%n",
+				result.phase(), iteration, classes, result.decompiled(), result.millis(), result.classesPerSecond(), peakHeap / (1024 * 1024), result.outputBytes(),
+				result.prepareMillis(), result.prepareMicrosPerHit(), result.cacheBytes());
+		return result;
+	}
+
+	@Nullable
+	private ClassLineNumbers decompile(Path input, Path output, @Nullable Path existingClasses) throws IOException {
+		final Path lineMap = workDir.resolve("linemap");
+		Files.deleteIfExists(lineMap);
+
+		final List<Path> libraries = existingClasses != null ? List.of(existingClasses) : List.of();
+		decompiler.decompile(input, output, lineMap, new DecompilationMetadata(threads, null, libraries, data -> { }, Map.of()));
+
+		if (Files.notExists(output)) {
+			throw new IllegalStateException("Failed to decompile " + input);
+		}
+
+		return Files.exists(lineMap) ? ClassLineNumbers.read(lineMap) : null;
+	}
+
+	private static void resetPeakHeap() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+			}
+		}
+	}
+
+	// The sum of the peak of each pool, an upper bound as the pools do not peak at the same time
+	private static long peakHeap() {
+		long peak = 0;
+
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+
+		return peak;
+	}
+
+	private static LoomDecompiler newInstance(Class<? extends LoomDecompiler> decompilerClass) {
+		try {
+			return decompilerClass.getConstructor().newInstance();
+		} catch (InstantiationException | IllegalAccessException | InvocationTargetException | NoSuchMethodException e) {
+			throw new RuntimeException("Failed to create decompiler " + decompilerClass.getName(), e);
+		}
+	}
+
+	private static long directorySize(Path path) throws IOException {
+		try (var walk = Files.walk(path)) {
+			return walk.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+		}
+	}
+
+	private static void deleteRecursively(Path path) throws IOException {
+		if (Files.notExists(path)) {
+			return;
+		}
+
+		try (var walk = Files.walk(path)) {
+			for (Path file : walk.sorted(Comparator.reverseOrder()).toList()) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	private enum Phase {
+		COLD,
+		PARTIAL,
+		WARM
+	}
+
+	/**
+	 * @param classes The number of classes, along with their nested classes, in the jar
+	 * @param decompiled The number of those classes that missed the cache and were decompiled
+	 * @param classesPerSecond Every class of the jar, whether it was decompiled or read from the cache
+	 * @param decompiledPerSecond Only the classes that were decompiled
+	 * @param peakHeapBytes See {@link #peakHeap()}
+	 * @param outputBytes The size of the sources jar
+	 * @param prepareMillis The time spent looking up every class in the cache and copying the hits to the sources jar
+	 * @param prepareMicrosPerHit The lookup time divided by the number of cache hits, the hit latency once warm
+	 * @param cacheBytes The size of the cache on disk after the phase, entries and source blobs
+	 */
+	private record PhaseResult(String phase, int iteration, int classes, int decompiled, long millis, double classesPerSecond, double decompiledPerSecond, long peakHeapBytes, long outputBytes, long prepareMillis, double prepareMicrosPerHit, long cacheBytes) {
+	}
+
+	private record Report(String decompiler, String javaVersion, int availableProcessors, long maxHeapBytes, int threads, String backend, String compression, int compressionLevel, SyntheticJar jar, int classFiles, double changedFraction, List<PhaseResult> results) {
+	}
+
+	private record Options(Map<String, String> values) {
+		static Options parse(String[] args) {
+			final Map<String, String> values = new HashMap<>();
+
+			for (String arg : args) {
+				final int separator = arg.indexOf('=');
+
+				if (!arg.startsWith("--") || separator < 0) {
+					throw new IllegalArgumentException("Expected --name=value but got " + arg);
+				}
+
+				values.put(arg.substring(2, separator), arg.substring(separator + 1));
+			}
+
+			return new Options(values);
+		}
+
+		String required(String name) {
+			final String value = values.get(name);
+
+			if (value == null) {
+				throw new IllegalArgumentException("Missing required option --" + name);
+			}
+
+			return value;
+		}
+
+		String get(String name, String defaultValue) {
+			return values.getOrDefault(name, defaultValue);
+		}
+
+		int getInt(String name, int defaultValue) {
+			return values.containsKey(name) ? Integer.parseInt(values.get(name)) : defaultValue;
+		}
+
+		long getLong(String name, long defaultValue) {
+			return values.containsKey(name) ? Long.parseLong(values.get(name)) : defaultValue;
+		}
+
+		double getDouble(String name, double defaultValue) {
+			return values.containsKey(name) ? Double.parseDouble(values.get(name)) : defaultValue;
+		}
+	}
+}
@@ -0,0 +1,289 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2024 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.SplittableRandom;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * Generates a deterministic jar shaped like the code that is slow to decompile: chains of subclasses, deeply nested
+ * classes, lambdas and large switch methods. The same shape and seed always produce the same bytes.
+ *
+ * @param classes The number of top level classes
+ * @param innerDepth The depth of the chain of nested classes within each top level class
+ * @param lambdas The number of lambdas in each top level class
+ * @param switchCases The number of cases in the switch method of each top level class
+ * @param seed The seed of the constants in the generated code
+ */
+public record SyntheticJar(int classes, int innerDepth, int lambdas, int switchCases, long seed) {
+	// Every fourth class extends Object, the others extend the previous one
+	private static final int HIERARCHY_DEPTH = 4;
+	private static final int CLASSES_PER_PACKAGE = 50;
+	private static final long ENTRY_TIME = new GregorianCalendar(1980, Calendar.JANUARY, 1, 0, 0, 0).getTimeInMillis();
+	private static final Handle METAFACTORY = new Handle(
+			Opcodes.H_INVOKESTATIC,
+			"java/lang/invoke/LambdaMetafactory",
+			"metafactory",
+			"(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodHandle;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;",
+			false
+	);
+
+	/**
+	 * @return The number of class files in the jar
+	 */
+	public int classFiles() {
+		return classes * (1 + innerDepth);
+	}
+
+	/**
+	 * Write the jar, at a revision other than 0 the constants of roughly the given fraction of the top level classes
+	 * differ. The same classes change at every revision, along with their nested classes.
+	 */
+	public void write(Path jar, int revision, double changedFraction) throws IOException {
+		Files.createDirectories(jar.toAbsolutePath().getParent());
+
+		try (OutputStream os = Files.newOutputStream(jar);
+				ZipOutputStream zos = new ZipOutputStream(os)) {
+			for (int i = 0; i < classes; i++) {
+				final int classRevision = revision != 0 && changes(i, changedFraction) ? revision : 0;
+				writeEntry(zos, className(i), topLevelClass(i, classRevision));
+
+				for (int depth = 1; depth <= innerDepth; depth++) {
+					writeEntry(zos, nestedName(i, depth), nestedClass(i, depth, classRevision));
+				}
+			}
+		}
+	}
+
+	private boolean changes(int index, double changedFraction) {
+		return new SplittableRandom(seed * 31 + index).nextDouble() < changedFraction;
+	}
+
+	private static void writeEntry(ZipOutputStream zos, String name, byte[] bytes) throws IOException {
+		final var entry = new ZipEntry(name + ".class");
+		entry.setTime(ENTRY_TIME);
+		zos.putNextEntry(entry);
+		zos.write(bytes);
+		zos.closeEntry();
+	}
+
+	private static String className(int index) {
+		return "bench/p" + (index / CLASSES_PER_PACKAGE) + "/Class" + index;
+	}
+
+	private static String nestedName(int index, int depth) {
+		final var sb = new StringBuilder(className(index));
+
+		for (int d = 1; d <= depth; d++) {
+			sb.append("$Nested").append(d);
+		}
+
+		return sb.toString();
+	}
+
+	private byte[] topLevelClass(int index, int revision) {
+		final var random = new SplittableRandom(seed ^ ((long) index << 20));
+		final String name = className(index);
+		final String superName = index % HIERARCHY_DEPTH == 0 ? "java/lang/Object" : className(index - 1);
+
+		final var cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS) {
+			@Override
+			protected String getCommonSuperClass(String type1, String type2) {
+				// The generated classes are not loadable, only the merges of standard types are needed
+				return "java/lang/Object";
+			}
+		};
+		cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, superName, null);
+		visitNestedClasses(cw, index, innerDepth);
+
+		if (lambdas > 0) {
+			cw.visitInnerClass("java/lang/invoke/MethodHandles$Lookup", "java/lang/invoke/MethodHandles", "Lookup", Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL);
+		}
+
+		final String field = "value" + index;
+		cw.visitField(Opcodes.ACC_PROTECTED, field, "I", null, null).visitEnd();
+
+		MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+		mv.visitCode();
+		mv.visitVarInsn(Opcodes.ALOAD, 0);
+		mv.visitMethodInsn(Opcodes.INVOKESPECIAL, superName, "<init>", "()V", false);
+		mv.visitVarInsn(Opcodes.ALOAD, 0);
+		mv.visitLdcInsn(random.nextInt() + revision);
+		mv.visitFieldInsn(Opcodes.PUTFIELD, name, field, "I");
+		mv.visitInsn(Opcodes.RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+
+		writeSwitch(cw, name, field, random, revision);
+		writeLambdas(cw, name, field, random, revision);
+
+		if (innerDepth > 0) {
+			// Calls into the deepest nested class
+			mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "nested", "()I", null, null);
+			mv.visitCode();
+			mv.visitVarInsn(Opcodes.ALOAD, 0);
+			mv.visitFieldInsn(Opcodes.GETFIELD, name, field, "I");
+			mv.visitMethodInsn(Opcodes.INVOKESTATIC, nestedName(index, innerDepth), "depth", "(I)I", false);
+			mv.visitInsn(Opcodes.IRETURN);
+			mv.visitMaxs(0, 0);
+			mv.visitEnd();
+		}
+
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+	// int select(int key) with a tableswitch over the cases, each doing a little arithmetic on the key
+	private void writeSwitch(ClassWriter cw, String name, String field, SplittableRandom random, int revision) {
+		if (switchCases <= 0) {
+			return;
+		}
+
+		final MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "select", "(I)I", null, null);
+		mv.visitCode();
+
+		final Label[] labels = new Label[switchCases];
+
+		for (int i = 0; i < switchCases; i++) {
+			labels[i] = new Label();
+		}
+
+		final Label defaultLabel = new Label();
+		mv.visitVarInsn(Opcodes.ILOAD, 1);
+		mv.visitTableSwitchInsn(0, switchCases - 1, defaultLabel, labels);
+
+		for (int i = 0; i < switchCases; i++) {
+			mv.visitLabel(labels[i]);
+			mv.visitVarInsn(Opcodes.ILOAD, 1);
+			mv.visitLdcInsn(random.nextInt(1000) + 1);
+			mv.visitInsn(Opcodes.IMUL);
+			mv.visitLdcInsn(random.nextInt() + revision);
+			mv.visitInsn(i % 2 == 0 ? Opcodes.IADD : Opcodes.IXOR);
+			mv.visitInsn(Opcodes.IRETURN);
+		}
+
+		mv.visitLabel(defaultLabel);
+		mv.visitVarInsn(Opcodes.ALOAD, 0);
+		mv.visitFieldInsn(Opcodes.GETFIELD, name, field, "I");
+		mv.visitInsn(Opcodes.IRETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+	}
+
+	// IntSupplier[] suppliers() returning lambdas that capture this, each backed by a private synthetic method
+	private void writeLambdas(ClassWriter cw, String name, String field, SplittableRandom random, int revision) {
+		if (lambdas <= 0) {
+			return;
+		}
+
+		final String supplier = "java/util/function/IntSupplier";
+		final MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "suppliers", "()[L" + supplier + ";", null, null);
+		mv.visitCode();
+		mv.visitLdcInsn(lambdas);
+		mv.visitTypeInsn(Opcodes.ANEWARRAY, supplier);
+
+		for (int i = 0; i < lambdas; i++) {
+			final String lambdaName = "lambda$suppliers$" + i;
+			mv.visitInsn(Opcodes.DUP);
+			mv.visitLdcInsn(i);
+			mv.visitVarInsn(Opcodes.ALOAD, 0);
+			mv.visitInvokeDynamicInsn("getAsInt", "(L" + name + ";)L" + supplier + ";", METAFACTORY,
+					Type.getType("()I"), new Handle(Opcodes.H_INVOKESPECIAL, name, lambdaName, "()I", false), Type.getType("()I"));
+			mv.visitInsn(Opcodes.AASTORE);
+
+			final MethodVisitor lambda = cw.visitMethod(Opcodes.ACC_PRIVATE | Opcodes.ACC_SYNTHETIC, lambdaName, "()I", null, null);
+			lambda.visitCode();
+			lambda.visitVarInsn(Opcodes.ALOAD, 0);
+			lambda.visitFieldInsn(Opcodes.GETFIELD, name, field, "I");
+			lambda.visitLdcInsn(random.nextInt() + revision);
+			lambda.visitInsn(Opcodes.IADD);
+			lambda.visitInsn(Opcodes.IRETURN);
+			lambda.visitMaxs(0, 0);
+			lambda.visitEnd();
+		}
+
+		mv.visitInsn(Opcodes.ARETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+	}
+
+	// A static nested class with a static method calling into its parent, or the outer class at depth 1
+	private byte[] nestedClass(int index, int depth, int revision) {
+		final var random = new SplittableRandom(seed ^ ((long) index << 20) ^ depth);
+		final String name = nestedName(index, depth);
+		final String outerName = depth == 1 ? className(index) : nestedName(index, depth - 1);
+
+		final var cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+		cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, "java/lang/Object", null);
+		visitNestedClasses(cw, index, Math.min(depth + 1, innerDepth));
+
+		MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+		mv.visitCode();
+		mv.visitVarInsn(Opcodes.ALOAD, 0);
+		mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+		mv.visitInsn(Opcodes.RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+
+		mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "depth", "(I)I", null, null);
+		mv.visitCode();
+		mv.visitVarInsn(Opcodes.ILOAD, 0);
+		mv.visitLdcInsn(random.nextInt() + revision);
+		mv.visitInsn(Opcodes.IADD);
+
+		if (depth > 1) {
+			mv.visitMethodInsn(Opcodes.INVOKESTATIC, outerName, "depth", "(I)I", false);
+		}
+
+		mv.visitInsn(Opcodes.IRETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+	// Every class lists the chain of nested classes from the top level class down to the given depth
+	private static void visitNestedClasses(ClassWriter cw, int index, int depth) {
+		for (int d = 1; d <= depth; d++) {
+			final String outerName = d == 1 ? className(index) : nestedName(index, d - 1);
+			cw.visitInnerClass(nestedName(index, d), outerName, "Nested" + d, Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC);
+		}
+	}
+}
@@ -24,13 +24,8 @@
 
 package net.fabricmc.loom.decompilers.cfr;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -45,16 +40,13 @@ import org.benf.cfr.reader.mapping.NullMapping;
 import org.benf.cfr.reader.util.output.DelegatingDumper;
 import org.benf.cfr.reader.util.output.Dumper;
 
-import net.fabricmc.mappingio.MappingReader;
-import net.fabricmc.mappingio.adapter.MappingSourceNsSwitch;
-import net.fabricmc.mappingio.tree.MappingTree;
-import net.fabricmc.mappingio.tree.MemoryMappingTree;
+import net.fabricmc.loom.decompilers.JavadocIndex;
 
 public class CFRObfuscationMapping extends NullMapping {
-	private final MappingTree mappingTree;
+	private final JavadocIndex javadocs;
 
-	public CFRObfuscationMapping(Path mappings) {
-		mappingTree = readMappings(mappings);
+	public CFRObfuscationMapping(JavadocIndex javadocs) {
+		this.javadocs = javadocs;
 	}
 
 	@Override
@@ -62,18 +54,6 @@ public class CFRObfuscationMapping extends NullMapping {
 		return new JavadocProvidingDumper(d);
 	}
 
-	private static MappingTree readMappings(Path input) {
-		try (BufferedReader reader = Files.newBufferedReader(input)) {
-			MemoryMappingTree mappingTree = new MemoryMappingTree();
-			MappingSourceNsSwitch nsSwitch = new MappingSourceNsSwitch(mappingTree, "named");
-			MappingReader.read(reader, nsSwitch);
-
-			return mappingTree;
-		} catch (IOException e) {
-			throw new RuntimeException("Failed to read mappings", e);
-		}
-	}
-
 	private class JavadocProvidingDumper extends DelegatingDumper {
 		JavadocProvidingDumper(Dumper delegate) {
 			super(delegate);
@@ -81,12 +61,7 @@ public class CFRObfuscationMapping extends NullMapping {
 
 		@Override
 		public Dumper dumpClassDoc(JavaTypeInstance owner) {
-			MappingTree.ClassMapping mapping = getClassMapping(owner);
-
-			if (mapping == null) {
-				return this;
-			}
-
+			String ownerName = getInternalName(owner);
 			List<String> recordComponentDocs = new LinkedList<>();
 
 			if (isRecord(owner)) {
@@ -97,21 +72,15 @@ public class CFRObfuscationMapping extends NullMapping {
 						continue;
 					}
 
-					MappingTree.FieldMapping fieldMapping = mapping.getField(field.getFieldName(), field.getField().getDescriptor());
-
-					if (fieldMapping == null) {
-						continue;
-					}
-
-					String comment = fieldMapping.getComment();
+					String comment = javadocs.fieldDoc(ownerName, field.getFieldName(), field.getField().getDescriptor());
 
 					if (comment != null) {
-						recordComponentDocs.add(String.format("@param %s %s", fieldMapping.getSrcName(), comment));
+						recordComponentDocs.add(String.format("@param %s %s", field.getFieldName(), comment));
 					}
 				}
 			}
 
-			String comment = mapping.getComment();
+			String comment = javadocs.classDoc(ownerName);
 
 			if (comment != null || !recordComponentDocs.isEmpty()) {
 				print("/**").newln();
@@ -142,31 +111,20 @@ public class CFRObfuscationMapping extends NullMapping {
 
 		@Override
 		public Dumper dumpMethodDoc(MethodPrototype method) {
-			MappingTree.ClassMapping classMapping = getClassMapping(method.getOwner());
-
-			if (classMapping == null) {
-				return this;
-			}
-
 			List<String> lines = new ArrayList<>();
-			MappingTree.MethodMapping mapping = classMapping.getMethod(method.getName(), method.getOriginalDescriptor());
+			JavadocIndex.MethodDoc methodDoc = javadocs.methodDoc(getInternalName(method.getOwner()), method.getName(), method.getOriginalDescriptor());
 
-			if (mapping != null) {
-				String comment = mapping.getComment();
+			if (methodDoc != null) {
+				String comment = methodDoc.comment();
 
 				if (comment != null) {
 					lines.addAll(Arrays.asList(comment.split("\\R")));
 				}
 
-				final Collection<? extends MappingTree.MethodArgMapping> methodArgs = mapping.getArgs();
 				final List<String> params = new ArrayList<>();
 
-				for (MappingTree.MethodArgMapping arg : methodArgs) {
-					String argComment = arg.getComment();
-
-					if (argComment != null) {
-						params.addAll(Arrays.asList(("@param " + arg.getSrcName() + " " + argComment).split("\\R")));
-					}
+				for (JavadocIndex.Parameter param : methodDoc.parameters()) {
+					params.addAll(Arrays.asList(("@param " + param.name() + " " + param.comment()).split("\\R")));
 				}
 
 				// Add a blank line between params and the comment.
@@ -197,24 +155,12 @@ public class CFRObfuscationMapping extends NullMapping {
 				return this;
 			}
 
-			MappingTree.ClassMapping classMapping = getClassMapping(owner);
-
-			if (classMapping == null) {
-				return this;
-			}
-
-			MappingTree.FieldMapping fieldMapping = classMapping.getField(field.getFieldName(), field.getDescriptor());
-
-			if (fieldMapping != null) {
-				dumpComment(fieldMapping.getComment());
-			}
-
+			dumpComment(javadocs.fieldDoc(getInternalName(owner), field.getFieldName(), field.getDescriptor()));
 			return this;
 		}
 
-		private MappingTree.ClassMapping getClassMapping(JavaTypeInstance type) {
-			String qualifiedName = type.getRawName().replace('.', '/');
-			return mappingTree.getClass(qualifiedName);
+		private String getInternalName(JavaTypeInstance type) {
+			return type.getRawName().replace('.', '/');
 		}
 
 		private boolean isRecord(JavaTypeInstance javaTypeInstance) {
@@ -25,32 +25,31 @@
 package net.fabricmc.loom.decompilers.cfr;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.io.UncheckedIOException;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Date;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
-import java.util.Set;
 import java.util.TreeMap;
-import java.util.jar.JarEntry;
-import java.util.jar.JarOutputStream;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.benf.cfr.reader.api.OutputSinkFactory;
 import org.benf.cfr.reader.api.SinkReturns;
 
 import net.fabricmc.loom.decompilers.LoomInternalDecompiler;
+import net.fabricmc.loom.decompilers.ParallelSourcesWriter;
 
+/**
+ * Receives the output of CFR, this is shared by every thread decompiling the jar.
+ */
 public class CFRSinkFactory implements OutputSinkFactory {
-	private final JarOutputStream outputStream;
+	private final ParallelSourcesWriter writer;
 	private final LoomInternalDecompiler.Logger logger;
-	private final Set<String> addedDirectories = new HashSet<>();
-	private final Map<String, Map<Integer, Integer>> lineMap = new TreeMap<>();
+	private final Map<String, NavigableMap<Integer, Integer>> lineMap = new ConcurrentHashMap<>();
 
-	public CFRSinkFactory(JarOutputStream outputStream, LoomInternalDecompiler.Logger logger) {
-		this.outputStream = outputStream;
+	public CFRSinkFactory(ParallelSourcesWriter writer, LoomInternalDecompiler.Logger logger) {
+		this.writer = writer;
 		this.logger = logger;
 	}
 
@@ -79,9 +78,13 @@ public class CFRSinkFactory implements OutputSinkFactory {
 			if (!filename.isEmpty()) filename += "/";
 			filename += sinkable.getClassName() + ".java";
 
-			byte[] data = sinkable.getJava().getBytes(StandardCharsets.UTF_8);
-
-			writeToJar(filename, data);
+			try {
+				logger.accept("Writing: " + filename);
+				// Compressed on the decompiling thread
+				writer.write(sinkable.getClassName(), filename, sinkable.getJava(), null);
+			} catch (IOException e) {
+				throw new UncheckedIOException("Failed to write " + filename, e);
+			}
 		};
 	}
 
@@ -93,52 +96,27 @@ public class CFRSinkFactory implements OutputSinkFactory {
 
 			if (classFileMappings == null || mappings == null) return;
 
-			for (Map.Entry<Integer, Integer> entry : mappings.entrySet()) {
-				// New line number
-				Integer dstLineNumber = entry.getValue();
-
-				// Line mapping in the original jar
-				Integer srcLineNumber = classFileMappings.get(entry.getKey());
-
-				if (srcLineNumber == null || dstLineNumber == null) continue;
-
-				lineMap.computeIfAbsent(className, (c) -> new TreeMap<>()).put(srcLineNumber, dstLineNumber);
-			}
-		};
-	}
+			// A class is only decompiled by one thread, the lock of its map entry is never contended
+			lineMap.compute(className, (name, classLineMap) -> {
+				if (classLineMap == null) {
+					classLineMap = new TreeMap<>();
+				}
 
-	private synchronized void writeToJar(String filename, byte[] data) {
-		String[] path = filename.split("/");
-		String pathPart = "";
+				for (Map.Entry<Integer, Integer> entry : mappings.entrySet()) {
+					// New line number
+					Integer dstLineNumber = entry.getValue();
 
-		for (int i = 0; i < path.length - 1; i++) {
-			pathPart += path[i] + "/";
+					// Line mapping in the original jar
+					Integer srcLineNumber = classFileMappings.get(entry.getKey());
 
-			if (addedDirectories.add(pathPart)) {
-				JarEntry entry = new JarEntry(pathPart);
-				entry.setTime(new Date().getTime());
+					if (srcLineNumber == null || dstLineNumber == null) continue;
 
-				try {
-					outputStream.putNextEntry(entry);
-					outputStream.closeEntry();
-				} catch (IOException e) {
-					throw new RuntimeException(e);
+					classLineMap.put(srcLineNumber, dstLineNumber);
 				}
-			}
-		}
-
-		JarEntry entry = new JarEntry(filename);
-		entry.setTime(new Date().getTime());
-		entry.setSize(data.length);
-
-		try {
-			logger.accept("Writing: " + filename);
-			outputStream.putNextEntry(entry);
-			outputStream.write(data);
-			outputStream.closeEntry();
-		} catch (IOException e) {
-			throw new RuntimeException(e);
-		}
+
+				return classLineMap.isEmpty() ? null : classLineMap;
+			});
+		};
 	}
 
 	public Map<String, Map<Integer, Integer>> getLineMap() {
@@ -26,18 +26,28 @@ package net.fabricmc.loom.decompilers.cfr;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
-import java.io.Writer;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
 import java.util.HashMap;
-import java.util.Locale;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.Attributes;
-import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import org.benf.cfr.reader.Driver;
+import org.benf.cfr.reader.apiunreleased.ClassFileSource2;
+import org.benf.cfr.reader.apiunreleased.JarContent;
+import org.benf.cfr.reader.bytecode.analysis.parse.utils.Pair;
 import org.benf.cfr.reader.state.ClassFileSourceImpl;
 import org.benf.cfr.reader.state.DCCommonState;
 import org.benf.cfr.reader.util.AnalysisType;
@@ -46,14 +56,25 @@ import org.benf.cfr.reader.util.getopt.OptionsImpl;
 import org.benf.cfr.reader.util.output.SinkDumperFactory;
 
 import net.fabricmc.loom.decompilers.LoomInternalDecompiler;
+import net.fabricmc.loom.decompilers.ParallelSourcesWriter;
 
 public final class LoomCFRDecompiler implements LoomInternalDecompiler {
+	/**
+	 * Set this decompiler option to {@code true} to decompile the classes one at a time on several threads, rather
+	 * than the whole jar on one. Off by default, as the jar wide passes of CFR such as renaming do not run, so the
+	 * sources can differ. Being a decompiler option it is part of the decompile cache key.
+	 */
+	public static final String PARALLEL_OPTION = "loom-parallel";
+
 	private static final Map<String, String> DECOMPILE_OPTIONS = Map.of(
 			"renameillegalidents", "true",
 			"trackbytecodeloc", "true",
 			"comments", "false"
 	);
 
+	// The number of consecutive classes a thread takes at a time
+	private static final int CLASS_BATCH_SIZE = 16;
+
 	@Override
 	public void decompile(LoomInternalDecompiler.Context context) {
 		Path compiledJar = context.compiledJar();
@@ -62,6 +83,8 @@ public final class LoomCFRDecompiler implements LoomInternalDecompiler {
 		final Map<String, String> allOptions = new HashMap<>(DECOMPILE_OPTIONS);
 		allOptions.putAll(context.options());
 
+		// Not a CFR option, it would be rejected
+		final boolean parallel = Boolean.parseBoolean(allOptions.remove(PARALLEL_OPTION)) && context.numberOfThreads() > 1;
 		final Options options = OptionsImpl.getFactory().create(allOptions);
 
 		ClassFileSourceImpl classFileSource = new ClassFileSourceImpl(options);
@@ -70,60 +93,164 @@ public final class LoomCFRDecompiler implements LoomInternalDecompiler {
 			classFileSource.addJarContent(library.toAbsolutePath().toString(), AnalysisType.JAR);
 		}
 
+		if (parallel) {
+			// Classes are decompiled one at a time by path, so they must be found through the class file source
+			classFileSource.addJarContent(path, AnalysisType.JAR);
+		}
+
 		classFileSource.informAnalysisRelativePathDetail(null, null);
 
-		DCCommonState state = new DCCommonState(options, classFileSource);
-
-		if (context.javaDocs() != null) {
-			state = new DCCommonState(state, new CFRObfuscationMapping(context.javaDocs()));
-		}
+		final CFRObfuscationMapping mapping = context.javadocs() != null ? new CFRObfuscationMapping(context.javadocs()) : null;
 
 		final Manifest manifest = new Manifest();
 		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
 
 		Map<String, Map<Integer, Integer>> lineMap;
 
-		try (JarOutputStream outputStream = new JarOutputStream(Files.newOutputStream(context.sourcesDestination()), manifest)) {
-			CFRSinkFactory cfrSinkFactory = new CFRSinkFactory(outputStream, context.logger());
-			SinkDumperFactory dumperFactory = new SinkDumperFactory(cfrSinkFactory, options);
+		try (ParallelSourcesWriter writer = new ParallelSourcesWriter(context.sourcesDestination(), manifest, context.lineMappings())) {
+			CFRSinkFactory cfrSinkFactory = new CFRSinkFactory(writer, context.logger());
 
-			Driver.doJar(state, path, AnalysisType.JAR, dumperFactory);
+			try {
+				if (parallel) {
+					decompileParallel(context, options, new SynchronizedClassFileSource(classFileSource), mapping, cfrSinkFactory);
+				} else {
+					Driver.doJar(createState(options, classFileSource, mapping), path, AnalysisType.JAR, new SinkDumperFactory(cfrSinkFactory, options));
+				}
+			} catch (Throwable t) {
+				// Do not leave a jar with only some of the classes behind
+				writer.abort(t);
+				throw t;
+			}
 
 			lineMap = cfrSinkFactory.getLineMap();
 		} catch (IOException e) {
 			throw new UncheckedIOException("Failed to decompile", e);
 		}
 
-		writeLineMap(context.linemapDestination(), lineMap);
+		reportLineMap(context.lineMappings(), lineMap);
 	}
 
-	private void writeLineMap(Path output, Map<String, Map<Integer, Integer>> lineMap) {
-		try (Writer writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
-			for (Map.Entry<String, Map<Integer, Integer>> classEntry : lineMap.entrySet()) {
-				final String name = classEntry.getKey().replace(".", "/");
+	/**
+	 * Decompile the classes of the jar on several threads. Each thread pulls the next batch of classes from the shared
+	 * list, and keeps its own {@link DCCommonState} so that classes it has already loaded are reused. The class file
+	 * source is shared between the threads.
+	 */
+	private static void decompileParallel(LoomInternalDecompiler.Context context, Options options, ClassFileSource2 classFileSource, CFRObfuscationMapping mapping, CFRSinkFactory cfrSinkFactory) throws IOException {
+		final List<String> classes = listClasses(context.compiledJar());
+
+		if (classes.isEmpty()) {
+			return;
+		}
+
+		final AtomicInteger nextBatch = new AtomicInteger();
+		final int threads = Math.min(context.numberOfThreads(), (classes.size() + CLASS_BATCH_SIZE - 1) / CLASS_BATCH_SIZE);
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+		try {
+			final List<Future<?>> futures = new ArrayList<>();
 
-				final Map<Integer, Integer> mapping = classEntry.getValue();
+			for (int i = 0; i < threads; i++) {
+				futures.add(executor.submit(() -> {
+					final DCCommonState state = createState(options, classFileSource, mapping);
+					final SinkDumperFactory dumperFactory = new SinkDumperFactory(cfrSinkFactory, options);
+					int start;
 
-				int maxLine = 0;
-				int maxLineDest = 0;
-				StringBuilder builder = new StringBuilder();
+					while ((start = nextBatch.getAndAdd(CLASS_BATCH_SIZE)) < classes.size()) {
+						for (String name : classes.subList(start, Math.min(start + CLASS_BATCH_SIZE, classes.size()))) {
+							// Inner classes are skipped, they are decompiled as part of their outer class
+							Driver.doClass(state, name, true, dumperFactory);
+						}
+					}
+				}));
+			}
 
-				for (Map.Entry<Integer, Integer> mappingEntry : mapping.entrySet()) {
-					final int src = mappingEntry.getKey();
-					final int dst = mappingEntry.getValue();
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while decompiling", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Failed to decompile", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
 
-					maxLine = Math.max(maxLine, src);
-					maxLineDest = Math.max(maxLineDest, dst);
+	private static DCCommonState createState(Options options, ClassFileSource2 classFileSource, CFRObfuscationMapping mapping) {
+		DCCommonState state = new DCCommonState(options, classFileSource);
+
+		if (mapping != null) {
+			state = new DCCommonState(state, mapping);
+		}
+
+		return state;
+	}
 
-					builder.append("\t").append(src).append("\t").append(dst).append("\n");
+	// Sorted so that the batches handed to each thread hold neighbouring classes, mostly from the same package
+	private static List<String> listClasses(Path jar) throws IOException {
+		final List<String> classes = new ArrayList<>();
+
+		try (ZipFile zipFile = new ZipFile(jar.toFile())) {
+			final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+
+			while (entries.hasMoreElements()) {
+				final String name = entries.nextElement().getName();
+
+				if (name.endsWith(".class") && !name.startsWith("META-INF/") && !name.equals("module-info.class")) {
+					classes.add(name);
 				}
+			}
+		}
 
-				writer.write(String.format(Locale.ENGLISH, "%s\t%d\t%d\n", name, maxLine, maxLineDest));
-				writer.write(builder.toString());
-				writer.write("\n");
+		Collections.sort(classes);
+		return classes;
+	}
+
+	private static void reportLineMap(LoomInternalDecompiler.LineMappingSink lineMappings, Map<String, Map<Integer, Integer>> lineMap) {
+		for (Map.Entry<String, Map<Integer, Integer>> classEntry : lineMap.entrySet()) {
+			final String name = classEntry.getKey().replace(".", "/");
+			final Map<Integer, Integer> mapping = classEntry.getValue();
+			final int[] pairs = new int[mapping.size() * 2];
+			int i = 0;
+
+			for (Map.Entry<Integer, Integer> mappingEntry : mapping.entrySet()) {
+				pairs[i++] = mappingEntry.getKey();
+				pairs[i++] = mappingEntry.getValue();
 			}
-		} catch (IOException e) {
-			throw new UncheckedIOException("Failed to write line map", e);
+
+			lineMappings.accept(name, pairs);
+		}
+	}
+
+	/**
+	 * {@link ClassFileSourceImpl} is not thread safe, it builds its map from classes to jars lazily on the first
+	 * lookup. The decompiling threads take turns reading class files through it.
+	 */
+	private record SynchronizedClassFileSource(ClassFileSourceImpl delegate) implements ClassFileSource2 {
+		@Override
+		public synchronized JarContent addJarContent(String jarPath, AnalysisType analysisType) {
+			return delegate.addJarContent(jarPath, analysisType);
+		}
+
+		@Override
+		public synchronized void informAnalysisRelativePathDetail(String usePath, String classFilePath) {
+			delegate.informAnalysisRelativePathDetail(usePath, classFilePath);
+		}
+
+		@Override
+		public synchronized Collection<String> addJar(String jarPath) {
+			return delegate.addJar(jarPath);
+		}
+
+		@Override
+		public synchronized String getPossiblyRenamedPath(String path) {
+			return delegate.getPossiblyRenamedPath(path);
+		}
+
+		@Override
+		public synchronized Pair<byte[], String> getClassFileContent(String path) throws IOException {
+			return delegate.getClassFileContent(path);
 		}
 	}
 }
@@ -0,0 +1,460 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2024 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.decompilers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A read only index of the javadoc of classes, fields and methods, keyed by owner, name and descriptor.
+ *
+ * <p>The index is an open addressing hash table laid out so it can be used straight from a memory mapped file, nothing
+ * is decoded until a lookup hits an entry. Opening an index is therefore independent of the number of mappings, and
+ * lookups are safe from any number of threads.
+ *
+ * <p>Every name is the named (deobfuscated) name, matching the classes being decompiled.
+ *
+ * <p>The index also holds a digest of all the javadoc of each class, so classes without any javadoc can be skipped
+ * without looking up each of their members.
+ */
+public final class JavadocIndex {
+	private static final int MAGIC = 0x4A444958; // JDIX
+	private static final int VERSION = 2;
+	private static final int HEADER_SIZE = 16;
+
+	private static final byte KIND_CLASS = 0;
+	private static final byte KIND_FIELD = 1;
+	private static final byte KIND_METHOD = 2;
+	private static final byte KIND_DIGEST = 3;
+
+	private final ByteBuffer buffer;
+	private final int capacity;
+
+	private JavadocIndex(ByteBuffer buffer, int capacity) {
+		this.buffer = buffer;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Memory map an index written by {@link Builder#write(Path)}.
+	 */
+	public static JavadocIndex open(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	public static JavadocIndex read(ByteBuffer buffer) throws IOException {
+		buffer = buffer.slice().order(ByteOrder.BIG_ENDIAN);
+
+		if (!isIndex(buffer)) {
+			throw new IOException("Not a javadoc index");
+		}
+
+		final int version = buffer.getInt(4);
+
+		if (version != VERSION) {
+			throw new IOException("Unsupported javadoc index version: " + version);
+		}
+
+		final int capacity = buffer.getInt(8);
+
+		if (Integer.bitCount(capacity) != 1 || HEADER_SIZE + (long) capacity * 4 > buffer.limit()) {
+			throw new IOException("Invalid javadoc index capacity: " + capacity);
+		}
+
+		return new JavadocIndex(buffer, capacity);
+	}
+
+	/**
+	 * @return true if the file is a javadoc index of the current version, rather than the mappings it can be built from
+	 */
+	public static boolean isIndex(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			final ByteBuffer header = ByteBuffer.allocate(8);
+
+			while (header.hasRemaining() && channel.read(header) >= 0) {
+				// Keep reading
+			}
+
+			header.flip();
+			return isIndex(header) && header.remaining() >= 8 && header.getInt(4) == VERSION;
+		}
+	}
+
+	private static boolean isIndex(ByteBuffer buffer) {
+		return buffer.remaining() >= 4 && buffer.getInt(buffer.position()) == MAGIC;
+	}
+
+	/**
+	 * @return The number of classes, fields and methods in the index
+	 */
+	public int size() {
+		return buffer.getInt(12);
+	}
+
+	/**
+	 * @return The javadoc of the class, or null if there is none
+	 */
+	public String classDoc(String owner) {
+		final int entry = find(KIND_CLASS, owner);
+		return entry < 0 ? null : readString(entry);
+	}
+
+	/**
+	 * @return The javadoc of the field, or null if there is none
+	 */
+	public String fieldDoc(String owner, String name, String descriptor) {
+		final int entry = find(KIND_FIELD, owner + '.' + name + ':' + descriptor);
+		return entry < 0 ? null : readString(entry);
+	}
+
+	/**
+	 * @return A hex digest of all the javadoc of the class and its members, or null if none of them are documented
+	 */
+	public String classDigest(String owner) {
+		final int entry = find(KIND_DIGEST, owner);
+		return entry < 0 ? null : readString(entry);
+	}
+
+	/**
+	 * @return The javadoc of the method and its parameters, or null if there is none
+	 */
+	public MethodDoc methodDoc(String owner, String name, String descriptor) {
+		int position = find(KIND_METHOD, owner + '.' + name + descriptor);
+
+		if (position < 0) {
+			return null;
+		}
+
+		final String comment = readString(position);
+		position = skipString(position);
+		final int parameterCount = buffer.getInt(position);
+		position += 4;
+
+		final List<Parameter> parameters = new ArrayList<>(parameterCount);
+
+		for (int i = 0; i < parameterCount; i++) {
+			final String parameterName = readString(position);
+			position = skipString(position);
+			final String parameterComment = readString(position);
+			position = skipString(position);
+			parameters.add(new Parameter(parameterName, parameterComment));
+		}
+
+		return new MethodDoc(comment, List.copyOf(parameters));
+	}
+
+	/**
+	 * @return The position of the value of the entry, or -1 if there is no such entry
+	 */
+	private int find(byte kind, String key) {
+		final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+		final int hash = hash(kind, key);
+		int slot = hash & (capacity - 1);
+
+		while (true) {
+			final int entry = buffer.getInt(HEADER_SIZE + slot * 4);
+
+			if (entry == 0) {
+				return -1;
+			}
+
+			// Entry layout: hash, kind, key length, key, value
+			if (buffer.getInt(entry) == hash && buffer.get(entry + 4) == kind && keyEquals(entry + 5, keyBytes)) {
+				return entry + 9 + keyBytes.length;
+			}
+
+			slot = (slot + 1) & (capacity - 1);
+		}
+	}
+
+	private boolean keyEquals(int position, byte[] key) {
+		if (buffer.getInt(position) != key.length) {
+			return false;
+		}
+
+		for (int i = 0; i < key.length; i++) {
+			if (buffer.get(position + 4 + i) != key[i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private String readString(int position) {
+		final int length = buffer.getInt(position);
+
+		if (length < 0) {
+			return null;
+		}
+
+		return StandardCharsets.UTF_8.decode(buffer.slice(position + 4, length)).toString();
+	}
+
+	private int skipString(int position) {
+		return position + 4 + Math.max(0, buffer.getInt(position));
+	}
+
+	private static int hash(byte kind, String key) {
+		final int hash = key.hashCode() * 31 + kind;
+		// Spread the bits, the table is indexed by the low bits only
+		return (hash ^ (hash >>> 16)) * 0x9E3779B9;
+	}
+
+	/**
+	 * @param comment The javadoc of the method itself, or null if only some of its parameters are documented
+	 * @param parameters The documented parameters, in order
+	 */
+	public record MethodDoc(String comment, List<Parameter> parameters) {
+		public MethodDoc {
+			Objects.requireNonNull(parameters, "parameters");
+		}
+	}
+
+	public record Parameter(String name, String comment) {
+		public Parameter {
+			Objects.requireNonNull(name, "name");
+			Objects.requireNonNull(comment, "comment");
+		}
+	}
+
+	public static final class Builder {
+		private final Map<Key, byte[]> entries = new LinkedHashMap<>();
+		private final Map<String, MessageDigest> digests = new LinkedHashMap<>();
+
+		public Builder classDoc(String owner, String comment) {
+			Objects.requireNonNull(comment, "comment");
+			final var value = new ValueWriter();
+			value.writeString(comment);
+			return put(KIND_CLASS, owner, owner, value);
+		}
+
+		public Builder fieldDoc(String owner, String name, String descriptor, String comment) {
+			Objects.requireNonNull(comment, "comment");
+			final var value = new ValueWriter();
+			value.writeString(comment);
+			return put(KIND_FIELD, owner, owner + '.' + name + ':' + descriptor, value);
+		}
+
+		/**
+		 * Methods without a comment on either themselves or any of the parameters are ignored.
+		 */
+		public Builder methodDoc(String owner, String name, String descriptor, String comment, List<Parameter> parameters) {
+			if (comment == null && parameters.isEmpty()) {
+				return this;
+			}
+
+			final var value = new ValueWriter();
+			value.writeString(comment);
+			value.writeInt(parameters.size());
+
+			for (Parameter parameter : parameters) {
+				value.writeString(parameter.name());
+				value.writeString(parameter.comment());
+			}
+
+			return put(KIND_METHOD, owner, owner + '.' + name + descriptor, value);
+		}
+
+		private Builder put(byte kind, String owner, String key, ValueWriter value) {
+			final byte[] bytes = value.toByteArray();
+			final byte[] previous = entries.putIfAbsent(new Key(kind, key), bytes);
+
+			if (previous != null) {
+				throw new IllegalStateException("Duplicate javadoc for " + key);
+			}
+
+			final MessageDigest digest = digests.computeIfAbsent(owner, o -> newDigest());
+			final var keyBytes = new ValueWriter();
+			keyBytes.write(kind);
+			keyBytes.writeString(key);
+			digest.update(keyBytes.toByteArray());
+			digest.update(bytes);
+			return this;
+		}
+
+		/**
+		 * @return The number of documented classes, fields and methods
+		 */
+		public int size() {
+			return entries.size();
+		}
+
+		public byte[] build() {
+			final Map<Key, byte[]> allEntries = new LinkedHashMap<>(entries);
+
+			for (Map.Entry<String, MessageDigest> digest : digests.entrySet()) {
+				final var value = new ValueWriter();
+				value.writeString(HexFormat.of().formatHex(cloneDigest(digest.getValue()).digest()));
+				allEntries.put(new Key(KIND_DIGEST, digest.getKey()), value.toByteArray());
+			}
+
+			int capacity = 2;
+
+			while (capacity < allEntries.size() * 2) {
+				capacity <<= 1;
+			}
+
+			final int[] slots = new int[capacity];
+			final var data = new ValueWriter();
+			final int dataStart = HEADER_SIZE + capacity * 4;
+
+			for (Map.Entry<Key, byte[]> entry : allEntries.entrySet()) {
+				final Key key = entry.getKey();
+				final byte[] keyBytes = key.key().getBytes(StandardCharsets.UTF_8);
+				final int hash = hash(key.kind(), key.key());
+				final long position = (long) dataStart + data.size();
+
+				if (position > Integer.MAX_VALUE - 9 - keyBytes.length - entry.getValue().length) {
+					throw new IllegalStateException("Javadoc index is too large");
+				}
+
+				int slot = hash & (capacity - 1);
+
+				while (slots[slot] != 0) {
+					slot = (slot + 1) & (capacity - 1);
+				}
+
+				slots[slot] = (int) position;
+
+				data.writeInt(hash);
+				data.write(key.kind());
+				data.writeInt(keyBytes.length);
+				data.write(keyBytes, 0, keyBytes.length);
+				data.write(entry.getValue(), 0, entry.getValue().length);
+			}
+
+			final ByteBuffer buffer = ByteBuffer.allocate(dataStart + data.size()).order(ByteOrder.BIG_ENDIAN);
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(capacity);
+			// The digests are not counted
+			buffer.putInt(entries.size());
+			buffer.asIntBuffer().put(slots);
+			buffer.position(dataStart);
+			data.writeTo(buffer);
+			return buffer.array();
+		}
+
+		public void write(Path path) throws IOException {
+			final byte[] bytes = build();
+
+			try (OutputStream out = Files.newOutputStream(path)) {
+				out.write(bytes);
+			}
+		}
+
+		private static MessageDigest newDigest() {
+			try {
+				return MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		private static MessageDigest cloneDigest(MessageDigest digest) {
+			try {
+				return (MessageDigest) digest.clone();
+			} catch (CloneNotSupportedException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	private record Key(byte kind, String key) {
+	}
+
+	private static final class ValueWriter {
+		private byte[] bytes = new byte[64];
+		private int size = 0;
+
+		void write(int b) {
+			ensureCapacity(1);
+			bytes[size++] = (byte) b;
+		}
+
+		void write(byte[] b, int offset, int length) {
+			ensureCapacity(length);
+			System.arraycopy(b, offset, bytes, size, length);
+			size += length;
+		}
+
+		void writeInt(int value) {
+			ensureCapacity(4);
+			bytes[size++] = (byte) (value >>> 24);
+			bytes[size++] = (byte) (value >>> 16);
+			bytes[size++] = (byte) (value >>> 8);
+			bytes[size++] = (byte) value;
+		}
+
+		// A negative length stands for null
+		void writeString(String value) {
+			if (value == null) {
+				writeInt(-1);
+				return;
+			}
+
+			final byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+			writeInt(utf8.length);
+			write(utf8, 0, utf8.length);
+		}
+
+		int size() {
+			return size;
+		}
+
+		byte[] toByteArray() {
+			return Arrays.copyOf(bytes, size);
+		}
+
+		void writeTo(ByteBuffer buffer) {
+			buffer.put(bytes, 0, size);
+		}
+
+		private void ensureCapacity(int additional) {
+			if (size + additional > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + additional));
+			}
+		}
+	}
+}
@@ -38,11 +38,17 @@ public interface LoomInternalDecompiler {
 
 		Path sourcesDestination();
 
-		Path linemapDestination();
+		/**
+		 * Where to report the line mappings of each decompiled class.
+		 */
+		LineMappingSink lineMappings();
 
 		int numberOfThreads();
 
-		Path javaDocs();
+		/**
+		 * The javadoc to insert into the decompiled sources, or null if there is none.
+		 */
+		JavadocIndex javadocs();
 
 		Collection<Path> libraries();
 
@@ -53,6 +59,17 @@ public interface LoomInternalDecompiler {
 		byte[] unpackZip(Path zip, String path) throws IOException;
 	}
 
+	@FunctionalInterface
+	interface LineMappingSink {
+		/**
+		 * Report the line mappings of a decompiled class, this can be called from any thread.
+		 *
+		 * @param className The internal name of the class
+		 * @param mapping Pairs of line numbers in the compiled class and in the decompiled sources
+		 */
+		void accept(String className, int[] mapping);
+	}
+
 	interface Logger {
 		void accept(String data) throws IOException;
 
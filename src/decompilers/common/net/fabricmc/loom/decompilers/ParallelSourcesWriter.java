@@ -0,0 +1,177 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2024 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.decompilers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipException;
+
+import net.fabricmc.loom.util.RawZipFile;
+import net.fabricmc.loom.util.RawZipWriter;
+
+/**
+ * Writes the sources jar of a decompiler that saves classes from many threads at once.
+ *
+ * <p>Each class is encoded and deflated on the decompiler thread that saves it. This keeps the decompiler threads from
+ * queueing behind a single compressing thread. The compressed entries are streamed to an unfinished jar beside the
+ * output as they complete, {@link #close()} then copies them without recompressing into the output sorted by name, so
+ * that the jar does not depend on the order the threads finished in. If decompiling fails {@link #abort(Throwable)}
+ * deletes both. Line mappings are passed straight on to the {@link LoomInternalDecompiler.LineMappingSink}.
+ */
+public final class ParallelSourcesWriter implements Closeable {
+	// The manifest first, then the rest by name
+	private static final Comparator<RawZipFile.Entry> ENTRY_ORDER = Comparator
+			.comparing((RawZipFile.Entry entry) -> !entry.name().equals(JarFile.MANIFEST_NAME))
+			.thenComparing(RawZipFile.Entry::name);
+
+	private final Path output;
+	private final Path unfinished;
+	private final RawZipWriter zipWriter;
+	private final LoomInternalDecompiler.LineMappingSink lineMappings;
+	private final Set<String> entryNames = new HashSet<>();
+	private final int dosTime;
+	private boolean closed = false;
+
+	/**
+	 * @param manifest The manifest to write to the jar, or null
+	 */
+	public ParallelSourcesWriter(Path output, Manifest manifest, LoomInternalDecompiler.LineMappingSink lineMappings) throws IOException {
+		this.output = output;
+		this.unfinished = output.resolveSibling(output.getFileName() + ".unfinished");
+		this.zipWriter = new RawZipWriter(unfinished);
+		this.dosTime = RawZipWriter.toDosTime(System.currentTimeMillis());
+		this.lineMappings = lineMappings;
+
+		if (manifest != null) {
+			final var bytes = new ByteArrayOutputStream();
+			manifest.write(bytes);
+			writeEntry(JarFile.MANIFEST_NAME, RawZipWriter.deflate(bytes.toByteArray()));
+		}
+	}
+
+	/**
+	 * Write the sources of a class, this can be called from any thread.
+	 *
+	 * @param content The sources, or null for an empty entry
+	 * @param mapping Pairs of original and decompiled line numbers, or null
+	 * @throws ZipException If an entry with the same name has already been written
+	 */
+	public void write(String qualifiedName, String entryName, String content, int[] mapping) throws IOException {
+		writeEntry(entryName, RawZipWriter.deflate(content == null ? new byte[0] : content.getBytes(StandardCharsets.UTF_8)));
+
+		if (mapping != null) {
+			lineMappings.accept(qualifiedName, mapping);
+		}
+	}
+
+	private void writeEntry(String entryName, RawZipWriter.Compressed compressed) throws IOException {
+		synchronized (zipWriter) {
+			if (closed) {
+				throw new IllegalStateException("Sources jar has already been closed");
+			}
+
+			if (!entryNames.add(entryName)) {
+				throw new ZipException("duplicate entry: " + entryName);
+			}
+
+			zipWriter.writeDeflated(entryName, dosTime, compressed);
+		}
+	}
+
+	/**
+	 * Delete the unfinished jar after decompiling failed, any problem doing so is added to the cause. Closing the
+	 * writer afterwards does nothing.
+	 */
+	public void abort(Throwable cause) {
+		synchronized (zipWriter) {
+			if (closed) {
+				return;
+			}
+
+			closed = true;
+
+			try {
+				zipWriter.close();
+			} catch (IOException e) {
+				cause.addSuppressed(e);
+			}
+
+			try {
+				Files.deleteIfExists(unfinished);
+				Files.deleteIfExists(output);
+			} catch (IOException e) {
+				cause.addSuppressed(e);
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized (zipWriter) {
+			if (closed) {
+				return;
+			}
+
+			closed = true;
+
+			try (zipWriter) {
+				zipWriter.finish();
+			}
+
+			try (RawZipFile zip = RawZipFile.open(unfinished);
+					RawZipWriter sorted = new RawZipWriter(output)) {
+				final List<RawZipFile.Entry> entries = new ArrayList<>(zip.entries());
+				entries.sort(ENTRY_ORDER);
+
+				for (RawZipFile.Entry entry : entries) {
+					sorted.writeRaw(entry, zip.readRaw(entry));
+				}
+
+				sorted.finish();
+			} catch (IOException | RuntimeException e) {
+				try {
+					Files.deleteIfExists(output);
+				} catch (IOException suppressed) {
+					e.addSuppressed(suppressed);
+				}
+
+				throw e;
+			}
+
+			Files.delete(unfinished);
+		}
+	}
+}
@@ -0,0 +1,271 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2024 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * A minimal zip reader that exposes the raw, still compressed, data of each entry so that it can be copied to another
+ * zip with {@link RawZipWriter} without being inflated and deflated again.
+ *
+ * <p>Only the central directory is parsed when opening, entries are read with positional reads so the file can be read
+ * from many threads at once. Zip64 and encrypted archives are not supported and fail to open with a {@link ZipException},
+ * callers are expected to fall back to {@link java.util.zip.ZipFile} or a zip file system.
+ */
+public final class RawZipFile implements AutoCloseable {
+	static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+	static final int LOCAL_HEADER_LENGTH = 30;
+	static final int CENTRAL_HEADER_LENGTH = 46;
+	static final int END_OF_CENTRAL_DIRECTORY_LENGTH = 22;
+
+	static final int FLAG_ENCRYPTED = 1;
+	static final int FLAG_DATA_DESCRIPTOR = 1 << 3;
+	static final int FLAG_UTF8 = 1 << 11;
+
+	private static final int ZIP64_MAGIC_SHORT = 0xFFFF;
+	private static final long ZIP64_MAGIC_INT = 0xFFFFFFFFL;
+
+	private final FileChannel channel;
+	private final List<Entry> entries;
+
+	private RawZipFile(FileChannel channel, List<Entry> entries) {
+		this.channel = channel;
+		this.entries = entries;
+	}
+
+	public static RawZipFile open(Path path) throws IOException {
+		final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+
+		try {
+			return new RawZipFile(channel, readCentralDirectory(channel));
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return The entries in central directory order
+	 */
+	public List<Entry> entries() {
+		return entries;
+	}
+
+	/**
+	 * @return The data of the entry as stored in the zip, compressed with {@link Entry#method()}
+	 */
+	public ByteBuffer readRaw(Entry entry) throws IOException {
+		final ByteBuffer header = read(entry.localHeaderOffset(), LOCAL_HEADER_LENGTH);
+
+		if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+			throw new ZipException("Invalid local header for " + entry.name());
+		}
+
+		final long dataOffset = entry.localHeaderOffset() + LOCAL_HEADER_LENGTH + Short.toUnsignedInt(header.getShort(26)) + Short.toUnsignedInt(header.getShort(28));
+		return read(dataOffset, (int) entry.compressedSize());
+	}
+
+	/**
+	 * @return The uncompressed data of the entry
+	 */
+	public byte[] read(Entry entry) throws IOException {
+		final ByteBuffer raw = readRaw(entry);
+		final byte[] data = new byte[(int) entry.size()];
+
+		if (entry.method() == ZipEntry.STORED) {
+			if (raw.remaining() != data.length) {
+				throw new ZipException("Stored entry size mismatch for " + entry.name());
+			}
+
+			raw.get(data);
+			return data;
+		}
+
+		if (entry.method() != ZipEntry.DEFLATED) {
+			throw new ZipException("Unsupported compression method " + entry.method() + " for " + entry.name());
+		}
+
+		final Inflater inflater = new Inflater(true);
+
+		try {
+			inflater.setInput(raw);
+			int read = 0;
+
+			while (read < data.length) {
+				int count = inflater.inflate(data, read, data.length - read);
+
+				if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+					break;
+				}
+
+				read += count;
+			}
+
+			if (read != data.length) {
+				throw new ZipException("Expected " + data.length + " bytes for " + entry.name() + " but got " + read);
+			}
+
+			return data;
+		} catch (DataFormatException e) {
+			throw new ZipException("Failed to inflate " + entry.name() + ": " + e.getMessage());
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private ByteBuffer read(long position, int length) throws IOException {
+		return read(channel, position, length);
+	}
+
+	private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new ZipException("Unexpected end of zip file");
+			}
+		}
+
+		return buffer.flip();
+	}
+
+	private static List<Entry> readCentralDirectory(FileChannel channel) throws IOException {
+		final long fileSize = channel.size();
+
+		// The end of central directory record is followed by a comment of at most 65535 bytes
+		final int tailLength = (int) Math.min(fileSize, END_OF_CENTRAL_DIRECTORY_LENGTH + 0xFFFF);
+		final ByteBuffer tail = read(channel, fileSize - tailLength, tailLength);
+		int eocd = -1;
+
+		for (int i = tailLength - END_OF_CENTRAL_DIRECTORY_LENGTH; i >= 0; i--) {
+			if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+				eocd = i;
+				break;
+			}
+		}
+
+		if (eocd < 0) {
+			throw new ZipException("Missing end of central directory");
+		}
+
+		final int entryCount = Short.toUnsignedInt(tail.getShort(eocd + 10));
+		final long directorySize = Integer.toUnsignedLong(tail.getInt(eocd + 12));
+		final long directoryOffset = Integer.toUnsignedLong(tail.getInt(eocd + 16));
+
+		if (tail.getShort(eocd + 4) != 0 || tail.getShort(eocd + 6) != 0) {
+			throw new ZipException("Multi-disk zip files are not supported");
+		}
+
+		if (entryCount == ZIP64_MAGIC_SHORT || directorySize == ZIP64_MAGIC_INT || directoryOffset == ZIP64_MAGIC_INT) {
+			throw new ZipException("Zip64 files are not supported");
+		}
+
+		if (directoryOffset + directorySize > fileSize) {
+			throw new ZipException("Central directory extends past the end of the file");
+		}
+
+		final ByteBuffer directory = read(channel, directoryOffset, (int) directorySize);
+		final List<Entry> entries = new ArrayList<>(entryCount);
+
+		for (int i = 0; i < entryCount; i++) {
+			final int start = directory.position();
+
+			if (directory.remaining() < CENTRAL_HEADER_LENGTH || directory.getInt(start) != CENTRAL_HEADER_SIGNATURE) {
+				throw new ZipException("Invalid central directory header at entry " + i);
+			}
+
+			final int versionMadeBy = Short.toUnsignedInt(directory.getShort(start + 4));
+			final int versionNeeded = Short.toUnsignedInt(directory.getShort(start + 6));
+			final int flags = Short.toUnsignedInt(directory.getShort(start + 8));
+			final int method = Short.toUnsignedInt(directory.getShort(start + 10));
+			final int dosTime = directory.getInt(start + 12);
+			final int crc = directory.getInt(start + 16);
+			final long compressedSize = Integer.toUnsignedLong(directory.getInt(start + 20));
+			final long size = Integer.toUnsignedLong(directory.getInt(start + 24));
+			final int nameLength = Short.toUnsignedInt(directory.getShort(start + 28));
+			final int extraLength = Short.toUnsignedInt(directory.getShort(start + 30));
+			final int commentLength = Short.toUnsignedInt(directory.getShort(start + 32));
+			final int externalAttributes = directory.getInt(start + 38);
+			final long localHeaderOffset = Integer.toUnsignedLong(directory.getInt(start + 42));
+
+			if ((flags & FLAG_ENCRYPTED) != 0) {
+				throw new ZipException("Encrypted zip files are not supported");
+			}
+
+			if (compressedSize == ZIP64_MAGIC_INT || size == ZIP64_MAGIC_INT || localHeaderOffset == ZIP64_MAGIC_INT) {
+				throw new ZipException("Zip64 files are not supported");
+			}
+
+			final int variableLength = nameLength + extraLength + commentLength;
+
+			if (directory.remaining() < CENTRAL_HEADER_LENGTH + variableLength) {
+				throw new ZipException("Truncated central directory at entry " + i);
+			}
+
+			final byte[] name = new byte[nameLength];
+			final byte[] extra = new byte[extraLength];
+			directory.position(start + CENTRAL_HEADER_LENGTH);
+			directory.get(name);
+			directory.get(extra);
+			directory.position(directory.position() + commentLength);
+
+			entries.add(new Entry(new String(name, StandardCharsets.UTF_8), versionMadeBy, versionNeeded, flags, method, dosTime, crc, compressedSize, size, extra, externalAttributes, localHeaderOffset));
+		}
+
+		return Collections.unmodifiableList(entries);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * An entry as described by the central directory.
+	 *
+	 * @param dosTime The MS-DOS time in the lower 16 bits and date in the upper 16 bits
+	 * @param extra The central directory extra field
+	 */
+	public record Entry(String name, int versionMadeBy, int versionNeeded, int flags, int method, int dosTime, int crc, long compressedSize, long size, byte[] extra, int externalAttributes, long localHeaderOffset) {
+		public boolean isDirectory() {
+			return name.endsWith("/");
+		}
+	}
+}
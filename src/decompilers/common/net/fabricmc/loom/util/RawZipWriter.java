@@ -0,0 +1,248 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2024 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Writes a zip file from entries that are already compressed, see {@link RawZipFile}.
+ *
+ * <p>Entries are written in the order they are added, this class is not thread safe. The sizes of every entry are known
+ * up front, so local headers are written complete and without a data descriptor. Zip64 is not supported.
+ */
+public final class RawZipWriter implements AutoCloseable {
+	private static final int VERSION_NEEDED = 20;
+	private static final int MAX_ENTRIES = 0xFFFF;
+	private static final byte[] NO_EXTRA = new byte[0];
+
+	private final OutputStream out;
+	private final ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+	private long position = 0;
+	private int entryCount = 0;
+	private boolean finished = false;
+
+	public RawZipWriter(Path path) throws IOException {
+		this.out = new BufferedOutputStream(Files.newOutputStream(path), 64 * 1024);
+	}
+
+	/**
+	 * Copy an entry from another zip, without recompressing it.
+	 *
+	 * @param rawData The data of the entry as returned by {@link RawZipFile#readRaw(RawZipFile.Entry)}
+	 */
+	public void writeRaw(RawZipFile.Entry entry, ByteBuffer rawData) throws IOException {
+		write(entry, entry.method(), entry.crc(), entry.size(), rawData);
+	}
+
+	/**
+	 * Write new data for an entry, keeping the name, time stamp and attributes of the original.
+	 *
+	 * @param compressed The data as returned by {@link #deflate(byte[])}
+	 */
+	public void writeDeflated(RawZipFile.Entry entry, Compressed compressed) throws IOException {
+		write(entry, ZipEntry.DEFLATED, compressed.crc(), compressed.size(), ByteBuffer.wrap(compressed.data()));
+	}
+
+	/**
+	 * Write a new entry.
+	 *
+	 * @param dosTime The time stamp of the entry, see {@link #toDosTime(long)}
+	 * @param compressed The data as returned by {@link #deflate(byte[])}
+	 */
+	public void writeDeflated(String name, int dosTime, Compressed compressed) throws IOException {
+		final var entry = new RawZipFile.Entry(name, VERSION_NEEDED, VERSION_NEEDED, RawZipFile.FLAG_UTF8, ZipEntry.DEFLATED, dosTime, 0, 0, 0, NO_EXTRA, 0, 0);
+		writeDeflated(entry, compressed);
+	}
+
+	private void write(RawZipFile.Entry entry, int method, int crc, long size, ByteBuffer data) throws IOException {
+		if (finished) {
+			throw new IllegalStateException("Zip has already been finished");
+		}
+
+		if (++entryCount > MAX_ENTRIES || position + data.remaining() > 0xFFFFFFFFL) {
+			throw new ZipException("Zip64 files are not supported");
+		}
+
+		final byte[] name = entry.name().getBytes(StandardCharsets.UTF_8);
+		final int flags = entry.flags() & RawZipFile.FLAG_UTF8;
+		final int versionNeeded = Math.max(VERSION_NEEDED, entry.versionNeeded());
+		final long compressedSize = data.remaining();
+
+		final ByteBuffer localHeader = ByteBuffer.allocate(RawZipFile.LOCAL_HEADER_LENGTH + name.length).order(ByteOrder.LITTLE_ENDIAN)
+				.putInt(RawZipFile.LOCAL_HEADER_SIGNATURE)
+				.putShort((short) versionNeeded)
+				.putShort((short) flags)
+				.putShort((short) method)
+				.putInt(entry.dosTime())
+				.putInt(crc)
+				.putInt((int) compressedSize)
+				.putInt((int) size)
+				.putShort((short) name.length)
+				.putShort((short) 0)
+				.put(name);
+
+		final ByteBuffer centralHeader = ByteBuffer.allocate(RawZipFile.CENTRAL_HEADER_LENGTH + name.length + entry.extra().length).order(ByteOrder.LITTLE_ENDIAN)
+				.putInt(RawZipFile.CENTRAL_HEADER_SIGNATURE)
+				.putShort((short) entry.versionMadeBy())
+				.putShort((short) versionNeeded)
+				.putShort((short) flags)
+				.putShort((short) method)
+				.putInt(entry.dosTime())
+				.putInt(crc)
+				.putInt((int) compressedSize)
+				.putInt((int) size)
+				.putShort((short) name.length)
+				.putShort((short) entry.extra().length)
+				.putShort((short) 0) // Comment length
+				.putShort((short) 0) // Disk number
+				.putShort((short) 0) // Internal attributes
+				.putInt(entry.externalAttributes())
+				.putInt((int) position)
+				.put(name)
+				.put(entry.extra());
+
+		out.write(localHeader.array());
+		writeBuffer(data);
+		centralDirectory.write(centralHeader.array());
+		position += localHeader.capacity() + compressedSize;
+	}
+
+	private void writeBuffer(ByteBuffer data) throws IOException {
+		if (data.hasArray()) {
+			out.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+			return;
+		}
+
+		final byte[] bytes = new byte[data.remaining()];
+		data.duplicate().get(bytes);
+		out.write(bytes);
+	}
+
+	/**
+	 * Write the central directory, the zip is not valid until this has been called.
+	 */
+	public void finish() throws IOException {
+		if (finished) {
+			return;
+		}
+
+		finished = true;
+
+		final long directoryOffset = position;
+		centralDirectory.writeTo(out);
+		position += centralDirectory.size();
+
+		if (position > 0xFFFFFFFFL) {
+			throw new ZipException("Zip64 files are not supported");
+		}
+
+		out.write(ByteBuffer.allocate(RawZipFile.END_OF_CENTRAL_DIRECTORY_LENGTH).order(ByteOrder.LITTLE_ENDIAN)
+				.putInt(RawZipFile.END_OF_CENTRAL_DIRECTORY_SIGNATURE)
+				.putShort((short) 0) // Disk number
+				.putShort((short) 0) // Central directory disk
+				.putShort((short) entryCount)
+				.putShort((short) entryCount)
+				.putInt(centralDirectory.size())
+				.putInt((int) directoryOffset)
+				.putShort((short) 0) // Comment length
+				.array());
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+
+	/**
+	 * Deflate data for {@link #writeDeflated(RawZipFile.Entry, Compressed)}, this can be called from any thread.
+	 */
+	public static Compressed deflate(byte[] data) {
+		final CRC32 crc = new CRC32();
+		crc.update(data);
+
+		// Ended straight away rather than cached per thread, callers may run on short lived virtual threads
+		final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+
+		try {
+			deflater.setInput(data);
+			deflater.finish();
+
+			// Enough for incompressible data in a single pass, deflate adds 5 bytes for every stored block of up to 16KB
+			byte[] compressed = new byte[data.length + (data.length >> 12) + 64];
+			int length = 0;
+
+			while (!deflater.finished()) {
+				if (length == compressed.length) {
+					compressed = Arrays.copyOf(compressed, compressed.length * 2);
+				}
+
+				length += deflater.deflate(compressed, length, compressed.length - length);
+			}
+
+			return new Compressed(Arrays.copyOf(compressed, length), (int) crc.getValue(), data.length);
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Convert a Java time stamp into the MS-DOS date and time stored in zip headers, in the local time zone.
+	 */
+	public static int toDosTime(long time) {
+		final LocalDateTime dateTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+
+		if (dateTime.getYear() < 1980) {
+			// The earliest time that can be represented, 1980-01-01 00:00
+			return (1 << 21) | (1 << 16);
+		}
+
+		return (dateTime.getYear() - 1980) << 25
+				| dateTime.getMonthValue() << 21
+				| dateTime.getDayOfMonth() << 16
+				| dateTime.getHour() << 11
+				| dateTime.getMinute() << 5
+				| dateTime.getSecond() >> 1;
+	}
+
+	public record Compressed(byte[] data, int crc, long size) {
+	}
+}
@@ -32,7 +32,6 @@ import java.util.Map;
 
 import org.jetbrains.java.decompiler.main.Fernflower;
 import org.jetbrains.java.decompiler.main.extern.IFernflowerPreferences;
-import org.jetbrains.java.decompiler.main.extern.IResultSaver;
 import org.jetbrains.java.decompiler.util.InterpreterUtil;
 
 import net.fabricmc.fernflower.api.IFabricJavadocProvider;
@@ -42,7 +41,6 @@ public final class FabricFernFlowerDecompiler implements LoomInternalDecompiler
 	@Override
 	public void decompile(LoomInternalDecompiler.Context context) {
 		Path sourcesDestination = context.sourcesDestination();
-		Path linemapDestination = context.linemapDestination();
 
 		final Map<String, Object> options = new HashMap<>(
 				Map.of(
@@ -51,14 +49,17 @@ public final class FabricFernFlowerDecompiler implements LoomInternalDecompiler
 					IFernflowerPreferences.REMOVE_SYNTHETIC, "1",
 					IFernflowerPreferences.LOG_LEVEL, "trace",
 					IFernflowerPreferences.THREADS, String.valueOf(context.numberOfThreads()),
-					IFernflowerPreferences.INDENT_STRING, "\t",
-					IFabricJavadocProvider.PROPERTY_NAME, new TinyJavadocProvider(context.javaDocs().toFile())
+					IFernflowerPreferences.INDENT_STRING, "\t"
 				)
 		);
 
+		if (context.javadocs() != null) {
+			options.put(IFabricJavadocProvider.PROPERTY_NAME, new JavadocIndexProvider(context.javadocs()));
+		}
+
 		options.putAll(context.options());
 
-		IResultSaver saver = new ThreadSafeResultSaver(sourcesDestination::toFile, linemapDestination::toFile);
+		ThreadSafeResultSaver saver = new ThreadSafeResultSaver(sourcesDestination::toFile, context.lineMappings());
 		Fernflower ff = new Fernflower((externalPath, internalPath) -> FabricFernFlowerDecompiler.this.getBytecode(externalPath, internalPath, context), saver, options, new FernflowerLogger(context.logger()));
 
 		for (Path library : context.libraries()) {
@@ -69,6 +70,9 @@ public final class FabricFernFlowerDecompiler implements LoomInternalDecompiler
 
 		try {
 			ff.decompileContext();
+		} catch (Throwable t) {
+			saver.abort(t);
+			throw t;
 		} finally {
 			ff.clearContext();
 		}
@@ -24,10 +24,6 @@
 
 package net.fabricmc.loom.decompilers.fernflower;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.IOException;
-import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -37,31 +33,24 @@ import org.jetbrains.java.decompiler.struct.StructMethod;
 import org.jetbrains.java.decompiler.struct.StructRecordComponent;
 
 import net.fabricmc.fernflower.api.IFabricJavadocProvider;
-import net.fabricmc.mappingio.MappingReader;
-import net.fabricmc.mappingio.adapter.MappingSourceNsSwitch;
-import net.fabricmc.mappingio.tree.MappingTree;
-import net.fabricmc.mappingio.tree.MemoryMappingTree;
+import net.fabricmc.loom.decompilers.JavadocIndex;
 
-public class TinyJavadocProvider implements IFabricJavadocProvider {
+public class JavadocIndexProvider implements IFabricJavadocProvider {
 	private static final int ACC_STATIC = 0x0008;
 	private static final int ACC_RECORD = 0x10000;
 
-	private final MappingTree mappingTree;
+	private final JavadocIndex javadocs;
 
-	public TinyJavadocProvider(File tinyFile) {
-		mappingTree = readMappings(tinyFile);
+	public JavadocIndexProvider(JavadocIndex javadocs) {
+		this.javadocs = javadocs;
 	}
 
 	@Override
 	public String getClassDoc(StructClass structClass) {
-		MappingTree.ClassMapping classMapping = mappingTree.getClass(structClass.qualifiedName);
-
-		if (classMapping == null) {
-			return null;
-		}
+		String classComment = javadocs.classDoc(structClass.qualifiedName);
 
 		if (!isRecord(structClass)) {
-			return classMapping.getComment();
+			return classComment;
 		}
 
 		/**
@@ -71,30 +60,24 @@ public class TinyJavadocProvider implements IFabricJavadocProvider {
 		 */
 		List<String> parts = new ArrayList<>();
 
-		if (classMapping.getComment() != null) {
-			parts.add(classMapping.getComment());
+		if (classComment != null) {
+			parts.add(classComment);
 		}
 
 		boolean addedParam = false;
 
 		for (StructRecordComponent component : structClass.getRecordComponents()) {
 			// The component will always match the field name and descriptor
-			MappingTree.FieldMapping fieldMapping = classMapping.getField(component.getName(), component.getDescriptor());
-
-			if (fieldMapping == null) {
-				continue;
-			}
-
-			String comment = fieldMapping.getComment();
+			String comment = javadocs.fieldDoc(structClass.qualifiedName, component.getName(), component.getDescriptor());
 
 			if (comment != null) {
-				if (!addedParam && classMapping.getComment() != null) {
+				if (!addedParam && classComment != null) {
 					//Add a blank line before components when the class has a comment
 					parts.add("");
 					addedParam = true;
 				}
 
-				parts.add(String.format("@param %s %s", fieldMapping.getName("named"), comment));
+				parts.add(String.format("@param %s %s", component.getName(), comment));
 			}
 		}
 
@@ -112,70 +95,40 @@ public class TinyJavadocProvider implements IFabricJavadocProvider {
 			return null;
 		}
 
-		MappingTree.ClassMapping classMapping = mappingTree.getClass(structClass.qualifiedName);
-
-		if (classMapping == null) {
-			return null;
-		}
-
-		MappingTree.FieldMapping fieldMapping = classMapping.getField(structField.getName(), structField.getDescriptor());
-
-		return fieldMapping != null ? fieldMapping.getComment() : null;
+		return javadocs.fieldDoc(structClass.qualifiedName, structField.getName(), structField.getDescriptor());
 	}
 
 	@Override
 	public String getMethodDoc(StructClass structClass, StructMethod structMethod) {
-		MappingTree.ClassMapping classMapping = mappingTree.getClass(structClass.qualifiedName);
+		JavadocIndex.MethodDoc methodDoc = javadocs.methodDoc(structClass.qualifiedName, structMethod.getName(), structMethod.getDescriptor());
 
-		if (classMapping == null) {
+		if (methodDoc == null) {
 			return null;
 		}
 
-		MappingTree.MethodMapping methodMapping = classMapping.getMethod(structMethod.getName(), structMethod.getDescriptor());
-
-		if (methodMapping != null) {
-			List<String> parts = new ArrayList<>();
-
-			if (methodMapping.getComment() != null) {
-				parts.add(methodMapping.getComment());
-			}
-
-			boolean addedParam = false;
-
-			for (MappingTree.MethodArgMapping argMapping : methodMapping.getArgs()) {
-				String comment = argMapping.getComment();
+		List<String> parts = new ArrayList<>();
 
-				if (comment != null) {
-					if (!addedParam && methodMapping.getComment() != null) {
-						//Add a blank line before params when the method has a comment
-						parts.add("");
-						addedParam = true;
-					}
+		if (methodDoc.comment() != null) {
+			parts.add(methodDoc.comment());
+		}
 
-					parts.add(String.format("@param %s %s", argMapping.getName("named"), comment));
-				}
-			}
+		boolean addedParam = false;
 
-			if (parts.isEmpty()) {
-				return null;
+		for (JavadocIndex.Parameter parameter : methodDoc.parameters()) {
+			if (!addedParam && methodDoc.comment() != null) {
+				//Add a blank line before params when the method has a comment
+				parts.add("");
+				addedParam = true;
 			}
 
-			return String.join("\n", parts);
+			parts.add(String.format("@param %s %s", parameter.name(), parameter.comment()));
 		}
 
-		return null;
-	}
-
-	private static MappingTree readMappings(File input) {
-		try (BufferedReader reader = Files.newBufferedReader(input.toPath())) {
-			MemoryMappingTree mappingTree = new MemoryMappingTree();
-			MappingSourceNsSwitch nsSwitch = new MappingSourceNsSwitch(mappingTree, "named");
-			MappingReader.read(reader, nsSwitch);
-
-			return mappingTree;
-		} catch (IOException e) {
-			throw new RuntimeException("Failed to read mappings", e);
+		if (parts.isEmpty()) {
+			return null;
 		}
+
+		return String.join("\n", parts);
 	}
 
 	public static boolean isRecord(StructClass structClass) {
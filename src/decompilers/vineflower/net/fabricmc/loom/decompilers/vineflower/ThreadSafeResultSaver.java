@@ -25,37 +25,27 @@
 package net.fabricmc.loom.decompilers.vineflower;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
-import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 import org.jetbrains.java.decompiler.main.DecompilerContext;
 import org.jetbrains.java.decompiler.main.extern.IResultSaver;
 
+import net.fabricmc.loom.decompilers.LoomInternalDecompiler;
+import net.fabricmc.loom.decompilers.ParallelSourcesWriter;
+
 public class ThreadSafeResultSaver implements IResultSaver {
 	private final Supplier<File> output;
-	private final Supplier<File> lineMapFile;
+	private final LoomInternalDecompiler.LineMappingSink lineMappings;
 
-	public Map<String, ZipOutputStream> outputStreams = new HashMap<>();
-	public Map<String, ExecutorService> saveExecutors = new HashMap<>();
-	public PrintWriter lineMapWriter;
+	private final Map<String, ParallelSourcesWriter> writers = new ConcurrentHashMap<>();
 
-	public ThreadSafeResultSaver(Supplier<File> output, Supplier<File> lineMapFile) {
+	public ThreadSafeResultSaver(Supplier<File> output, LoomInternalDecompiler.LineMappingSink lineMappings) {
 		this.output = output;
-		this.lineMapFile = lineMapFile;
+		this.lineMappings = lineMappings;
 	}
 
 	@Override
@@ -64,21 +54,10 @@ public class ThreadSafeResultSaver implements IResultSaver {
 		File file = output.get();
 
 		try {
-			FileOutputStream fos = new FileOutputStream(file);
-			ZipOutputStream zos = manifest == null ? new ZipOutputStream(fos) : new JarOutputStream(fos, manifest);
-			outputStreams.put(key, zos);
-			saveExecutors.put(key, Executors.newSingleThreadExecutor());
+			writers.put(key, new ParallelSourcesWriter(file.toPath(), manifest, lineMappings));
 		} catch (IOException e) {
 			throw new RuntimeException("Unable to create archive: " + file, e);
 		}
-
-		if (lineMapFile.get() != null) {
-			try {
-				lineMapWriter = new PrintWriter(new FileWriter(lineMapFile.get()));
-			} catch (IOException e) {
-				throw new RuntimeException("Unable to create line mapping file: " + lineMapFile.get(), e);
-			}
-		}
 	}
 
 	@Override
@@ -86,68 +65,39 @@ public class ThreadSafeResultSaver implements IResultSaver {
 		this.saveClassEntry(path, archiveName, qualifiedName, entryName, content, null);
 	}
 
+	// Called concurrently by the decompiler threads, the entry is compressed on the calling thread
 	@Override
 	public void saveClassEntry(String path, String archiveName, String qualifiedName, String entryName, String content, int[] mapping) {
 		String key = path + "/" + archiveName;
-		ExecutorService executor = saveExecutors.get(key);
-		executor.submit(() -> {
-			ZipOutputStream zos = outputStreams.get(key);
-
-			try {
-				zos.putNextEntry(new ZipEntry(entryName));
-
-				if (content != null) {
-					zos.write(content.getBytes(StandardCharsets.UTF_8));
-				}
-			} catch (IOException e) {
-				DecompilerContext.getLogger().writeMessage("Cannot write entry " + entryName, e);
-			}
-
-			if (mapping != null && lineMapWriter != null) {
-				int maxLine = 0;
-				int maxLineDest = 0;
-				StringBuilder builder = new StringBuilder();
-
-				for (int i = 0; i < mapping.length; i += 2) {
-					maxLine = Math.max(maxLine, mapping[i]);
-					maxLineDest = Math.max(maxLineDest, mapping[i + 1]);
-					builder.append("\t").append(mapping[i]).append("\t").append(mapping[i + 1]).append("\n");
-				}
-
-				lineMapWriter.println(qualifiedName + "\t" + maxLine + "\t" + maxLineDest);
-				lineMapWriter.println(builder.toString());
-			}
-		});
+
+		try {
+			writers.get(key).write(qualifiedName, entryName, content, mapping);
+		} catch (IOException e) {
+			DecompilerContext.getLogger().writeMessage("Cannot write entry " + entryName, e);
+		}
 	}
 
 	@Override
 	public void closeArchive(String path, String archiveName) {
 		String key = path + "/" + archiveName;
-		ExecutorService executor = saveExecutors.get(key);
-		Future<?> closeFuture = executor.submit(() -> {
-			ZipOutputStream zos = outputStreams.get(key);
-
-			try {
-				zos.close();
-			} catch (IOException e) {
-				throw new RuntimeException("Unable to close zip. " + key, e);
-			}
-		});
-		executor.shutdown();
+		ParallelSourcesWriter writer = writers.remove(key);
 
 		try {
-			closeFuture.get();
-		} catch (InterruptedException | ExecutionException e) {
-			throw new RuntimeException(e);
+			writer.close();
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to close zip. " + key, e);
 		}
+	}
 
-		outputStreams.remove(key);
-		saveExecutors.remove(key);
-
-		if (lineMapWriter != null) {
-			lineMapWriter.flush();
-			lineMapWriter.close();
+	/**
+	 * Delete the archives that were never closed, after decompiling failed.
+	 */
+	public void abort(Throwable cause) {
+		for (ParallelSourcesWriter writer : writers.values()) {
+			writer.abort(cause);
 		}
+
+		writers.clear();
 	}
 
 	@Override
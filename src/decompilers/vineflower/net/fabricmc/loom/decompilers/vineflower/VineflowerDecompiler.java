@@ -30,7 +30,6 @@ import java.util.Map;
 
 import org.jetbrains.java.decompiler.main.Fernflower;
 import org.jetbrains.java.decompiler.main.extern.IFernflowerPreferences;
-import org.jetbrains.java.decompiler.main.extern.IResultSaver;
 
 import net.fabricmc.fernflower.api.IFabricJavadocProvider;
 import net.fabricmc.loom.decompilers.LoomInternalDecompiler;
@@ -39,7 +38,6 @@ public final class VineflowerDecompiler implements LoomInternalDecompiler {
 	@Override
 	public void decompile(Context context) {
 		Path sourcesDestination = context.sourcesDestination();
-		Path linemapDestination = context.linemapDestination();
 
 		final Map<String, Object> options = new HashMap<>(
 				Map.of(
@@ -48,14 +46,17 @@ public final class VineflowerDecompiler implements LoomInternalDecompiler {
 					IFernflowerPreferences.REMOVE_SYNTHETIC, "1",
 					IFernflowerPreferences.LOG_LEVEL, "trace",
 					IFernflowerPreferences.THREADS, String.valueOf(context.numberOfThreads()),
-					IFernflowerPreferences.INDENT_STRING, "\t",
-					IFabricJavadocProvider.PROPERTY_NAME, new TinyJavadocProvider(context.javaDocs().toFile())
+					IFernflowerPreferences.INDENT_STRING, "\t"
 				)
 		);
 
+		if (context.javadocs() != null) {
+			options.put(IFabricJavadocProvider.PROPERTY_NAME, new JavadocIndexProvider(context.javadocs()));
+		}
+
 		options.putAll(context.options());
 
-		IResultSaver saver = new ThreadSafeResultSaver(sourcesDestination::toFile, linemapDestination::toFile);
+		ThreadSafeResultSaver saver = new ThreadSafeResultSaver(sourcesDestination::toFile, context.lineMappings());
 		Fernflower ff = new Fernflower(saver, options, new VineflowerLogger(context.logger()));
 
 		for (Path library : context.libraries()) {
@@ -66,6 +67,9 @@ public final class VineflowerDecompiler implements LoomInternalDecompiler {
 
 		try {
 			ff.decompileContext();
+		} catch (Throwable t) {
+			saver.abort(t);
+			throw t;
 		} finally {
 			ff.clearContext();
 		}
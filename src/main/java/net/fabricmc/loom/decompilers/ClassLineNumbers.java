@@ -26,20 +26,31 @@ package net.fabricmc.loom.decompilers;
 
 import static java.text.MessageFormat.format;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.StringReader;
 import java.io.UncheckedIOException;
 import java.io.Writer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntUnaryOperator;
 
 import org.jetbrains.annotations.Nullable;
 
 public record ClassLineNumbers(Map<String, ClassLineNumbers.Entry> lineMap) {
+	private static final int BINARY_MAGIC = 0x4C4E4D46; // LNMF
+
 	public ClassLineNumbers {
 		Objects.requireNonNull(lineMap, "lineMap");
 
@@ -68,8 +79,8 @@ public record ClassLineNumbers(Map<String, ClassLineNumbers.Entry> lineMap) {
 		int lineNumber = 0;
 
 		record CurrentClass(String className, int maxLine, int maxLineDest) {
-			void putEntry(Map<String, ClassLineNumbers.Entry> entries, Map<Integer, Integer> mappings) {
-				var entry = new ClassLineNumbers.Entry(className(), maxLine(), maxLineDest(), Collections.unmodifiableMap(mappings));
+			void putEntry(Map<String, ClassLineNumbers.Entry> entries, LineTable.Builder mappings) {
+				var entry = new ClassLineNumbers.Entry(className(), maxLine(), maxLineDest(), mappings.build());
 
 				final ClassLineNumbers.Entry previous = entries.put(className(), entry);
 
@@ -80,7 +91,7 @@ public record ClassLineNumbers(Map<String, ClassLineNumbers.Entry> lineMap) {
 		}
 
 		CurrentClass currentClass = null;
-		Map<Integer, Integer> currentMappings = new HashMap<>();
+		LineTable.Builder currentMappings = new LineTable.Builder();
 
 		try {
 			while ((line = reader.readLine()) != null) {
@@ -88,18 +99,20 @@ public record ClassLineNumbers(Map<String, ClassLineNumbers.Entry> lineMap) {
 					continue;
 				}
 
-				final String[] segments = line.trim().split("\t");
-
 				if (line.charAt(0) != '\t') {
 					if (currentClass != null) {
 						currentClass.putEntry(lineMap, currentMappings);
-						currentMappings = new HashMap<>();
+						currentMappings = new LineTable.Builder();
 					}
 
-					currentClass = new CurrentClass(segments[0], Integer.parseInt(segments[1]), Integer.parseInt(segments[2]));
+					final int first = line.indexOf('\t');
+					final int second = line.indexOf('\t', first + 1);
+					currentClass = new CurrentClass(line.substring(0, first), parseInt(line, first + 1, second), parseInt(line, second + 1, line.length()));
 				} else {
 					Objects.requireNonNull(currentClass, "No class line mappings found for line " + lineNumber);
-					currentMappings.put(Integer.parseInt(segments[0]), Integer.parseInt(segments[1]));
+
+					final int separator = line.indexOf('\t', 1);
+					currentMappings.add(parseInt(line, 1, separator), parseInt(line, separator + 1, line.length()));
 				}
 
 				lineNumber++;
@@ -114,6 +127,19 @@ public record ClassLineNumbers(Map<String, ClassLineNumbers.Entry> lineMap) {
 		return new ClassLineNumbers(Collections.unmodifiableMap(lineMap));
 	}
 
+	// Parses a tab separated field without allocating a substring, ignoring any trailing whitespace
+	private static int parseInt(String line, int start, int end) {
+		if (start <= 0 || end < start) {
+			throw new IllegalArgumentException("Missing field");
+		}
+
+		while (end > start && Character.isWhitespace(line.charAt(end - 1))) {
+			end--;
+		}
+
+		return Integer.parseInt(line, start, end, 10);
+	}
+
 	public void write(Writer writer) throws IOException {
 		for (Map.Entry<String, ClassLineNumbers.Entry> entry : lineMap.entrySet()) {
 			entry.getValue().write(writer);
@@ -131,7 +157,8 @@ public record ClassLineNumbers(Map<String, ClassLineNumbers.Entry> lineMap) {
 			return a;
 		}
 
-		var lineMap = new HashMap<>(a.lineMap());
+		var lineMap = new HashMap<String, Entry>((int) ((a.lineMap().size() + b.lineMap().size()) / 0.75F) + 1);
+		lineMap.putAll(a.lineMap());
 
 		for (Map.Entry<String, Entry> entry : b.lineMap().entrySet()) {
 			lineMap.merge(entry.getKey(), entry.getValue(), (v1, v2) -> {
@@ -142,7 +169,159 @@ public record ClassLineNumbers(Map<String, ClassLineNumbers.Entry> lineMap) {
 		return new ClassLineNumbers(Collections.unmodifiableMap(lineMap));
 	}
 
-	public record Entry(String className, int maxLine, int maxLineDest, Map<Integer, Integer> lineMap) {
+	/**
+	 * Read line mappings written by {@link #writeBinary(Path)}, or in the text format written by other decompilers.
+	 */
+	public static ClassLineNumbers read(Path path) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+
+		if (buffer.remaining() >= 4 && buffer.getInt(0) == BINARY_MAGIC) {
+			return readBinary(buffer);
+		}
+
+		try (var reader = new BufferedReader(new StringReader(StandardCharsets.UTF_8.decode(buffer).toString()))) {
+			return readMappings(reader);
+		}
+	}
+
+	/**
+	 * Write every entry with {@link Entry#writeBinary()}, each prefixed with its length.
+	 */
+	public void writeBinary(Path path) throws IOException {
+		try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 64 * 1024))) {
+			out.writeInt(BINARY_MAGIC);
+			out.writeInt(lineMap.size());
+
+			for (Entry entry : lineMap.values()) {
+				final ByteBuffer bytes = entry.writeBinary();
+				out.writeInt(bytes.remaining());
+				out.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+			}
+		}
+	}
+
+	private static ClassLineNumbers readBinary(ByteBuffer buffer) throws IOException {
+		try {
+			buffer.getInt(); // Magic
+			final int count = buffer.getInt();
+
+			if (count <= 0 || count > buffer.remaining() / 4) {
+				throw new IOException("Invalid line numbers count: " + count);
+			}
+
+			final var lineMap = new HashMap<String, Entry>((int) (count / 0.75F) + 1);
+
+			for (int i = 0; i < count; i++) {
+				final int length = buffer.getInt();
+
+				if (length < 0 || length > buffer.remaining()) {
+					throw new IOException("Line numbers entry extends past the end of the file");
+				}
+
+				final Entry entry = Entry.readBinary(buffer.slice(buffer.position(), length));
+				buffer.position(buffer.position() + length);
+
+				if (lineMap.put(entry.className(), entry) != null) {
+					throw new IOException("Duplicate class line mappings for " + entry.className());
+				}
+			}
+
+			return new ClassLineNumbers(Collections.unmodifiableMap(lineMap));
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated line numbers", e);
+		}
+	}
+
+	/**
+	 * Collects the line mappings reported by a decompiler as it saves each class, this can be called from any thread.
+	 */
+	public static final class Builder {
+		private final Map<String, Entry> lineMap = new ConcurrentHashMap<>();
+
+		/**
+		 * @param className The internal name of the class
+		 * @param mapping Pairs of line numbers in the compiled class and in the decompiled sources
+		 */
+		public void add(String className, int[] mapping) {
+			final Entry previous = lineMap.putIfAbsent(className, Entry.fromMapping(className, mapping));
+
+			if (previous != null) {
+				throw new IllegalStateException("Duplicate class line mappings for " + className);
+			}
+		}
+
+		/**
+		 * @return The collected line mappings, or null if none were added
+		 */
+		@Nullable
+		public ClassLineNumbers build() {
+			return lineMap.isEmpty() ? null : new ClassLineNumbers(Map.copyOf(lineMap));
+		}
+	}
+
+	/**
+	 * @param lineTable The mappings from the line numbers in the compiled class to the line numbers in the decompiled sources
+	 */
+	public record Entry(String className, int maxLine, int maxLineDest, LineTable lineTable) {
+		private static final int BINARY_VERSION = 1;
+
+		public Entry {
+			Objects.requireNonNull(className, "className");
+			Objects.requireNonNull(lineTable, "lineTable");
+		}
+
+		/**
+		 * @param mapping Pairs of line numbers in the compiled class and in the decompiled sources, in any order
+		 */
+		public static Entry fromMapping(String className, int[] mapping) {
+			if (mapping.length % 2 != 0) {
+				throw new IllegalArgumentException("Line mapping of " + className + " has an odd length: " + mapping.length);
+			}
+
+			final var lineTable = new LineTable.Builder();
+			int maxLine = 0;
+			int maxLineDest = 0;
+
+			for (int i = 0; i < mapping.length; i += 2) {
+				lineTable.add(mapping[i], mapping[i + 1]);
+				maxLine = Math.max(maxLine, mapping[i]);
+				maxLineDest = Math.max(maxLineDest, mapping[i + 1]);
+			}
+
+			return new Entry(className, maxLine, maxLineDest, lineTable.build());
+		}
+
+		/**
+		 * @return The line in the decompiled sources for the given line in the compiled class. Lines without a mapping
+		 * use the mapping of the next mapped line, lines past the last mapped line map to {@link #maxLineDest()}.
+		 */
+		public int remap(int line) {
+			if (line >= maxLine) {
+				return maxLineDest;
+			}
+
+			final int index = lineTable.ceilingIndex(line);
+
+			if (index < lineTable.size() && lineTable.sourceLine(index) <= maxLine) {
+				return lineTable.destLine(index);
+			}
+
+			return maxLineDest;
+		}
+
+		/**
+		 * @return A copy of the entry with every line in the decompiled sources moved by the given function
+		 */
+		public Entry remapDest(IntUnaryOperator mapping) {
+			final int[] destLines = new int[lineTable.size()];
+
+			for (int i = 0; i < destLines.length; i++) {
+				destLines[i] = mapping.applyAsInt(lineTable.destLine(i));
+			}
+
+			return new Entry(className, maxLine, mapping.applyAsInt(maxLineDest), new LineTable(lineTable.sourceLines, destLines));
+		}
+
 		public void write(Writer writer) throws IOException {
 			writer.write(className);
 			writer.write('\t');
@@ -151,13 +330,255 @@ public record ClassLineNumbers(Map<String, ClassLineNumbers.Entry> lineMap) {
 			writer.write(Integer.toString(maxLineDest));
 			writer.write('\n');
 
-			for (Map.Entry<Integer, Integer> lineEntry : lineMap.entrySet()) {
+			for (int i = 0; i < lineTable.size(); i++) {
 				writer.write('\t');
-				writer.write(Integer.toString(lineEntry.getKey()));
+				writer.write(Integer.toString(lineTable.sourceLine(i)));
 				writer.write('\t');
-				writer.write(Integer.toString(lineEntry.getValue()));
+				writer.write(Integer.toString(lineTable.destLine(i)));
 				writer.write('\n');
 			}
 		}
+
+		/**
+		 * Encode the entry in a compact binary form.
+		 *
+		 * <p>{@code [u8 version][varint name length][UTF-8 name][varint max line][varint max line dest][varint count]}
+		 * followed by the mappings sorted by source line. Each mapping is stored as the zigzag varint deltas of its source
+		 * and destination line from the previous mapping, so the common case of small increasing line numbers takes two
+		 * bytes per mapping.
+		 */
+		public ByteBuffer writeBinary() {
+			final byte[] name = className.getBytes(StandardCharsets.UTF_8);
+			final ByteBuffer buffer = ByteBuffer.allocate(1 + 4 * MAX_VARINT_LENGTH + name.length + lineTable.size() * 2 * MAX_VARINT_LENGTH);
+			buffer.put((byte) BINARY_VERSION);
+			putVarInt(buffer, name.length);
+			buffer.put(name);
+			putVarInt(buffer, zigZag(maxLine));
+			putVarInt(buffer, zigZag(maxLineDest));
+			putVarInt(buffer, lineTable.size());
+
+			int previousSource = 0;
+			int previousDest = 0;
+
+			for (int i = 0; i < lineTable.size(); i++) {
+				final int source = lineTable.sourceLine(i);
+				final int dest = lineTable.destLine(i);
+				putVarInt(buffer, zigZag(source - previousSource));
+				putVarInt(buffer, zigZag(dest - previousDest));
+				previousSource = source;
+				previousDest = dest;
+			}
+
+			return buffer.flip();
+		}
+
+		/**
+		 * Decode an entry written by {@link #writeBinary()}.
+		 */
+		public static Entry readBinary(ByteBuffer buffer) throws IOException {
+			try {
+				final int version = buffer.get();
+
+				if (version != BINARY_VERSION) {
+					throw new IOException("Unsupported line numbers version: " + version);
+				}
+
+				final int nameLength = getVarInt(buffer);
+
+				if (nameLength > buffer.remaining()) {
+					throw new IOException("Class name extends past the end of the line numbers");
+				}
+
+				final String className = StandardCharsets.UTF_8.decode(buffer.slice(buffer.position(), nameLength)).toString();
+				buffer.position(buffer.position() + nameLength);
+
+				final int maxLine = unZigZag(getVarInt(buffer));
+				final int maxLineDest = unZigZag(getVarInt(buffer));
+				final int count = getVarInt(buffer);
+
+				// Every mapping takes at least two bytes, reject a corrupt count before allocating for it
+				if (count < 0 || count > buffer.remaining() / 2) {
+					throw new IOException("Invalid line number mapping count: " + count);
+				}
+
+				final int[] sourceLines = new int[count];
+				final int[] destLines = new int[count];
+				int source = 0;
+				int dest = 0;
+
+				for (int i = 0; i < count; i++) {
+					source += unZigZag(getVarInt(buffer));
+					dest += unZigZag(getVarInt(buffer));
+
+					if (i > 0 && source <= sourceLines[i - 1]) {
+						throw new IOException("Line number mappings are not sorted");
+					}
+
+					sourceLines[i] = source;
+					destLines[i] = dest;
+				}
+
+				return new Entry(className, maxLine, maxLineDest, new LineTable(sourceLines, destLines));
+			} catch (BufferUnderflowException e) {
+				throw new IOException("Truncated line numbers", e);
+			}
+		}
+	}
+
+	/**
+	 * An immutable mapping of source line to destination line, stored as two parallel arrays sorted by source line.
+	 */
+	public static final class LineTable {
+		public static final LineTable EMPTY = new LineTable(new int[0], new int[0]);
+
+		private final int[] sourceLines;
+		private final int[] destLines;
+
+		// The arrays must be sorted by source line without duplicates, and are not copied
+		private LineTable(int[] sourceLines, int[] destLines) {
+			this.sourceLines = sourceLines;
+			this.destLines = destLines;
+		}
+
+		public int size() {
+			return sourceLines.length;
+		}
+
+		public int sourceLine(int index) {
+			return sourceLines[index];
+		}
+
+		public int destLine(int index) {
+			return destLines[index];
+		}
+
+		/**
+		 * @return The index of the first mapping with a source line greater than or equal to the given line, or
+		 * {@link #size()} if there is none
+		 */
+		public int ceilingIndex(int line) {
+			final int index = Arrays.binarySearch(sourceLines, line);
+			return index >= 0 ? index : -(index + 1);
+		}
+
+		/**
+		 * @return The destination of the given source line, or -1 if it is not mapped
+		 */
+		public int get(int sourceLine) {
+			final int index = Arrays.binarySearch(sourceLines, sourceLine);
+			return index >= 0 ? destLines[index] : -1;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return this == o || o instanceof LineTable other && Arrays.equals(sourceLines, other.sourceLines) && Arrays.equals(destLines, other.destLines);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * Arrays.hashCode(sourceLines) + Arrays.hashCode(destLines);
+		}
+
+		@Override
+		public String toString() {
+			return "LineTable[size=" + size() + "]";
+		}
+
+		/**
+		 * Collects mappings in any order. When a source line is added more than once, the last destination wins.
+		 */
+		public static final class Builder {
+			private int[] sourceLines = new int[16];
+			private int[] destLines = new int[16];
+			private int size = 0;
+			private boolean sorted = true;
+
+			public Builder add(int sourceLine, int destLine) {
+				if (size == sourceLines.length) {
+					sourceLines = Arrays.copyOf(sourceLines, size * 2);
+					destLines = Arrays.copyOf(destLines, size * 2);
+				}
+
+				if (size > 0 && sourceLine <= sourceLines[size - 1]) {
+					sorted = false;
+				}
+
+				sourceLines[size] = sourceLine;
+				destLines[size] = destLine;
+				size++;
+				return this;
+			}
+
+			public LineTable build() {
+				if (size == 0) {
+					return EMPTY;
+				}
+
+				if (sorted) {
+					return new LineTable(Arrays.copyOf(sourceLines, size), Arrays.copyOf(destLines, size));
+				}
+
+				// Sort by source line then insertion order, so the last mapping of a duplicated source line comes last
+				final long[] order = new long[size];
+
+				for (int i = 0; i < size; i++) {
+					order[i] = ((long) sourceLines[i] << 32) | i;
+				}
+
+				Arrays.sort(order);
+
+				final int[] sortedSources = new int[size];
+				final int[] sortedDests = new int[size];
+				int count = 0;
+
+				for (int i = 0; i < size; i++) {
+					final int index = (int) order[i];
+
+					if (count > 0 && sortedSources[count - 1] == sourceLines[index]) {
+						count--;
+					}
+
+					sortedSources[count] = sourceLines[index];
+					sortedDests[count] = destLines[index];
+					count++;
+				}
+
+				return new LineTable(Arrays.copyOf(sortedSources, count), Arrays.copyOf(sortedDests, count));
+			}
+		}
+	}
+
+	private static final int MAX_VARINT_LENGTH = 5;
+
+	private static int zigZag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	private static int unZigZag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static void putVarInt(ByteBuffer buffer, int value) {
+		while ((value & ~0x7F) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+
+		buffer.put((byte) value);
+	}
+
+	private static int getVarInt(ByteBuffer buffer) throws IOException {
+		int value = 0;
+
+		for (int shift = 0; shift < 7 * MAX_VARINT_LENGTH; shift += 7) {
+			final byte b = buffer.get();
+			value |= (b & 0x7F) << shift;
+
+			if (b >= 0) {
+				return value;
+			}
+		}
+
+		throw new IOException("Malformed varint in line numbers");
 	}
 }
@@ -0,0 +1,158 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2024 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.decompilers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * What a decompiler JVM measured while decompiling a jar, written by the worker and read back by the task to size the
+ * next runs, see {@link DecompilerSizing}.
+ *
+ * @param wallMillis The time spent decompiling
+ * @param gcMillis The time spent collecting garbage while decompiling, summed over every collector
+ * @param peakLiveBytes The most heap still in use after a collection, or the heap in use at the end when nothing was
+ * collected. Unlike the peak usage of the heap this does not depend on how large the heap was.
+ */
+public record DecompileStats(long wallMillis, long gcMillis, long peakLiveBytes) {
+	private static final int MAGIC = 0x4C445354; // LDST
+
+	/**
+	 * Start measuring until the recorder is closed, the decompiler JVM may have been used for previous runs.
+	 */
+	public static Recorder start() {
+		final var recorder = new Recorder(System.nanoTime(), totalGcMillis());
+
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			if (collector instanceof NotificationEmitter emitter) {
+				emitter.addNotificationListener(recorder, null, null);
+				recorder.emitters.add(emitter);
+			}
+		}
+
+		return recorder;
+	}
+
+	public static DecompileStats read(Path path) throws IOException {
+		try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Invalid decompile stats: " + path);
+			}
+
+			return new DecompileStats(in.readLong(), in.readLong(), in.readLong());
+		}
+	}
+
+	public void write(Path path) throws IOException {
+		try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+			out.writeInt(MAGIC);
+			out.writeLong(wallMillis);
+			out.writeLong(gcMillis);
+			out.writeLong(peakLiveBytes);
+		}
+	}
+
+	/**
+	 * @return The fraction of the wall time spent collecting garbage
+	 */
+	public double gcRatio() {
+		return wallMillis > 0 ? (double) gcMillis / wallMillis : 0;
+	}
+
+	private static long totalGcMillis() {
+		long total = 0;
+
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			// -1 when the collector does not report its time
+			total += Math.max(0, collector.getCollectionTime());
+		}
+
+		return total;
+	}
+
+	public static final class Recorder implements NotificationListener, AutoCloseable {
+		private final long startNanos;
+		private final long startGcMillis;
+		private final List<NotificationEmitter> emitters = new ArrayList<>();
+		private final AtomicLong peakLiveBytes = new AtomicLong(-1);
+
+		private Recorder(long startNanos, long startGcMillis) {
+			this.startNanos = startNanos;
+			this.startGcMillis = startGcMillis;
+		}
+
+		@Override
+		public void handleNotification(Notification notification, Object handback) {
+			if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+				return;
+			}
+
+			final var info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+			long live = 0;
+
+			for (MemoryUsage usage : info.getGcInfo().getMemoryUsageAfterGc().values()) {
+				live += usage.getUsed();
+			}
+
+			peakLiveBytes.accumulateAndGet(live, Math::max);
+		}
+
+		public DecompileStats finish() {
+			final Runtime runtime = Runtime.getRuntime();
+			final long peakLive = peakLiveBytes.get() >= 0 ? peakLiveBytes.get() : runtime.totalMemory() - runtime.freeMemory();
+			return new DecompileStats((System.nanoTime() - startNanos) / 1_000_000, totalGcMillis() - startGcMillis, peakLive);
+		}
+
+		@Override
+		public void close() {
+			for (NotificationEmitter emitter : emitters) {
+				try {
+					emitter.removeNotificationListener(this);
+				} catch (ListenerNotFoundException e) {
+					// Already removed
+				}
+			}
+		}
+	}
+}
@@ -25,6 +25,7 @@
 package net.fabricmc.loom.decompilers;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.util.Collection;
 import java.util.Map;
@@ -100,6 +101,9 @@ public abstract class DecompilerConfiguration implements Runnable {
 				}
 			};
 
+			final var lineNumbers = new ClassLineNumbers.Builder();
+			final JavadocIndex javadocs = openJavadocs(metaData.javaDocs());
+
 			internalDecompiler.decompile(new LoomInternalDecompiler.Context() {
 				@Override
 				public Path compiledJar() {
@@ -112,8 +116,8 @@ public abstract class DecompilerConfiguration implements Runnable {
 				}
 
 				@Override
-				public Path linemapDestination() {
-					return linemapDestination;
+				public LoomInternalDecompiler.LineMappingSink lineMappings() {
+					return lineNumbers::add;
 				}
 
 				@Override
@@ -122,8 +126,8 @@ public abstract class DecompilerConfiguration implements Runnable {
 				}
 
 				@Override
-				public Path javaDocs() {
-					return metaData.javaDocs();
+				public JavadocIndex javadocs() {
+					return javadocs;
 				}
 
 				@Override
@@ -146,6 +150,32 @@ public abstract class DecompilerConfiguration implements Runnable {
 					return ZipUtils.unpack(zip, path);
 				}
 			});
+
+			final ClassLineNumbers result = lineNumbers.build();
+
+			if (result == null) {
+				return;
+			}
+
+			try {
+				// Collected in memory while decompiling, written once in binary rather than as text to be parsed again
+				result.writeBinary(linemapDestination);
+			} catch (IOException e) {
+				throw new UncheckedIOException("Failed to write line map", e);
+			}
+		}
+
+		private static JavadocIndex openJavadocs(Path javaDocs) {
+			if (javaDocs == null) {
+				return null;
+			}
+
+			try {
+				// Normally indexed ahead of time by the task, a plain mappings file is indexed here instead
+				return JavadocIndex.isIndex(javaDocs) ? JavadocIndex.open(javaDocs) : MappingsJavadocIndex.build(javaDocs);
+			} catch (IOException e) {
+				throw new UncheckedIOException("Failed to read javadocs from " + javaDocs, e);
+			}
 		}
 	}
 
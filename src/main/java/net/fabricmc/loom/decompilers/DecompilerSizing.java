@@ -0,0 +1,204 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2024 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.decompilers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sizes the heap and threads of a decompiler JVM from the number of classes it is given and the runs of the same
+ * decompiler recorded before, always within the configured maximums.
+ *
+ * <p>The live data of a run is modelled as a fixed part, such as the libraries loaded for context, plus a part per
+ * class. The fixed part is the least live data of any recent run, and the part per class the most any run needed on top
+ * of it. The heap is twice the estimated live data to keep the collections short. A run that spent a large part of its
+ * time collecting garbage while its live data filled most of the heap was short of heap, so it is taken to have needed
+ * all of it.
+ *
+ * <p>The estimate is only scaled down: a job larger than any recorded run, or without any history, is given the
+ * configured maximum as before. Heap sizes are rounded up so that runs of similar size can share a warm decompiler JVM.
+ */
+public final class DecompilerSizing {
+	private static final Logger LOGGER = LoggerFactory.getLogger(DecompilerSizing.class);
+
+	private static final int MAGIC = 0x4C44535A; // LDSZ
+	private static final int VERSION = 1;
+	private static final int MAX_RUNS = 20;
+
+	private static final long MIN_MEMORY = 512;
+	private static final long MEMORY_STEP = 512;
+	// Live data below half of the heap keeps the collections short
+	private static final double HEADROOM = 2;
+	// Above this fraction of the wall time spent in GC with the live data filling most of the heap, the heap was too small
+	private static final double GC_PRESSURE = 0.1;
+	// Fewer classes per thread than this only add contention
+	private static final int MIN_CLASSES_PER_THREAD = 25;
+
+	private final Path path;
+	private final List<Run> runs;
+
+	private DecompilerSizing(Path path, List<Run> runs) {
+		this.path = path;
+		this.runs = runs;
+	}
+
+	/**
+	 * @param path The history of a single decompiler, created on the first {@link #save()}
+	 */
+	public static DecompilerSizing load(Path path) throws IOException {
+		return new DecompilerSizing(path, readRuns(path));
+	}
+
+	/**
+	 * @param classes The number of classes to decompile
+	 * @param maxMemory The configured heap in megabytes, never exceeded
+	 * @param maxThreads The configured number of threads, never exceeded
+	 */
+	public Size size(int classes, long maxMemory, int maxThreads) {
+		final int threads = (int) Math.max(1, Math.min(maxThreads, ((long) classes + MIN_CLASSES_PER_THREAD - 1) / MIN_CLASSES_PER_THREAD));
+
+		if (runs.stream().noneMatch(run -> run.classes() >= classes)) {
+			return new Size(maxMemory, threads);
+		}
+
+		double fixedMemory = Double.MAX_VALUE;
+
+		for (Run run : runs) {
+			fixedMemory = Math.min(fixedMemory, run.neededMemory());
+		}
+
+		double memoryPerClass = 0;
+
+		for (Run run : runs) {
+			memoryPerClass = Math.max(memoryPerClass, (run.neededMemory() - fixedMemory) / Math.max(1, run.classes()));
+		}
+
+		final long estimate = (long) Math.ceil((fixedMemory + memoryPerClass * classes) * HEADROOM);
+		final long rounded = (estimate + MEMORY_STEP - 1) / MEMORY_STEP * MEMORY_STEP;
+		return new Size(Math.min(maxMemory, Math.max(MIN_MEMORY, rounded)), threads);
+	}
+
+	public void record(int classes, Size size, DecompileStats stats) {
+		final var run = new Run(classes, size.threads(), size.memory(), stats);
+
+		if (run.shortOfHeap()) {
+			LOGGER.info("Decompiling {} classes with {} MB of heap spent {}% of the time in GC, the next runs will be given more heap", classes, size.memory(), Math.round(stats.gcRatio() * 100));
+		}
+
+		runs.add(run);
+
+		if (runs.size() > MAX_RUNS) {
+			runs.remove(0);
+		}
+	}
+
+	/**
+	 * Atomically replace the recorded history.
+	 */
+	public void save() throws IOException {
+		Files.createDirectories(path.getParent());
+		final Path tempPath = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+
+		try {
+			try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(runs.size());
+
+				for (Run run : runs) {
+					out.writeInt(run.classes());
+					out.writeInt(run.threads());
+					out.writeLong(run.memory());
+					out.writeLong(run.stats().wallMillis());
+					out.writeLong(run.stats().gcMillis());
+					out.writeLong(run.stats().peakLiveBytes());
+				}
+			}
+
+			Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tempPath);
+		}
+	}
+
+	private static List<Run> readRuns(Path path) throws IOException {
+		if (Files.notExists(path)) {
+			return new ArrayList<>();
+		}
+
+		try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				LOGGER.warn("Ignoring decompiler sizing history with unknown format: {}", path);
+				return new ArrayList<>();
+			}
+
+			final int count = in.readInt();
+			final List<Run> runs = new ArrayList<>(count);
+
+			for (int i = 0; i < count; i++) {
+				runs.add(new Run(in.readInt(), in.readInt(), in.readLong(), new DecompileStats(in.readLong(), in.readLong(), in.readLong())));
+			}
+
+			return runs;
+		} catch (EOFException e) {
+			LOGGER.warn("Ignoring truncated decompiler sizing history: {}", path);
+			return new ArrayList<>();
+		}
+	}
+
+	/**
+	 * @param memory The heap in megabytes
+	 */
+	public record Size(long memory, int threads) {
+	}
+
+	/**
+	 * @param memory The heap in megabytes the run was given
+	 */
+	record Run(int classes, int threads, long memory, DecompileStats stats) {
+		// The live data in megabytes
+		double neededMemory() {
+			final double peakLive = stats.peakLiveBytes() / (1024.0 * 1024.0);
+			return shortOfHeap() ? Math.max(peakLive, memory) : peakLive;
+		}
+
+		// A large heap is also collected often when a lot of garbage is allocated, only short of heap when mostly live
+		boolean shortOfHeap() {
+			return stats.gcRatio() > GC_PRESSURE && stats.peakLiveBytes() / (1024.0 * 1024.0) > memory / HEADROOM;
+		}
+	}
+}
@@ -0,0 +1,424 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2024 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.decompilers;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.ZipException;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.fabricmc.loom.util.Constants;
+import net.fabricmc.loom.util.FileSystemUtil;
+import net.fabricmc.loom.util.RawZipFile;
+import net.fabricmc.loom.util.RawZipWriter;
+
+/**
+ * Splits a jar into shards that can be decompiled by separate JVMs, and merges the decompiled shards back together.
+ *
+ * <p>A class is never separated from the classes nested within it, as decompilers emit those into the source file of
+ * the outer class. Classes that extend or implement a class of the same package are kept together where possible, and
+ * small packages are never split. Every shard is expected to be decompiled with the whole input jar on its classpath.
+ */
+public final class JarSharder {
+	private static final Logger LOGGER = LoggerFactory.getLogger(JarSharder.class);
+
+	/**
+	 * Below this many classes per shard the cost of starting another JVM outweighs the gain.
+	 */
+	static final int MIN_CLASSES_PER_SHARD = 500;
+	private static final int MIN_THREADS_PER_SHARD = 4;
+	private static final int MIN_SHARD_MEMORY = 1024;
+
+	private JarSharder() {
+	}
+
+	/**
+	 * The heap given to the JVM decompiling a single shard, each shard only holds the context of part of the jar.
+	 *
+	 * @param memory The heap in megabytes configured for decompiling the whole jar
+	 */
+	public static long shardMemory(long memory) {
+		return Math.max(MIN_SHARD_MEMORY, memory / 2);
+	}
+
+	/**
+	 * The number of shards the available cores and physical memory can decompile at the same time.
+	 *
+	 * @param shardMemory The heap of each shard in megabytes, see {@link #shardMemory(long)}
+	 * @param maxWorkers The maximum number of workers Gradle will run concurrently
+	 */
+	public static int maxShards(long shardMemory, int maxWorkers) {
+		final int byCores = Runtime.getRuntime().availableProcessors() / MIN_THREADS_PER_SHARD;
+		final int byMemory = (int) Math.min(Integer.MAX_VALUE, availableMemory() / shardMemory);
+		return Math.max(1, Math.min(maxWorkers, Math.min(byCores, byMemory)));
+	}
+
+	// Physical memory in megabytes left over once this JVM has grown to its maximum heap
+	private static long availableMemory() {
+		if (!(ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os)) {
+			return MIN_SHARD_MEMORY;
+		}
+
+		return Math.max(0, os.getTotalMemorySize() - Runtime.getRuntime().maxMemory()) / (1024 * 1024);
+	}
+
+	/**
+	 * @return The number of classes in the jar, including nested classes, or -1 if the jar cannot be read directly
+	 */
+	public static int countClasses(Path jar) throws IOException {
+		try (RawZipFile zip = RawZipFile.open(jar)) {
+			int count = 0;
+
+			for (RawZipFile.Entry entry : zip.entries()) {
+				if (!entry.isDirectory() && entry.name().endsWith(".class")) {
+					count++;
+				}
+			}
+
+			return count;
+		} catch (ZipException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Split the classes of a jar into at most the given number of shards of similar size.
+	 *
+	 * <p>Entries that are not classes are written to the first shard.
+	 *
+	 * @return The shard jars written to the output directory, or a list containing only the input jar when it is not
+	 * worth splitting
+	 */
+	public static List<Path> split(Path inputJar, Path outputDir, int maxShards) throws IOException {
+		if (maxShards <= 1) {
+			return List.of(inputJar);
+		}
+
+		try (RawZipFile zip = RawZipFile.open(inputJar)) {
+			final List<ClassInfo> classes = new ArrayList<>();
+			final List<RawZipFile.Entry> others = new ArrayList<>();
+
+			for (RawZipFile.Entry entry : zip.entries()) {
+				if (!entry.isDirectory() && entry.name().endsWith(".class")) {
+					classes.add(ClassInfo.read(entry, zip.read(entry)));
+				} else {
+					others.add(entry);
+				}
+			}
+
+			final int shardCount = Math.min(maxShards, classes.size() / MIN_CLASSES_PER_SHARD);
+
+			if (shardCount <= 1) {
+				return List.of(inputJar);
+			}
+
+			final Map<String, Integer> shardOfGroup = partition(group(classes), shardCount);
+			final List<Path> shards = new ArrayList<>(shardCount);
+			final List<RawZipWriter> writers = new ArrayList<>(shardCount);
+			Files.createDirectories(outputDir);
+
+			try {
+				for (int i = 0; i < shardCount; i++) {
+					final Path shard = outputDir.resolve("shard-" + i + ".jar");
+					writers.add(new RawZipWriter(shard));
+					shards.add(shard);
+				}
+
+				for (RawZipFile.Entry entry : others) {
+					writers.get(0).writeRaw(entry, zip.readRaw(entry));
+				}
+
+				for (ClassInfo classInfo : classes) {
+					writers.get(shardOfGroup.get(classInfo.group)).writeRaw(classInfo.entry, zip.readRaw(classInfo.entry));
+				}
+
+				for (RawZipWriter writer : writers) {
+					writer.finish();
+				}
+			} finally {
+				for (RawZipWriter writer : writers) {
+					writer.close();
+				}
+			}
+
+			LOGGER.info("Split {} classes into {} shards", classes.size(), shardCount);
+			return shards;
+		} catch (ZipException e) {
+			LOGGER.info("Not sharding {}: {}", inputJar, e.getMessage());
+			return List.of(inputJar);
+		}
+	}
+
+	// Union the nest of every class with the nests of its supertypes in the same package
+	private static Map<String, Long> group(List<ClassInfo> classes) {
+		final Map<String, String> parents = new HashMap<>();
+		final Set<String> names = new HashSet<>();
+
+		for (ClassInfo classInfo : classes) {
+			names.add(classInfo.name);
+		}
+
+		for (ClassInfo classInfo : classes) {
+			union(parents, classInfo.name, classInfo.nestHost);
+
+			for (String superType : classInfo.superTypes) {
+				if (names.contains(superType) && packageOf(superType).equals(packageOf(classInfo.name))) {
+					union(parents, classInfo.name, superType);
+				}
+			}
+		}
+
+		final Map<String, Long> groupSizes = new TreeMap<>();
+
+		for (ClassInfo classInfo : classes) {
+			classInfo.group = find(parents, classInfo.name);
+			groupSizes.merge(classInfo.group, classInfo.entry.size(), Long::sum);
+		}
+
+		return groupSizes;
+	}
+
+	private static String find(Map<String, String> parents, String name) {
+		String root = name;
+		String parent;
+
+		while ((parent = parents.get(root)) != null) {
+			root = parent;
+		}
+
+		// Path compression
+		while (!name.equals(root)) {
+			parent = parents.put(name, root);
+			name = parent;
+		}
+
+		return root;
+	}
+
+	private static void union(Map<String, String> parents, String a, String b) {
+		final String rootA = find(parents, a);
+		final String rootB = find(parents, b);
+
+		// Keep the smallest name as the root so the grouping does not depend on the order of the jar
+		if (rootA.compareTo(rootB) < 0) {
+			parents.put(rootB, rootA);
+		} else if (rootA.compareTo(rootB) > 0) {
+			parents.put(rootA, rootB);
+		}
+	}
+
+	/**
+	 * Assign groups to shards, largest first onto the least loaded shard. Packages that fit within the average shard
+	 * size are assigned as a whole.
+	 *
+	 * @return A map of group to shard index
+	 */
+	private static Map<String, Integer> partition(Map<String, Long> groupSizes, int shardCount) {
+		final Map<String, List<String>> packages = new TreeMap<>();
+		long totalSize = 0;
+
+		for (Map.Entry<String, Long> entry : groupSizes.entrySet()) {
+			packages.computeIfAbsent(packageOf(entry.getKey()), p -> new ArrayList<>()).add(entry.getKey());
+			totalSize += entry.getValue();
+		}
+
+		final long targetSize = totalSize / shardCount;
+		final List<Unit> units = new ArrayList<>();
+
+		for (List<String> groups : packages.values()) {
+			final long packageSize = groups.stream().mapToLong(groupSizes::get).sum();
+
+			if (packageSize <= targetSize) {
+				units.add(new Unit(groups, packageSize));
+				continue;
+			}
+
+			for (String group : groups) {
+				units.add(new Unit(List.of(group), groupSizes.get(group)));
+			}
+		}
+
+		units.sort(Comparator.comparingLong(Unit::size).reversed());
+
+		final long[] shardSizes = new long[shardCount];
+		final PriorityQueue<Integer> shards = new PriorityQueue<>(Comparator.<Integer>comparingLong(i -> shardSizes[i]).thenComparingInt(i -> i));
+		final Map<String, Integer> shardOfGroup = new HashMap<>();
+
+		for (int i = 0; i < shardCount; i++) {
+			shards.add(i);
+		}
+
+		for (Unit unit : units) {
+			final int shard = shards.poll();
+			shardSizes[shard] += unit.size;
+			shards.add(shard);
+
+			for (String group : unit.groups) {
+				shardOfGroup.put(group, shard);
+			}
+		}
+
+		return shardOfGroup;
+	}
+
+	private static String packageOf(String className) {
+		final int index = className.lastIndexOf('/');
+		return index == -1 ? "" : className.substring(0, index);
+	}
+
+	/**
+	 * Merge the decompiled shards into a single jar, the first occurrence of an entry wins.
+	 */
+	public static void merge(List<Path> jars, Path output) throws IOException {
+		Files.deleteIfExists(output);
+
+		try {
+			mergeRaw(jars, output);
+		} catch (ZipException e) {
+			LOGGER.info("Merging shards through the zip file system: {}", e.getMessage());
+			Files.deleteIfExists(output);
+			mergeWithFileSystem(jars, output);
+		}
+	}
+
+	private static void mergeRaw(List<Path> jars, Path output) throws IOException {
+		final Set<String> written = new HashSet<>();
+
+		try (RawZipWriter writer = new RawZipWriter(output)) {
+			for (Path jar : jars) {
+				try (RawZipFile zip = RawZipFile.open(jar)) {
+					for (RawZipFile.Entry entry : zip.entries()) {
+						if (written.add(entry.name())) {
+							writer.writeRaw(entry, zip.readRaw(entry));
+						}
+					}
+				}
+			}
+
+			writer.finish();
+		}
+	}
+
+	private static void mergeWithFileSystem(List<Path> jars, Path output) throws IOException {
+		try (FileSystemUtil.Delegate outputFs = FileSystemUtil.getJarFileSystem(output, true)) {
+			for (Path jar : jars) {
+				try (FileSystemUtil.Delegate inputFs = FileSystemUtil.getJarFileSystem(jar, false)) {
+					final Path inputRoot = inputFs.getRoot();
+
+					Files.walkFileTree(inputRoot, new SimpleFileVisitor<>() {
+						@Override
+						public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+							Files.createDirectories(outputFs.getPath(inputRoot.relativize(dir).toString()));
+							return FileVisitResult.CONTINUE;
+						}
+
+						@Override
+						public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+							final Path target = outputFs.getPath(inputRoot.relativize(file).toString());
+
+							if (Files.notExists(target)) {
+								Files.copy(file, target);
+							}
+
+							return FileVisitResult.CONTINUE;
+						}
+					});
+				}
+			}
+		}
+	}
+
+	private record Unit(List<String> groups, long size) {
+	}
+
+	private static final class ClassInfo {
+		private final RawZipFile.Entry entry;
+		private String name;
+		private String nestHost;
+		private final List<String> superTypes = new ArrayList<>();
+		private String group;
+
+		private ClassInfo(RawZipFile.Entry entry) {
+			this.entry = entry;
+		}
+
+		static ClassInfo read(RawZipFile.Entry entry, byte[] bytes) {
+			final var classInfo = new ClassInfo(entry);
+
+			new ClassReader(bytes).accept(new ClassVisitor(Constants.ASM_VERSION) {
+				@Override
+				public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+					classInfo.name = name;
+
+					if (superName != null) {
+						classInfo.superTypes.add(superName);
+					}
+
+					if (interfaces != null) {
+						classInfo.superTypes.addAll(List.of(interfaces));
+					}
+				}
+
+				@Override
+				public void visitNestHost(String nestHost) {
+					classInfo.nestHost = nestHost;
+				}
+
+				@Override
+				public void visitOuterClass(String owner, String name, String descriptor) {
+					// Local and anonymous classes, used when the class predates nest attributes
+					if (classInfo.nestHost == null) {
+						classInfo.nestHost = owner;
+					}
+				}
+			}, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+
+			if (classInfo.nestHost == null) {
+				final int index = classInfo.name.indexOf('$', classInfo.name.lastIndexOf('/') + 1);
+				classInfo.nestHost = index > 0 ? classInfo.name.substring(0, index) : classInfo.name;
+			}
+
+			return classInfo;
+		}
+	}
+}
@@ -0,0 +1,578 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2024 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.decompilers;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.RecordComponentVisitor;
+import org.objectweb.asm.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.fabricmc.loom.decompilers.cache.OrderedParallelProcessor;
+import net.fabricmc.loom.decompilers.cache.SourcesJarWriter;
+import net.fabricmc.loom.util.Constants;
+import net.fabricmc.loom.util.FileSystemUtil;
+import net.fabricmc.loom.util.IOFunction;
+
+/**
+ * Inserts javadoc into sources that were decompiled without it, so the decompile cache never depends on the javadoc.
+ *
+ * <p>The declarations found by {@link SourceDeclarations} are matched with the fields and methods of the compiled class
+ * by name and parameter types to find their descriptors, the javadoc is then inserted on the lines above each
+ * declaration. As lines are inserted, the line numbers of the decompiled classes are moved down to match. Local and
+ * anonymous classes are not documented.
+ */
+public final class JavadocInjector {
+	private static final Logger LOGGER = LoggerFactory.getLogger(JavadocInjector.class);
+
+	private final JavadocIndex javadocs;
+
+	public JavadocInjector(JavadocIndex javadocs) {
+		this.javadocs = javadocs;
+	}
+
+	/**
+	 * Insert the javadoc into every source file of a sources jar.
+	 *
+	 * @param classesJar The jar that was decompiled
+	 * @param lineNumbers The line numbers of the sources before any javadoc was inserted
+	 * @return The line numbers of the sources with the javadoc
+	 */
+	@Nullable
+	public ClassLineNumbers injectJar(Path classesJar, Path sourcesJar, Path outputJar, @Nullable ClassLineNumbers lineNumbers, int parallelism) throws IOException {
+		// Type name -> the lines inserted into its source file
+		final Map<String, LineShift> lineShifts = new HashMap<>();
+
+		try (FileSystemUtil.Delegate classesFs = FileSystemUtil.getJarFileSystem(classesJar, false);
+				FileSystemUtil.Delegate sourcesFs = FileSystemUtil.getJarFileSystem(sourcesJar, false);
+				Stream<Path> walk = Files.walk(sourcesFs.getRoot());
+				SourcesJarWriter writer = new SourcesJarWriter(outputJar)) {
+			final List<Path> files = walk.filter(Files::isRegularFile).toList();
+			final IOFunction<String, byte[]> classes = className -> readClass(classesFs, className);
+
+			OrderedParallelProcessor.process(files, parallelism, file -> {
+				final String name = file.toString().substring(1);
+				final byte[] bytes = Files.readAllBytes(file);
+
+				if (!name.endsWith(".java")) {
+					return new InjectedFile(name, bytes, null);
+				}
+
+				final Result result = inject(new String(bytes, StandardCharsets.UTF_8), classes);
+
+				if (result.lineShift() == null) {
+					return new InjectedFile(name, bytes, null);
+				}
+
+				return new InjectedFile(name, result.sources().getBytes(StandardCharsets.UTF_8), result);
+			}, injected -> {
+				writer.write(injected.name(), injected.bytes());
+
+				if (injected.result() != null) {
+					for (String type : injected.result().types()) {
+						lineShifts.put(type, injected.result().lineShift());
+					}
+				}
+			});
+
+			writer.finish();
+		}
+
+		LOGGER.info("Inserted javadoc into the sources of {} classes", lineShifts.size());
+		return shiftLineNumbers(lineNumbers, lineShifts);
+	}
+
+	/**
+	 * Insert the javadoc of the types declared in a source file.
+	 *
+	 * @param classes Reads a compiled class by its internal name, or returns null when there is no such class
+	 */
+	public Result inject(String sources, IOFunction<String, byte[]> classes) throws IOException {
+		final List<SourceDeclarations.Type> types = SourceDeclarations.scan(sources);
+		// Offset of the declaration -> javadoc
+		final TreeMap<Integer, String> comments = new TreeMap<>();
+
+		for (SourceDeclarations.Type type : types) {
+			if (javadocs.classDigest(type.name()) == null) {
+				// Neither the class nor any of its members are documented
+				continue;
+			}
+
+			final byte[] bytes = classes.apply(type.name());
+
+			if (bytes == null) {
+				LOGGER.debug("No compiled class found for {}, skipping its javadoc", type.name());
+				continue;
+			}
+
+			final CompiledClass compiled = CompiledClass.read(bytes);
+			putComment(comments, type.offset(), getClassDoc(type.name(), compiled));
+			collectMemberComments(type, compiled, comments);
+		}
+
+		final List<String> typeNames = types.stream().map(SourceDeclarations.Type::name).toList();
+
+		if (comments.isEmpty()) {
+			return new Result(sources, null, typeNames);
+		}
+
+		final String lineSeparator = sources.contains("\r\n") ? "\r\n" : "\n";
+		final var output = new StringBuilder(sources.length() + comments.size() * 64);
+		final List<int[]> insertions = new ArrayList<>();
+		int copied = 0;
+		int line = 1;
+
+		for (Map.Entry<Integer, String> comment : comments.entrySet()) {
+			final int offset = comment.getKey();
+			final int lineStart = sources.lastIndexOf('\n', offset - 1) + 1;
+			final String indent = sources.substring(lineStart, offset);
+
+			if (!indent.isBlank()) {
+				// Shares its line with something else, there is nowhere to insert the comment without moving code
+				LOGGER.debug("Declaration at offset {} is not at the start of a line, skipping its javadoc", offset);
+				continue;
+			}
+
+			line += countLines(sources, copied, lineStart);
+			output.append(sources, copied, lineStart);
+			copied = lineStart;
+
+			final String[] commentLines = comment.getValue().replace("*/", "*&#47;").split("\n", -1);
+			output.append(indent).append("/**").append(lineSeparator);
+
+			for (String commentLine : commentLines) {
+				output.append(indent).append(commentLine.isEmpty() ? " *" : " * " + commentLine).append(lineSeparator);
+			}
+
+			output.append(indent).append(" */").append(lineSeparator);
+			insertions.add(new int[] {line, commentLines.length + 2});
+		}
+
+		if (insertions.isEmpty()) {
+			return new Result(sources, null, typeNames);
+		}
+
+		output.append(sources, copied, sources.length());
+		return new Result(output.toString(), LineShift.of(insertions), typeNames);
+	}
+
+	private void collectMemberComments(SourceDeclarations.Type type, CompiledClass compiled, Map<Integer, String> comments) {
+		// Source name -> declarations in source order, the same for the compiled methods in class file order
+		final Map<String, List<SourceDeclarations.Member>> sourceMethods = new LinkedHashMap<>();
+		final Map<String, List<CompiledMember>> compiledMethods = new HashMap<>();
+
+		for (SourceDeclarations.Member member : type.members()) {
+			if (member.isField()) {
+				final CompiledMember field = compiled.field(member.name());
+
+				// Record components are documented on the record itself
+				if (field != null && !(compiled.isRecord() && (field.access() & Opcodes.ACC_STATIC) == 0)) {
+					putComment(comments, member.offset(), javadocs.fieldDoc(type.name(), field.name(), field.descriptor()));
+				}
+			} else {
+				sourceMethods.computeIfAbsent(member.name(), name -> new ArrayList<>()).add(member);
+			}
+		}
+
+		for (CompiledMember method : compiled.methods()) {
+			if ((method.access() & (Opcodes.ACC_SYNTHETIC | Opcodes.ACC_BRIDGE)) == 0) {
+				compiledMethods.computeIfAbsent(method.name(), name -> new ArrayList<>()).add(method);
+			}
+		}
+
+		for (Map.Entry<String, List<SourceDeclarations.Member>> entry : sourceMethods.entrySet()) {
+			final List<SourceDeclarations.Member> declared = entry.getValue();
+			final List<CompiledMember> candidates = compiledMethods.getOrDefault(entry.getKey(), List.of());
+			final boolean sameOrder = declared.size() == candidates.size() && isPlausibleOrder(declared, candidates);
+
+			for (int i = 0; i < declared.size(); i++) {
+				final SourceDeclarations.Member member = declared.get(i);
+				CompiledMember method = findByParameterTypes(type.name(), member, candidates);
+
+				if (method == null) {
+					// Ambiguous, such as two parameter types with the same simple name, or not understood in the sources
+					method = sameOrder ? candidates.get(i) : findByParameterCount(member, candidates);
+				}
+
+				if (method == null) {
+					LOGGER.debug("Could not match {}.{}({}) to a compiled method", type.name(), member.name(), String.join(", ", member.parameterTypes()));
+					continue;
+				}
+
+				putComment(comments, member.offset(), getMethodDoc(type.name(), method));
+			}
+		}
+	}
+
+	/**
+	 * Decompilers keep the methods in class file order, the parameter counts only have to agree. Constructors of enums
+	 * and inner classes have up to two parameters that are not in the sources.
+	 */
+	private static boolean isPlausibleOrder(List<SourceDeclarations.Member> declared, List<CompiledMember> candidates) {
+		for (int i = 0; i < declared.size(); i++) {
+			final int declaredCount = declared.get(i).parameterCount();
+			final int compiledCount = Type.getArgumentCount(candidates.get(i).descriptor());
+
+			if (declaredCount != compiledCount && !(declared.get(i).name().equals("<init>") && declaredCount < compiledCount && compiledCount - declaredCount <= 2)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	@Nullable
+	private static CompiledMember findByParameterTypes(String className, SourceDeclarations.Member member, List<CompiledMember> candidates) {
+		CompiledMember match = null;
+
+		for (CompiledMember candidate : candidates) {
+			if (parameterTypesMatch(className, member, candidate)) {
+				if (match != null) {
+					// Ambiguous
+					return null;
+				}
+
+				match = candidate;
+			}
+		}
+
+		return match;
+	}
+
+	/**
+	 * The sources name types by their simple or qualified name, so only the simple names of the erased types are
+	 * compared. The leading parameters of constructors that are not in the sources are skipped.
+	 */
+	private static boolean parameterTypesMatch(String className, SourceDeclarations.Member member, CompiledMember candidate) {
+		final List<String> declared = member.parameterTypes();
+		final Type[] compiled = Type.getArgumentTypes(candidate.descriptor());
+		final int skipped = compiled.length - declared.size();
+
+		if (skipped != 0 && !(member.name().equals("<init>") && isImplicitConstructorPrefix(className, compiled, skipped))) {
+			return false;
+		}
+
+		for (int i = 0; i < declared.size(); i++) {
+			if (!declared.get(i).equals(simpleName(compiled[skipped + i]))) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Enum constructors start with the name and ordinal of the constant, inner class constructors with the outer instance.
+	 */
+	private static boolean isImplicitConstructorPrefix(String className, Type[] compiled, int length) {
+		if (length == 2) {
+			return compiled[0].getSort() == Type.OBJECT && compiled[0].getInternalName().equals("java/lang/String") && compiled[1].getSort() == Type.INT;
+		}
+
+		return length == 1 && compiled[0].getSort() == Type.OBJECT && className.startsWith(compiled[0].getInternalName() + "$");
+	}
+
+	private static String simpleName(Type type) {
+		if (type.getSort() == Type.ARRAY) {
+			return simpleName(type.getElementType()) + "[]".repeat(type.getDimensions());
+		}
+
+		if (type.getSort() != Type.OBJECT) {
+			return type.getClassName();
+		}
+
+		final String name = type.getInternalName();
+		return name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('$')) + 1);
+	}
+
+	@Nullable
+	private static CompiledMember findByParameterCount(SourceDeclarations.Member member, List<CompiledMember> candidates) {
+		CompiledMember match = null;
+
+		for (CompiledMember candidate : candidates) {
+			if (Type.getArgumentCount(candidate.descriptor()) == member.parameterCount()) {
+				if (match != null) {
+					// Ambiguous
+					return null;
+				}
+
+				match = candidate;
+			}
+		}
+
+		return match;
+	}
+
+	@Nullable
+	private String getClassDoc(String className, CompiledClass compiled) {
+		final String classComment = javadocs.classDoc(className);
+
+		if (!compiled.isRecord()) {
+			return classComment;
+		}
+
+		// Record components are documented by their field, which is not in the sources
+		final List<String> parts = new ArrayList<>();
+
+		if (classComment != null) {
+			parts.add(classComment);
+		}
+
+		boolean addedParam = false;
+
+		for (CompiledMember component : compiled.recordComponents()) {
+			final String comment = javadocs.fieldDoc(className, component.name(), component.descriptor());
+
+			if (comment != null) {
+				if (!addedParam && classComment != null) {
+					parts.add("");
+					addedParam = true;
+				}
+
+				parts.add(String.format("@param %s %s", component.name(), comment));
+			}
+		}
+
+		return parts.isEmpty() ? null : String.join("\n", parts);
+	}
+
+	@Nullable
+	private String getMethodDoc(String className, CompiledMember method) {
+		final JavadocIndex.MethodDoc methodDoc = javadocs.methodDoc(className, method.name(), method.descriptor());
+
+		if (methodDoc == null) {
+			return null;
+		}
+
+		final List<String> parts = new ArrayList<>();
+
+		if (methodDoc.comment() != null) {
+			parts.add(methodDoc.comment());
+		}
+
+		boolean addedParam = false;
+
+		for (JavadocIndex.Parameter parameter : methodDoc.parameters()) {
+			if (!addedParam && methodDoc.comment() != null) {
+				parts.add("");
+				addedParam = true;
+			}
+
+			parts.add(String.format("@param %s %s", parameter.name(), parameter.comment()));
+		}
+
+		return parts.isEmpty() ? null : String.join("\n", parts);
+	}
+
+	private static void putComment(Map<Integer, String> comments, int offset, @Nullable String comment) {
+		if (comment != null) {
+			// The fields of a declaration such as int a, b; share its offset and so its javadoc
+			comments.merge(offset, comment, (first, second) -> first + "\n\n" + second);
+		}
+	}
+
+	private static int countLines(String sources, int start, int end) {
+		int lines = 0;
+
+		for (int i = start; i < end; i++) {
+			if (sources.charAt(i) == '\n') {
+				lines++;
+			}
+		}
+
+		return lines;
+	}
+
+	@Nullable
+	private static byte[] readClass(FileSystemUtil.Delegate classesFs, String className) throws IOException {
+		try {
+			return Files.readAllBytes(classesFs.getPath(className + ".class"));
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	@Nullable
+	private static ClassLineNumbers shiftLineNumbers(@Nullable ClassLineNumbers lineNumbers, Map<String, LineShift> lineShifts) {
+		if (lineNumbers == null || lineShifts.isEmpty()) {
+			return lineNumbers;
+		}
+
+		final Map<String, ClassLineNumbers.Entry> lineMap = new HashMap<>(lineNumbers.lineMap());
+
+		for (Map.Entry<String, ClassLineNumbers.Entry> entry : lineMap.entrySet()) {
+			final LineShift lineShift = findLineShift(entry.getKey(), lineShifts);
+
+			if (lineShift != null) {
+				entry.setValue(entry.getValue().remapDest(lineShift::apply));
+			}
+		}
+
+		return new ClassLineNumbers(Map.copyOf(lineMap));
+	}
+
+	// Local and anonymous classes are not declared in the sources, they share the source file of their enclosing type
+	@Nullable
+	private static LineShift findLineShift(String className, Map<String, LineShift> lineShifts) {
+		String name = className;
+
+		while (true) {
+			final LineShift lineShift = lineShifts.get(name);
+
+			if (lineShift != null) {
+				return lineShift;
+			}
+
+			final int separator = name.lastIndexOf('$');
+
+			if (separator < 0) {
+				return null;
+			}
+
+			name = name.substring(0, separator);
+		}
+	}
+
+	/**
+	 * @param lineShift The lines inserted into the sources, or null if nothing was inserted
+	 * @param types The internal names of the types declared in the sources
+	 */
+	public record Result(String sources, @Nullable LineShift lineShift, List<String> types) {
+	}
+
+	private record InjectedFile(String name, byte[] bytes, @Nullable Result result) {
+	}
+
+	/**
+	 * The lines inserted into a source file.
+	 *
+	 * @param lines The lines the comments were inserted before, in the original sources and in increasing order
+	 * @param inserted The total number of lines inserted up to and including each of them
+	 */
+	public record LineShift(int[] lines, int[] inserted) {
+		static LineShift of(List<int[]> insertions) {
+			final int[] lines = new int[insertions.size()];
+			final int[] inserted = new int[insertions.size()];
+			int total = 0;
+
+			for (int i = 0; i < insertions.size(); i++) {
+				total += insertions.get(i)[1];
+				lines[i] = insertions.get(i)[0];
+				inserted[i] = total;
+			}
+
+			return new LineShift(lines, inserted);
+		}
+
+		/**
+		 * @return The line in the sources with javadoc of a line in the sources without it
+		 */
+		public int apply(int line) {
+			int index = Arrays.binarySearch(lines, line);
+
+			// The lines before the insertions have not moved, the line an insertion was made before has
+			if (index < 0) {
+				index = -(index + 1) - 1;
+			}
+
+			return index < 0 ? line : line + inserted[index];
+		}
+	}
+
+	private record CompiledMember(String name, String descriptor, int access) {
+	}
+
+	private record CompiledClass(int access, List<CompiledMember> fields, List<CompiledMember> methods, List<CompiledMember> recordComponents) {
+		static CompiledClass read(byte[] bytes) {
+			final List<CompiledMember> fields = new ArrayList<>();
+			final List<CompiledMember> methods = new ArrayList<>();
+			final List<CompiledMember> recordComponents = new ArrayList<>();
+
+			final var visitor = new ClassVisitor(Constants.ASM_VERSION) {
+				int access;
+
+				@Override
+				public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+					this.access = access;
+				}
+
+				@Override
+				public RecordComponentVisitor visitRecordComponent(String name, String descriptor, String signature) {
+					recordComponents.add(new CompiledMember(name, descriptor, 0));
+					return null;
+				}
+
+				@Override
+				public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+					fields.add(new CompiledMember(name, descriptor, access));
+					return null;
+				}
+
+				@Override
+				public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+					methods.add(new CompiledMember(name, descriptor, access));
+					return null;
+				}
+			};
+
+			new ClassReader(bytes).accept(visitor, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+			return new CompiledClass(visitor.access, fields, methods, recordComponents);
+		}
+
+		boolean isRecord() {
+			return (access & Opcodes.ACC_RECORD) != 0;
+		}
+
+		@Nullable
+		CompiledMember field(String name) {
+			for (CompiledMember field : fields) {
+				if (field.name().equals(name)) {
+					return field;
+				}
+			}
+
+			return null;
+		}
+	}
+}
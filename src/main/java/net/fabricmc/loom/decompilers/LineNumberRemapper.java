@@ -25,12 +25,16 @@
 package net.fabricmc.loom.decompilers;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.util.HashSet;
+import java.util.Objects;
 import java.util.Set;
+import java.util.zip.ZipException;
+
+import org.jetbrains.annotations.Nullable;
 
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
@@ -40,13 +44,99 @@ import org.objectweb.asm.MethodVisitor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import net.fabricmc.loom.decompilers.cache.OrderedParallelProcessor;
 import net.fabricmc.loom.util.AsyncZipProcessor;
 import net.fabricmc.loom.util.Constants;
+import net.fabricmc.loom.util.RawZipFile;
+import net.fabricmc.loom.util.RawZipWriter;
 
 public record LineNumberRemapper(ClassLineNumbers lineNumbers) {
 	private static final Logger LOGGER = LoggerFactory.getLogger(LineNumberRemapper.class);
 
+	/**
+	 * Remap the line numbers of every class with an entry in the line numbers, copying every other entry as is.
+	 *
+	 * <p>Only the remapped classes are inflated and compressed again, every other entry is copied as raw compressed
+	 * bytes. Classes are remapped in parallel and written in the order of the input jar.
+	 */
 	public void process(Path input, Path output) throws IOException {
+		final RawZipFile inputZip;
+
+		try {
+			inputZip = RawZipFile.open(input);
+		} catch (ZipException e) {
+			LOGGER.debug("Unable to copy {} without recompressing it, falling back to a zip file system: {}", input, e.getMessage());
+			processWithFileSystem(input, output);
+			return;
+		}
+
+		boolean success = false;
+
+		try (inputZip; RawZipWriter writer = new RawZipWriter(output)) {
+			OrderedParallelProcessor.process(inputZip.entries(), Runtime.getRuntime().availableProcessors(), entry -> processEntry(inputZip, entry), result -> result.write(writer));
+			writer.finish();
+			success = true;
+		} finally {
+			if (!success) {
+				Files.deleteIfExists(output);
+			}
+		}
+	}
+
+	private ProcessedEntry processEntry(RawZipFile zip, RawZipFile.Entry entry) throws IOException {
+		final ClassLineNumbers.Entry classLineNumbers = entry.isDirectory() ? null : getLineNumbers(entry.name());
+
+		if (classLineNumbers == null) {
+			return new ProcessedEntry(entry, zip.readRaw(entry), null);
+		}
+
+		LOGGER.debug("Remapping line numbers for class: {}", entry.name());
+		return new ProcessedEntry(entry, null, RawZipWriter.deflate(remapClass(zip.read(entry), classLineNumbers)));
+	}
+
+	private ClassLineNumbers.@Nullable Entry getLineNumbers(String fileName) {
+		if (!fileName.endsWith(".class")) {
+			return null;
+		}
+
+		// Strip the .class extension
+		String idx = fileName.substring(0, fileName.length() - 6);
+
+		int dollarPos = idx.indexOf('$'); //This makes the assumption that only Java classes are to be remapped.
+
+		if (dollarPos >= 0) {
+			idx = idx.substring(0, dollarPos);
+		}
+
+		final ClassLineNumbers.Entry entry = lineNumbers.lineMap().get(idx);
+
+		if (entry == null) {
+			LOGGER.debug("No linemap found for: {}", idx);
+		}
+
+		return entry;
+	}
+
+	private static byte[] remapClass(byte[] classBytes, ClassLineNumbers.Entry lineNumbers) {
+		ClassReader reader = new ClassReader(classBytes);
+		ClassWriter writer = new ClassWriter(0);
+
+		reader.accept(new LineNumberVisitor(Constants.ASM_VERSION, writer, lineNumbers), 0);
+		return writer.toByteArray();
+	}
+
+	private record ProcessedEntry(RawZipFile.Entry entry, @Nullable ByteBuffer raw, RawZipWriter.@Nullable Compressed remapped) {
+		void write(RawZipWriter writer) throws IOException {
+			if (remapped != null) {
+				writer.writeDeflated(entry, remapped);
+			} else {
+				writer.writeRaw(entry, Objects.requireNonNull(raw));
+			}
+		}
+	}
+
+	// Used for zip files that RawZipFile cannot read, such as zip64 files
+	private void processWithFileSystem(Path input, Path output) throws IOException {
 		AsyncZipProcessor.processEntries(input, output, new AsyncZipProcessor() {
 			private final Set<Path> createdParents = new HashSet<>();
 
@@ -63,28 +153,12 @@ public record LineNumberRemapper(ClassLineNumbers lineNumbers) {
 				String fileName = file.toAbsolutePath().toString();
 
 				if (fileName.endsWith(".class")) {
-					// Strip the leading slash and the .class extension
-					String idx = fileName.substring(1, fileName.length() - 6);
-
-					int dollarPos = idx.indexOf('$'); //This makes the assumption that only Java classes are to be remapped.
-
-					if (dollarPos >= 0) {
-						idx = idx.substring(0, dollarPos);
-					}
-
-					if (lineNumbers.lineMap().containsKey(idx)) {
-						LOGGER.debug("Remapping line numbers for class: {}", idx);
+					// Strip the leading slash
+					final ClassLineNumbers.Entry classLineNumbers = getLineNumbers(fileName.substring(1));
 
-						try (InputStream is = Files.newInputStream(file)) {
-							ClassReader reader = new ClassReader(is);
-							ClassWriter writer = new ClassWriter(0);
-
-							reader.accept(new LineNumberVisitor(Constants.ASM_VERSION, writer, lineNumbers.lineMap().get(idx)), 0);
-							Files.write(dst, writer.toByteArray());
-							return;
-						}
-					} else {
-						LOGGER.debug("No linemap found for: {}", idx);
+					if (classLineNumbers != null) {
+						Files.write(dst, remapClass(Files.readAllBytes(file), classLineNumbers));
+						return;
 					}
 				}
 
@@ -106,20 +180,10 @@ public record LineNumberRemapper(ClassLineNumbers lineNumbers) {
 			return new MethodVisitor(api, super.visitMethod(access, name, descriptor, signature, exceptions)) {
 				@Override
 				public void visitLineNumber(int line, Label start) {
-					int tLine = line;
-
-					if (tLine <= 0) {
+					if (line <= 0) {
 						super.visitLineNumber(line, start);
-					} else if (tLine >= lineNumbers.maxLine()) {
-						super.visitLineNumber(lineNumbers.maxLineDest(), start);
 					} else {
-						Integer matchedLine = null;
-
-						while (tLine <= lineNumbers.maxLine() && ((matchedLine = lineNumbers.lineMap().get(tLine)) == null)) {
-							tLine++;
-						}
-
-						super.visitLineNumber(matchedLine != null ? matchedLine : lineNumbers.maxLineDest(), start);
+						super.visitLineNumber(lineNumbers.remap(line), start);
 					}
 				}
 			};
@@ -0,0 +1,171 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2024 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.decompilers;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.fabricmc.loom.decompilers.cache.CachedFileStoreImpl;
+import net.fabricmc.loom.util.Checksum;
+import net.fabricmc.mappingio.MappingReader;
+import net.fabricmc.mappingio.adapter.MappingSourceNsSwitch;
+import net.fabricmc.mappingio.tree.MappingTree;
+import net.fabricmc.mappingio.tree.MemoryMappingTree;
+
+/**
+ * Builds {@link JavadocIndex}es from the comments of a mappings file.
+ */
+public final class MappingsJavadocIndex {
+	private static final Logger LOGGER = LoggerFactory.getLogger(MappingsJavadocIndex.class);
+	private static final String NAMESPACE = "named";
+
+	private MappingsJavadocIndex() {
+	}
+
+	/**
+	 * Get the index of the mappings from the directory, building it when the mappings have not been indexed before.
+	 * The modification time of the index is the last time it was used, see
+	 * {@link #prune(Path, CachedFileStoreImpl.CacheRules)}.
+	 *
+	 * @return The path of the index, named after the hash of the mappings
+	 */
+	public static Path getOrBuild(Path mappings, Path directory) throws IOException {
+		final Path path = directory.resolve(Checksum.sha256Hex(mappings) + ".jdix");
+
+		// Indexes written by an older version are rebuilt
+		if (Files.exists(path) && JavadocIndex.isIndex(path)) {
+			Files.setLastModifiedTime(path, FileTime.from(Instant.now()));
+			return path;
+		}
+
+		final long start = System.nanoTime();
+		final JavadocIndex.Builder builder = read(mappings);
+
+		Files.createDirectories(directory);
+		final Path tempPath = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+
+		try {
+			builder.write(tempPath);
+			Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tempPath);
+		}
+
+		LOGGER.info("Indexed {} javadoc entries of {} in {} ms", builder.size(), mappings.getFileName(), (System.nanoTime() - start) / 1_000_000);
+		return path;
+	}
+
+	/**
+	 * Delete the indexes in the directory that break the cache rules, least recently used first.
+	 */
+	public static void prune(Path directory, CachedFileStoreImpl.CacheRules cacheRules) throws IOException {
+		if (Files.notExists(directory)) {
+			return;
+		}
+
+		final List<IndexFile> indexes = new ArrayList<>();
+
+		try (Stream<Path> stream = Files.list(directory)) {
+			for (Path path : (Iterable<Path>) stream::iterator) {
+				if (path.getFileName().toString().endsWith(".jdix")) {
+					indexes.add(new IndexFile(path, Files.size(path), Files.getLastModifiedTime(path).toMillis()));
+				}
+			}
+		}
+
+		for (IndexFile index : cacheRules.selectEvictions(indexes, IndexFile::size, IndexFile::lastModified)) {
+			try {
+				Files.deleteIfExists(index.path());
+			} catch (IOException e) {
+				// Still open by another build on Windows, it is deleted by a later prune
+				LOGGER.debug("Failed to delete javadoc index {}", index.path(), e);
+			}
+		}
+	}
+
+	/**
+	 * Build an index in memory, for mappings that have not been indexed ahead of time.
+	 */
+	public static JavadocIndex build(Path mappings) throws IOException {
+		return JavadocIndex.read(ByteBuffer.wrap(read(mappings).build()));
+	}
+
+	private static JavadocIndex.Builder read(Path mappings) throws IOException {
+		final MemoryMappingTree mappingTree = new MemoryMappingTree();
+
+		try (BufferedReader reader = Files.newBufferedReader(mappings)) {
+			MappingReader.read(reader, new MappingSourceNsSwitch(mappingTree, NAMESPACE));
+		}
+
+		final var builder = new JavadocIndex.Builder();
+
+		for (MappingTree.ClassMapping classMapping : mappingTree.getClasses()) {
+			final String owner = classMapping.getSrcName();
+
+			if (classMapping.getComment() != null) {
+				builder.classDoc(owner, classMapping.getComment());
+			}
+
+			for (MappingTree.FieldMapping fieldMapping : classMapping.getFields()) {
+				if (fieldMapping.getComment() != null && fieldMapping.getSrcDesc() != null) {
+					builder.fieldDoc(owner, fieldMapping.getSrcName(), fieldMapping.getSrcDesc(), fieldMapping.getComment());
+				}
+			}
+
+			for (MappingTree.MethodMapping methodMapping : classMapping.getMethods()) {
+				if (methodMapping.getSrcDesc() == null) {
+					continue;
+				}
+
+				final List<JavadocIndex.Parameter> parameters = new ArrayList<>();
+
+				for (MappingTree.MethodArgMapping argMapping : methodMapping.getArgs()) {
+					if (argMapping.getComment() != null && argMapping.getSrcName() != null) {
+						parameters.add(new JavadocIndex.Parameter(argMapping.getSrcName(), argMapping.getComment()));
+					}
+				}
+
+				builder.methodDoc(owner, methodMapping.getSrcName(), methodMapping.getSrcDesc(), methodMapping.getComment(), parameters);
+			}
+		}
+
+		return builder;
+	}
+
+	private record IndexFile(Path path, long size, long lastModified) {
+	}
+}
@@ -0,0 +1,678 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2024 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.decompilers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Finds the declarations of types and their members in decompiled sources, without fully parsing them.
+ *
+ * <p>Only the structure a decompiler emits needs to be understood. The bodies of methods and initializers and the values
+ * of fields are skipped without being looked at, so local and anonymous classes are never reported.
+ */
+final class SourceDeclarations {
+	private static final Set<String> MODIFIERS = Set.of(
+			"public", "protected", "private", "static", "final", "abstract", "native", "synchronized",
+			"transient", "volatile", "strictfp", "default", "sealed"
+	);
+
+	private final List<Token> tokens;
+	private final List<Type> types = new ArrayList<>();
+	// Type variable name -> the simple name of its erasure, for the types being parsed
+	private Map<String, String> typeVariables = Map.of();
+	private String packagePrefix = "";
+	private int pos = 0;
+
+	private SourceDeclarations(String source) {
+		this.tokens = tokenize(source);
+	}
+
+	/**
+	 * @return Every type declared in the sources, nested types included
+	 */
+	static List<Type> scan(String source) {
+		final var declarations = new SourceDeclarations(source);
+		declarations.parseCompilationUnit();
+		return declarations.types;
+	}
+
+	/**
+	 * @param name The internal name of the type
+	 * @param offset The offset of the first annotation or modifier of the declaration
+	 */
+	record Type(String name, int offset, List<Member> members) {
+	}
+
+	/**
+	 * @param name The name of the field or method, constructors are named {@code <init>}
+	 * @param parameterTypes The simple names of the erased parameter types in the source such as {@code String[]}, or
+	 * null for a field
+	 * @param offset The offset of the first annotation or modifier of the declaration, shared by every field declared
+	 * by it
+	 */
+	record Member(String name, @Nullable List<String> parameterTypes, int offset) {
+		boolean isField() {
+			return parameterTypes == null;
+		}
+
+		int parameterCount() {
+			return parameterTypes == null ? -1 : parameterTypes.size();
+		}
+	}
+
+	private void parseCompilationUnit() {
+		while (pos < tokens.size()) {
+			if (isIdentifier("package")) {
+				pos++;
+				final var name = new StringBuilder();
+
+				while (pos < tokens.size() && !isSymbol(';')) {
+					name.append(tokens.get(pos++).text());
+				}
+
+				packagePrefix = name.toString().replace('.', '/') + "/";
+				pos++;
+			} else if (isIdentifier("import")) {
+				skipPast(';');
+			} else if (isSymbol(';') || isSymbol('}')) {
+				pos++;
+			} else {
+				parseDeclaration(null);
+			}
+		}
+	}
+
+	/**
+	 * Parse a member or nested type of the given type, or a top level type when it is null.
+	 */
+	private void parseDeclaration(Type owner) {
+		final int start = tokens.get(pos).offset();
+		skipModifiers();
+
+		if (pos >= tokens.size()) {
+			return;
+		}
+
+		if (isTypeKeyword()) {
+			parseType(owner, start);
+			return;
+		}
+
+		if (isSymbol('{')) {
+			// An initializer
+			skipBalanced();
+			return;
+		}
+
+		if (owner == null) {
+			// Not something a decompiler would write, skip to the next top level statement
+			skipPast(';');
+			return;
+		}
+
+		final int afterModifiers = pos;
+		int typeParametersEnd = afterModifiers;
+		Map<String, String> methodTypeVariables = typeVariables;
+
+		if (isSymbol('<')) {
+			methodTypeVariables = parseTypeParameters(typeVariables);
+			typeParametersEnd = pos;
+		}
+
+		String name = null;
+		int nameIndex = -1;
+		List<String> parameterTypes = null;
+		// Every name but the last of a field declaration such as int a, b;
+		final List<String> fieldNames = new ArrayList<>();
+
+		while (pos < tokens.size()) {
+			final Token token = tokens.get(pos);
+
+			if (token.is('(') && parameterTypes == null && pos > 0 && tokens.get(pos - 1).isIdentifier()) {
+				nameIndex = pos - 1;
+				name = tokens.get(nameIndex).text();
+				parameterTypes = parseParameters(methodTypeVariables);
+			} else if (token.is('@')) {
+				skipAnnotation();
+			} else if (token.is('<') && parameterTypes == null) {
+				// The type arguments of the field or return type
+				skipAngleBrackets();
+			} else if (token.is(';')) {
+				pos++;
+				break;
+			} else if (token.is('{')) {
+				skipBalanced();
+
+				if (parameterTypes == null) {
+					// A compact record constructor, there is nothing to match it with
+					return;
+				}
+
+				break;
+			} else if (token.is('=') && parameterTypes == null) {
+				pos++;
+				skipInitializer();
+			} else if (token.is(',') && parameterTypes == null) {
+				if (name != null) {
+					fieldNames.add(name);
+				}
+
+				name = null;
+				pos++;
+			} else if (token.is('}')) {
+				// Malformed, leave the closing brace to the owner
+				return;
+			} else {
+				if (parameterTypes == null && token.isIdentifier()) {
+					name = token.text();
+				}
+
+				pos++;
+			}
+		}
+
+		if (parameterTypes == null) {
+			for (String fieldName : fieldNames) {
+				owner.members().add(new Member(fieldName, null, start));
+			}
+		}
+
+		if (name == null) {
+			return;
+		}
+
+		if (parameterTypes != null && (nameIndex == afterModifiers || nameIndex == typeParametersEnd) && name.equals(simpleName(owner))) {
+			// No return type, so a constructor
+			name = "<init>";
+		}
+
+		owner.members().add(new Member(name, parameterTypes, start));
+	}
+
+	private void parseType(Type owner, int start) {
+		final boolean isEnum = isIdentifier("enum");
+
+		if (isSymbol('@')) {
+			pos++;
+		}
+
+		pos++;
+
+		if (pos >= tokens.size()) {
+			return;
+		}
+
+		final String simpleName = tokens.get(pos++).text();
+		final String name = owner == null ? packagePrefix + simpleName : owner.name() + "$" + simpleName;
+		final var type = new Type(name, start, new ArrayList<>());
+		types.add(type);
+
+		final Map<String, String> outerTypeVariables = typeVariables;
+
+		if (isSymbol('<')) {
+			// Nested types see the type variables of their outer types, which is harmless for static ones
+			typeVariables = parseTypeParameters(outerTypeVariables);
+		}
+
+		// Skip the type parameters, super types and record components
+		while (pos < tokens.size() && !isSymbol('{')) {
+			if (isSymbol('(')) {
+				skipBalanced();
+			} else {
+				pos++;
+			}
+		}
+
+		pos++;
+
+		if (isEnum) {
+			parseEnumConstants(type);
+		}
+
+		while (pos < tokens.size() && !isSymbol('}')) {
+			if (isSymbol(';')) {
+				pos++;
+			} else {
+				parseDeclaration(type);
+			}
+		}
+
+		typeVariables = outerTypeVariables;
+		pos++;
+	}
+
+	private void parseEnumConstants(Type type) {
+		while (pos < tokens.size()) {
+			if (isSymbol(';')) {
+				pos++;
+				return;
+			}
+
+			if (isSymbol('}')) {
+				return;
+			}
+
+			final int start = tokens.get(pos).offset();
+
+			while (isSymbol('@')) {
+				skipAnnotation();
+			}
+
+			if (pos >= tokens.size()) {
+				return;
+			}
+
+			final Token name = tokens.get(pos++);
+
+			if (isSymbol('(')) {
+				skipBalanced();
+			}
+
+			if (isSymbol('{')) {
+				skipBalanced();
+			}
+
+			if (isSymbol(',')) {
+				pos++;
+			}
+
+			if (name.isIdentifier()) {
+				type.members().add(new Member(name.text(), null, start));
+			}
+		}
+	}
+
+	private boolean isTypeKeyword() {
+		if (isIdentifier("class") || isIdentifier("interface") || isIdentifier("enum")) {
+			return true;
+		}
+
+		if (isSymbol('@')) {
+			return pos + 1 < tokens.size() && tokens.get(pos + 1).text().equals("interface");
+		}
+
+		// A contextual keyword, record can also be the name of a type, field or method
+		return isIdentifier("record") && pos + 2 < tokens.size() && tokens.get(pos + 1).isIdentifier()
+				&& (tokens.get(pos + 2).is('(') || tokens.get(pos + 2).is('<'));
+	}
+
+	private void skipModifiers() {
+		while (pos < tokens.size()) {
+			final Token token = tokens.get(pos);
+
+			if (token.is('@') && !isTypeKeyword()) {
+				skipAnnotation();
+			} else if (token.isIdentifier() && MODIFIERS.contains(token.text())) {
+				pos++;
+			} else if (isIdentifier("non") && pos + 2 < tokens.size() && tokens.get(pos + 1).is('-') && tokens.get(pos + 2).text().equals("sealed")) {
+				pos += 3;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private void skipAnnotation() {
+		// The @ and the first part of the name
+		pos += 2;
+
+		while (isSymbol('.')) {
+			pos += 2;
+		}
+
+		if (isSymbol('(')) {
+			skipBalanced();
+		}
+	}
+
+	/**
+	 * Parse the type parameters at the current position, erasing each to its first bound as the compiler does.
+	 *
+	 * @return The given type variables along with the parsed ones
+	 */
+	private Map<String, String> parseTypeParameters(Map<String, String> outer) {
+		final Map<String, String> variables = new HashMap<>(outer);
+		pos++;
+
+		while (pos < tokens.size()) {
+			while (isSymbol('@')) {
+				skipAnnotation();
+			}
+
+			if (pos >= tokens.size()) {
+				break;
+			}
+
+			final String variable = tokens.get(pos++).text();
+			String erasure = "Object";
+
+			if (isIdentifier("extends")) {
+				pos++;
+				final String bound = readTypeName();
+
+				if (bound != null) {
+					erasure = variables.getOrDefault(bound, bound);
+				}
+			}
+
+			variables.put(variable, erasure);
+			int depth = 0;
+
+			// Skip the rest of the bounds, up to the next type parameter or the end
+			while (pos < tokens.size()) {
+				final Token token = tokens.get(pos++);
+
+				if (token.is('<')) {
+					depth++;
+				} else if (token.is('>') && depth-- == 0) {
+					return variables;
+				} else if (token.is(',') && depth == 0) {
+					break;
+				}
+			}
+		}
+
+		return variables;
+	}
+
+	/**
+	 * Skip the parameter list at the current position.
+	 *
+	 * @return The simple names of the erased parameter types
+	 */
+	private List<String> parseParameters(Map<String, String> variables) {
+		final List<String> parameterTypes = new ArrayList<>();
+		pos++;
+
+		while (pos < tokens.size() && !isSymbol(')')) {
+			skipModifiers();
+			final String typeName = readTypeName();
+			int dimensions = skipDimensions();
+			final boolean receiver = isIdentifier("this");
+
+			if (pos < tokens.size() && tokens.get(pos).isIdentifier()) {
+				pos++;
+			}
+
+			// C style array parameters put some of the dimensions after the name
+			dimensions += skipDimensions();
+
+			if (typeName != null && !receiver) {
+				parameterTypes.add(variables.getOrDefault(typeName, typeName) + "[]".repeat(dimensions));
+			}
+
+			while (pos < tokens.size() && !isSymbol(',') && !isSymbol(')')) {
+				if (isSymbol('(') || isSymbol('[') || isSymbol('{')) {
+					skipBalanced();
+				} else {
+					pos++;
+				}
+			}
+
+			if (isSymbol(',')) {
+				pos++;
+			}
+		}
+
+		pos++;
+		return parameterTypes;
+	}
+
+	/**
+	 * Skip a possibly qualified and parameterized type name, such as {@code Map.Entry<K, V>}.
+	 *
+	 * @return The last part of the name without its type arguments, or null if there is no type name here
+	 */
+	@Nullable
+	private String readTypeName() {
+		String name = null;
+
+		while (pos < tokens.size()) {
+			while (isSymbol('@')) {
+				skipAnnotation();
+			}
+
+			if (pos >= tokens.size() || !tokens.get(pos).isIdentifier()) {
+				break;
+			}
+
+			name = tokens.get(pos++).text();
+
+			if (isSymbol('<')) {
+				skipAngleBrackets();
+			}
+
+			if (isSymbol('.') && pos + 1 < tokens.size() && (tokens.get(pos + 1).isIdentifier() || tokens.get(pos + 1).is('@'))) {
+				pos++;
+			} else {
+				break;
+			}
+		}
+
+		return name;
+	}
+
+	/**
+	 * Skip the array brackets and varargs ellipsis after a type or name.
+	 *
+	 * @return The number of dimensions skipped
+	 */
+	private int skipDimensions() {
+		int dimensions = 0;
+
+		while (pos < tokens.size()) {
+			if (isSymbol('@')) {
+				skipAnnotation();
+			} else if (isSymbol('[') && pos + 1 < tokens.size() && tokens.get(pos + 1).is(']')) {
+				pos += 2;
+				dimensions++;
+			} else if (isSymbol('.') && pos + 2 < tokens.size() && tokens.get(pos + 1).is('.') && tokens.get(pos + 2).is('.')) {
+				pos += 3;
+				dimensions++;
+			} else {
+				return dimensions;
+			}
+		}
+
+		return dimensions;
+	}
+
+	/**
+	 * Skip the value of a field, up to the comma or semicolon after it which is left to the caller.
+	 */
+	private void skipInitializer() {
+		while (pos < tokens.size()) {
+			final Token token = tokens.get(pos);
+
+			if (token.is(',') || token.is(';') || token.is('}')) {
+				return;
+			}
+
+			if (token.is('(') || token.is('[') || token.is('{')) {
+				skipBalanced();
+			} else if (isIdentifier("new")) {
+				// The commas in type arguments such as new HashMap<String, Integer>() do not end the value
+				pos++;
+				readTypeName();
+			} else if (token.is('.') && pos + 1 < tokens.size() && tokens.get(pos + 1).is('<')) {
+				// Explicit type arguments of a method call
+				pos++;
+				skipAngleBrackets();
+			} else {
+				pos++;
+			}
+		}
+	}
+
+	private void skipAngleBrackets() {
+		int depth = 0;
+
+		do {
+			final Token token = tokens.get(pos++);
+
+			if (token.is('<')) {
+				depth++;
+			} else if (token.is('>')) {
+				depth--;
+			}
+		} while (depth > 0 && pos < tokens.size());
+	}
+
+	/**
+	 * Skip from an opening bracket to just past its closing bracket, all kinds of bracket are balanced together.
+	 */
+	private void skipBalanced() {
+		int depth = 0;
+
+		do {
+			final Token token = tokens.get(pos++);
+
+			if (token.is('(') || token.is('[') || token.is('{')) {
+				depth++;
+			} else if (token.is(')') || token.is(']') || token.is('}')) {
+				depth--;
+			}
+		} while (depth > 0 && pos < tokens.size());
+	}
+
+	/**
+	 * Skip past the given symbol, along with any brackets on the way such as an array initializer or lambda body.
+	 */
+	private void skipPast(char symbol) {
+		while (pos < tokens.size()) {
+			final Token token = tokens.get(pos);
+
+			if (token.is(symbol)) {
+				pos++;
+				return;
+			}
+
+			if (token.is('(') || token.is('[') || token.is('{')) {
+				skipBalanced();
+			} else if (token.is('}')) {
+				// Malformed, leave the closing brace to the owner
+				return;
+			} else {
+				pos++;
+			}
+		}
+	}
+
+	private boolean isSymbol(char symbol) {
+		return pos < tokens.size() && tokens.get(pos).is(symbol);
+	}
+
+	private boolean isIdentifier(String text) {
+		return pos < tokens.size() && tokens.get(pos).isIdentifier() && tokens.get(pos).text().equals(text);
+	}
+
+	private static String simpleName(Type type) {
+		return type.name().substring(Math.max(type.name().lastIndexOf('/'), type.name().lastIndexOf('$')) + 1);
+	}
+
+	/**
+	 * Split the sources into identifiers, literals and single character symbols, dropping whitespace and comments.
+	 */
+	private static List<Token> tokenize(String source) {
+		final List<Token> tokens = new ArrayList<>(source.length() / 4);
+		final int length = source.length();
+		int i = 0;
+
+		while (i < length) {
+			final char c = source.charAt(i);
+
+			if (Character.isWhitespace(c)) {
+				i++;
+			} else if (source.startsWith("//", i)) {
+				final int end = source.indexOf('\n', i);
+				i = end < 0 ? length : end + 1;
+			} else if (source.startsWith("/*", i)) {
+				final int end = source.indexOf("*/", i + 2);
+				i = end < 0 ? length : end + 2;
+			} else if (source.startsWith("\"\"\"", i)) {
+				final int start = i;
+				i += 3;
+
+				while (i < length && !source.startsWith("\"\"\"", i)) {
+					i += source.charAt(i) == '\\' ? 2 : 1;
+				}
+
+				i += 3;
+				tokens.add(new Token(TokenKind.LITERAL, "\"\"\"", start));
+			} else if (c == '"' || c == '\'') {
+				final int start = i++;
+
+				while (i < length && source.charAt(i) != c) {
+					i += source.charAt(i) == '\\' ? 2 : 1;
+				}
+
+				i++;
+				tokens.add(new Token(TokenKind.LITERAL, String.valueOf(c), start));
+			} else if (Character.isJavaIdentifierStart(c)) {
+				final int start = i++;
+
+				while (i < length && Character.isJavaIdentifierPart(source.charAt(i))) {
+					i++;
+				}
+
+				tokens.add(new Token(TokenKind.IDENTIFIER, source.substring(start, i), start));
+			} else if (Character.isDigit(c)) {
+				final int start = i++;
+
+				while (i < length && (Character.isLetterOrDigit(source.charAt(i)) || source.charAt(i) == '_' || source.charAt(i) == '.')) {
+					i++;
+				}
+
+				tokens.add(new Token(TokenKind.LITERAL, source.substring(start, i), start));
+			} else {
+				tokens.add(new Token(TokenKind.SYMBOL, String.valueOf(c), i++));
+			}
+		}
+
+		return tokens;
+	}
+
+	private enum TokenKind {
+		IDENTIFIER,
+		LITERAL,
+		SYMBOL
+	}
+
+	private record Token(TokenKind kind, String text, int offset) {
+		boolean isIdentifier() {
+			return kind == TokenKind.IDENTIFIER;
+		}
+
+		boolean is(char symbol) {
+			return kind == TokenKind.SYMBOL && text.charAt(0) == symbol;
+		}
+	}
+}
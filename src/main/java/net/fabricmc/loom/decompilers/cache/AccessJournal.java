@@ -0,0 +1,277 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2024 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.decompilers.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append only log of cache entry writes and reads, used to make eviction decisions without walking the cache.
+ *
+ * <p>Records are buffered in memory and appended to the journal file in batches, so a cache hit does not cost a syscall.
+ * Replaying the journal gives the size and last access time of every live entry, {@link #compact(Map)} rewrites the
+ * journal with a single record per entry.
+ *
+ * <p>The journal may be shared by multiple processes. Appending takes a shared lock, while reading and compacting take
+ * it exclusively, so compacting can apply the records appended since the journal was read rather than losing them.
+ */
+public final class AccessJournal implements AutoCloseable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(AccessJournal.class);
+
+	private static final int MAGIC = 0x4C4A524E; // LJRN
+	private static final int VERSION = 1;
+	private static final int HEADER_LENGTH = 2 * Integer.BYTES;
+	private static final int FLUSH_THRESHOLD = 64 * 1024;
+
+	private static final byte PUT = 'P';
+	private static final byte ACCESS = 'A';
+	private static final String LOCK_KEY = "journal";
+
+	private final Path path;
+	private final StripedFileLock lock;
+	private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+	private final DataOutputStream bufferOut = new DataOutputStream(buffer);
+	private long lastReadRecords = 0;
+	// The part of the journal already applied by the last read or compaction, or 0 to replay all of it
+	private long lastReadLength = 0;
+
+	/**
+	 * @param lockDirectory A directory for the lock file of the journal, which is not used for anything else
+	 */
+	public AccessJournal(Path path, Path lockDirectory) {
+		this.path = path;
+		this.lock = new StripedFileLock(lockDirectory, 1);
+	}
+
+	public boolean exists() {
+		return Files.exists(path);
+	}
+
+	/**
+	 * Record that an entry has been written with the given size.
+	 */
+	public synchronized void recordPut(String key, long size) {
+		append(PUT, key, size);
+	}
+
+	/**
+	 * Record that an entry has been read.
+	 */
+	public synchronized void recordAccess(String key) {
+		append(ACCESS, key, -1);
+	}
+
+	private void append(byte type, String key, long size) {
+		try {
+			bufferOut.writeByte(type);
+			bufferOut.writeUTF(key);
+			bufferOut.writeLong(System.currentTimeMillis());
+			bufferOut.writeLong(size);
+
+			if (buffer.size() >= FLUSH_THRESHOLD) {
+				flush();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to write to cache journal", e);
+		}
+	}
+
+	public synchronized void flush() throws IOException {
+		if (buffer.size() == 0) {
+			return;
+		}
+
+		if (Files.notExists(path)) {
+			// Created while holding the lock exclusively, so no other process can append before the header
+			try (StripedFileLock.Held held = lock.lock(LOCK_KEY)) {
+				if (Files.notExists(path)) {
+					try (var out = new DataOutputStream(Files.newOutputStream(path, StandardOpenOption.CREATE_NEW))) {
+						writeHeader(out);
+					}
+				}
+			}
+		}
+
+		try (StripedFileLock.Held held = lock.lockShared(LOCK_KEY);
+				OutputStream out = Files.newOutputStream(path, StandardOpenOption.APPEND)) {
+			buffer.writeTo(out);
+		}
+
+		buffer.reset();
+	}
+
+	/**
+	 * Replay the journal.
+	 *
+	 * @return A map of key to the latest known state of each entry
+	 */
+	public synchronized Map<String, Entry> read() throws IOException {
+		flush();
+
+		final Map<String, Entry> entries = new HashMap<>();
+		lastReadRecords = 0;
+		lastReadLength = 0;
+
+		if (Files.notExists(path)) {
+			return entries;
+		}
+
+		try (StripedFileLock.Held held = lock.lock(LOCK_KEY)) {
+			lastReadLength = replay(entries, 0);
+		}
+
+		return entries;
+	}
+
+	/**
+	 * Apply the records after the given position to the entries.
+	 *
+	 * @param position The position of the first record to apply, or 0 for the first record of the journal
+	 * @return The position after the last complete record
+	 */
+	private long replay(Map<String, Entry> entries, long position) throws IOException {
+		final byte[] bytes = Files.readAllBytes(path);
+		final var in = new DataInputStream(new ByteArrayInputStream(bytes));
+
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				LOGGER.warn("Ignoring cache journal with unknown format: {}", path);
+				return bytes.length;
+			}
+
+			in.skipNBytes(Math.max(0, position - HEADER_LENGTH));
+		} catch (EOFException e) {
+			LOGGER.warn("Ignoring truncated cache journal: {}", path);
+			return bytes.length;
+		}
+
+		long end = bytes.length - in.available();
+
+		try {
+			while (true) {
+				final int type = in.read();
+
+				if (type < 0) {
+					break;
+				}
+
+				final String key = in.readUTF();
+				final long time = in.readLong();
+				final long size = in.readLong();
+				end = bytes.length - in.available();
+				lastReadRecords++;
+
+				if (type == PUT) {
+					entries.put(key, new Entry(key, size, time));
+				} else if (type == ACCESS) {
+					entries.computeIfPresent(key, (k, entry) -> new Entry(k, entry.size(), Math.max(entry.lastAccess(), time)));
+				} else {
+					throw new IOException("Unknown cache journal record type: " + type);
+				}
+			}
+		} catch (EOFException e) {
+			// A partially written record at the end of the journal, everything before it is still valid.
+			LOGGER.warn("Cache journal ended with an incomplete record: {}", path);
+		}
+
+		return end;
+	}
+
+	/**
+	 * @return true when the last {@link #read()} saw enough superseded records that the journal is worth compacting
+	 */
+	public synchronized boolean shouldCompact(int liveEntries) {
+		return lastReadRecords > liveEntries * 2L;
+	}
+
+	/**
+	 * Atomically replace the journal with a single record for each of the given entries, after applying the records
+	 * appended by other processes since the last {@link #read()}.
+	 */
+	public synchronized void compact(Map<String, Entry> entries) throws IOException {
+		flush();
+
+		final Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+
+		try (StripedFileLock.Held held = lock.lock(LOCK_KEY)) {
+			if (Files.exists(path)) {
+				replay(entries, lastReadLength);
+			}
+
+			try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+				writeHeader(out);
+
+				for (Entry entry : entries.values()) {
+					out.writeByte(PUT);
+					out.writeUTF(entry.key());
+					out.writeLong(entry.lastAccess());
+					out.writeLong(entry.size());
+				}
+			}
+
+			Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			lastReadLength = Files.size(path);
+		}
+	}
+
+	private static void writeHeader(DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			lock.close();
+		}
+	}
+
+	/**
+	 * @param key The cache key
+	 * @param size The size of the entry in bytes
+	 * @param lastAccess The last time the entry was read or written, in epoch millis
+	 */
+	public record Entry(String key, long size, long lastAccess) {
+	}
+}
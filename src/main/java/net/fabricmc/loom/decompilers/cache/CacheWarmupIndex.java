@@ -0,0 +1,124 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2024 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.decompilers.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records the hierarchy hash of every class processed with a given base hash.
+ *
+ * <p>When a new game version is decompiled for the first time, the index of a previously decompiled version is used to
+ * find the classes whose hierarchy hash has not changed. Their entries are copied to the new base hash rather than
+ * being decompiled again.
+ */
+public final class CacheWarmupIndex {
+	private static final Logger LOGGER = LoggerFactory.getLogger(CacheWarmupIndex.class);
+
+	private static final int MAGIC = 0x4C574958; // LWIX
+	private static final int VERSION = 1;
+
+	private final Path root;
+
+	public CacheWarmupIndex(Path root) {
+		this.root = root;
+	}
+
+	/**
+	 * @return A map of class file name to hierarchy hash, empty when there is no index for the base hash
+	 */
+	public Map<String, String> read(String baseHash) throws IOException {
+		final Path path = resolve(baseHash);
+
+		if (Files.notExists(path)) {
+			return Collections.emptyMap();
+		}
+
+		try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				LOGGER.warn("Ignoring decompile cache warmup index with unknown format: {}", path);
+				return Collections.emptyMap();
+			}
+
+			final int count = in.readInt();
+			final Map<String, String> hashes = new HashMap<>(count);
+
+			for (int i = 0; i < count; i++) {
+				hashes.put(in.readUTF(), in.readUTF());
+			}
+
+			return Collections.unmodifiableMap(hashes);
+		} catch (EOFException e) {
+			LOGGER.warn("Ignoring truncated decompile cache warmup index: {}", path);
+			return Collections.emptyMap();
+		}
+	}
+
+	/**
+	 * Atomically replace the index for the base hash.
+	 *
+	 * @param hierarchyHashes A map of class file name to hierarchy hash
+	 */
+	public void write(String baseHash, Map<String, String> hierarchyHashes) throws IOException {
+		final Path path = resolve(baseHash);
+		Files.createDirectories(path.getParent());
+
+		final Path tempPath = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+
+		try {
+			try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(hierarchyHashes.size());
+
+				for (Map.Entry<String, String> entry : hierarchyHashes.entrySet()) {
+					out.writeUTF(entry.getKey());
+					out.writeUTF(entry.getValue());
+				}
+			}
+
+			Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tempPath);
+		}
+	}
+
+	private Path resolve(String baseHash) {
+		return root.resolve(baseHash + ".idx");
+	}
+}
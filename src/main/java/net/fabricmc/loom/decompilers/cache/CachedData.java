@@ -24,39 +24,42 @@
 
 package net.fabricmc.loom.decompilers.cache;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.StringWriter;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.HexFormat;
 import java.util.Objects;
 
 import org.jetbrains.annotations.Nullable;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import net.fabricmc.loom.decompilers.ClassLineNumbers;
 
 // Serialised data for a class entry in the cache
 // Uses the RIFF format, allows for appending the line numbers to the end of the file
+// The line numbers are stored in a binary LNMB chunk, older entries may contain a text LNUM chunk instead
 // Stores the source code and line numbers for the class
+// The sources are either stored as plain UTF-8 in a SRC chunk, compressed in a SRCZ chunk,
+// or by content digest in a SREF chunk, referencing a blob shared with every other entry with identical sources
 public record CachedData(String className, String sources, @Nullable ClassLineNumbers.Entry lineNumbers) {
-	public static final CachedFileStore.EntrySerializer<CachedData> SERIALIZER = new EntrySerializer();
-
-	private static final String HEADER_ID = "LOOM";
-	private static final String NAME_ID = "NAME";
-	private static final String SOURCES_ID = "SRC ";
-	private static final String LINE_NUMBERS_ID = "LNUM";
-
-	private static final Logger LOGGER = LoggerFactory.getLogger(CachedData.class);
+	public static final CachedFileStore.EntrySerializer<CachedData> SERIALIZER = new EntrySerializer(SourceCompression.DEFAULT, null);
+
+	static final String HEADER_ID = "LOOM";
+	static final String NAME_ID = "NAME";
+	static final String SOURCES_ID = "SRC ";
+	// [u8 format version][u8 codec id][i32 uncompressed length][compressed data]
+	static final String COMPRESSED_SOURCES_ID = "SRCZ";
+	static final int COMPRESSED_SOURCES_VERSION = 1;
+	// [u8 format version][32 byte sha256 digest], the sources are stored in a SourceBlobStore
+	static final String SOURCES_REF_ID = "SREF";
+	static final int SOURCES_REF_VERSION = 1;
+	// Tab separated text as written by ClassLineNumbers.Entry#write, only read for compatibility with older entries
+	static final String LINE_NUMBERS_ID = "LNUM";
+	// See ClassLineNumbers.Entry#writeBinary
+	static final String LINE_NUMBERS_BINARY_ID = "LNMB";
 
 	public CachedData {
 		Objects.requireNonNull(className, "className");
@@ -69,10 +72,37 @@ public record CachedData(String className, String sources, @Nullable ClassLineNu
 		}
 	}
 
+	public static CachedFileStore.EntrySerializer<CachedData> serializer(SourceCompression compression) {
+		return new EntrySerializer(compression, null);
+	}
+
+	/**
+	 * A serializer that stores the sources in the given blob store, entries only hold a reference to their blob. The
+	 * blobs are compressed as configured when the store was opened, see {@link SourceBlobStore#open}.
+	 */
+	public static CachedFileStore.EntrySerializer<CachedData> serializer(SourceBlobStore sourceBlobs) {
+		return new EntrySerializer(SourceCompression.NONE, Objects.requireNonNull(sourceBlobs));
+	}
+
 	public void write(FileChannel fileChannel) {
+		write(fileChannel, SourceCompression.DEFAULT);
+	}
+
+	public void write(FileChannel fileChannel, SourceCompression compression) {
+		write(fileChannel, compression, null);
+	}
+
+	void write(FileChannel fileChannel, SourceCompression compression, @Nullable SourceBlobStore sourceBlobs) {
 		try (var c = new RiffChunk(HEADER_ID, fileChannel)) {
 			writeClassname(fileChannel);
-			writeSource(fileChannel);
+
+			if (sourceBlobs != null) {
+				writeSourceReference(fileChannel, sourceBlobs);
+			} else if (compression.codec() == SourceCompression.Codec.NONE) {
+				writeSource(fileChannel);
+			} else {
+				writeCompressedSource(fileChannel, compression);
+			}
 
 			if (lineNumbers != null) {
 				writeLineNumbers(fileChannel);
@@ -94,116 +124,100 @@ public record CachedData(String className, String sources, @Nullable ClassLineNu
 		}
 	}
 
-	private void writeLineNumbers(FileChannel fileChannel) throws IOException {
-		Objects.requireNonNull(lineNumbers);
-
-		try (var c = new RiffChunk(LINE_NUMBERS_ID, fileChannel);
-				StringWriter stringWriter = new StringWriter()) {
-			lineNumbers.write(stringWriter);
-			fileChannel.write(ByteBuffer.wrap(stringWriter.toString().getBytes(StandardCharsets.UTF_8)));
+	private void writeCompressedSource(FileChannel fileChannel, SourceCompression compression) throws IOException {
+		final byte[] bytes = sources.getBytes(StandardCharsets.UTF_8);
+		final byte[] compressed = compression.codec().compress(bytes, compression.level());
+
+		try (var c = new RiffChunk(COMPRESSED_SOURCES_ID, fileChannel)) {
+			fileChannel.write(ByteBuffer.allocate(2 + Integer.BYTES)
+					.put((byte) COMPRESSED_SOURCES_VERSION)
+					.put((byte) compression.codec().id())
+					.putInt(bytes.length)
+					.flip());
+			fileChannel.write(ByteBuffer.wrap(compressed));
 		}
 	}
 
-	public static CachedData read(InputStream inputStream) throws IOException {
-		// Read and validate the RIFF header
-		final String header = readHeader(inputStream);
+	private void writeSourceReference(FileChannel fileChannel, SourceBlobStore sourceBlobs) throws IOException {
+		final String digest = sourceBlobs.put(sources.getBytes(StandardCharsets.UTF_8));
 
-		if (!header.equals(HEADER_ID)) {
-			throw new IOException("Invalid RIFF header: " + header + ", expected " + HEADER_ID);
+		try (var c = new RiffChunk(SOURCES_REF_ID, fileChannel)) {
+			fileChannel.write(ByteBuffer.allocate(1 + SourceBlobStore.DIGEST_LENGTH)
+					.put((byte) SOURCES_REF_VERSION)
+					.put(HexFormat.of().parseHex(digest))
+					.flip());
 		}
+	}
 
-		// Read the data length
-		int length = readInt(inputStream);
-
-		String className = null;
-		String sources = null;
-		ClassLineNumbers.Entry lineNumbers = null;
-
-		while (inputStream.available() > 0) {
-			String chunkHeader = readHeader(inputStream);
-			int chunkLength = readInt(inputStream);
-			byte[] chunkData = readBytes(inputStream, chunkLength);
+	private void writeLineNumbers(FileChannel fileChannel) throws IOException {
+		Objects.requireNonNull(lineNumbers);
 
-			switch (chunkHeader) {
-			case NAME_ID -> {
-				if (className != null) {
-					throw new IOException("Duplicate name chunk");
-				}
+		try (var c = new RiffChunk(LINE_NUMBERS_BINARY_ID, fileChannel)) {
+			fileChannel.write(lineNumbers.writeBinary());
+		}
+	}
 
-				className = new String(chunkData, StandardCharsets.UTF_8);
-			}
-			case SOURCES_ID -> {
-				if (sources != null) {
-					throw new IOException("Duplicate sources chunk");
-				}
+	public static CachedData read(InputStream inputStream) throws IOException {
+		return CachedDataView.parse(ByteBuffer.wrap(inputStream.readAllBytes())).toCachedData();
+	}
 
-				sources = new String(chunkData, StandardCharsets.UTF_8);
-			}
-			case LINE_NUMBERS_ID -> {
-				if (lineNumbers != null) {
-					throw new IOException("Duplicate line numbers chunk");
-				}
+	static class EntrySerializer implements CachedFileStore.EntrySerializer<CachedData> {
+		private final SourceCompression compression;
+		private final @Nullable SourceBlobStore sourceBlobs;
 
-				try (var br = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(chunkData), StandardCharsets.UTF_8))) {
-					ClassLineNumbers classLineNumbers = ClassLineNumbers.readMappings(br);
+		EntrySerializer(SourceCompression compression, @Nullable SourceBlobStore sourceBlobs) {
+			this.compression = compression;
+			this.sourceBlobs = sourceBlobs;
+		}
 
-					if (classLineNumbers.lineMap().size() != 1) {
-						throw new IOException("Expected exactly one class line numbers entry got " + classLineNumbers.lineMap().size() + " entries");
-					}
+		@Override
+		public CachedData read(Path path) throws IOException {
+			return read(CachedFileStoreImpl.readBuffer(path));
+		}
 
-					lineNumbers = classLineNumbers.lineMap().values().iterator().next();
-				}
-			}
-			default -> {
-				// Skip unknown chunk
-				LOGGER.warn("Skipping unknown chunk: {} of size {}", chunkHeader, chunkLength);
-				inputStream.skip(chunkLength);
-			}
+		@Override
+		public void write(CachedData entry, Path path) throws IOException {
+			try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+				entry.write(fileChannel, compression, sourceBlobs);
 			}
 		}
 
-		if (sources == null) {
-			throw new IOException("Missing sources");
+		@Override
+		public CachedData read(ByteBuffer buffer) throws IOException {
+			return CachedDataView.parse(buffer, sourceBlobs).toCachedData();
 		}
 
-		return new CachedData(className, sources, lineNumbers);
-	}
-
-	private static String readHeader(InputStream inputStream) throws IOException {
-		byte[] header = readBytes(inputStream, 4);
-		return new String(header, StandardCharsets.US_ASCII);
-	}
-
-	private static int readInt(InputStream inputStream) throws IOException {
-		byte[] bytes = readBytes(inputStream, 4);
-		return ByteBuffer.wrap(bytes).getInt();
-	}
-
-	private static byte[] readBytes(InputStream inputStream, int length) throws IOException {
-		byte[] bytes = new byte[length];
-
-		int read = inputStream.read(bytes);
-
-		if (read != length) {
-			throw new IOException("Failed to read bytes expected " + length + " bytes but got " + read + " bytes");
+		@Override
+		public void write(CachedData entry, FileChannel fileChannel) {
+			entry.write(fileChannel, compression, sourceBlobs);
 		}
 
-		return bytes;
-	}
+		@Override
+		public boolean needsRelease() {
+			return sourceBlobs != null;
+		}
 
-	static class EntrySerializer implements CachedFileStore.EntrySerializer<CachedData> {
 		@Override
-		public CachedData read(Path path) throws IOException {
-			try (var inputStream = new BufferedInputStream(Files.newInputStream(path))) {
-				return CachedData.read(inputStream);
+		public void release(ByteBuffer buffer) throws IOException {
+			if (sourceBlobs == null) {
+				return;
+			}
+
+			final String digest = CachedDataView.parse(buffer, sourceBlobs).sourcesDigest();
+
+			if (digest != null) {
+				sourceBlobs.release(digest);
 			}
 		}
 
 		@Override
-		public void write(CachedData entry, Path path) throws IOException {
-			try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
-				entry.write(fileChannel);
+		public long externalSize(ByteBuffer buffer) throws IOException {
+			if (sourceBlobs == null) {
+				return 0;
 			}
+
+			final String digest = CachedDataView.parse(buffer, sourceBlobs).sourcesDigest();
+			return digest != null ? sourceBlobs.claimWrittenSize(digest) : 0;
 		}
 	}
 }
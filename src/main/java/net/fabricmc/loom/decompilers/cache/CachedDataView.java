@@ -0,0 +1,263 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2024 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.decompilers.cache;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.HexFormat;
+
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.fabricmc.loom.decompilers.ClassLineNumbers;
+
+/**
+ * A lazily decoded view over a serialised {@link CachedData} entry.
+ *
+ * <p>Parsing only locates the chunks within the buffer, which is typically memory mapped. The sources can be read as raw
+ * UTF-8 bytes without going through a {@link String}, and the line numbers are only decoded when requested. Sources
+ * stored by reference are resolved from the {@link SourceBlobStore} when they are read.
+ */
+public final class CachedDataView {
+	private static final Logger LOGGER = LoggerFactory.getLogger(CachedDataView.class);
+
+	private final ByteBuffer name;
+	private final ByteBuffer sources;
+	private final String sourcesId;
+	private final @Nullable ByteBuffer lineNumbersChunk;
+	private final boolean binaryLineNumbers;
+	private final @Nullable SourceBlobStore sourceBlobs;
+
+	private ClassLineNumbers.Entry lineNumbers;
+	private boolean lineNumbersDecoded = false;
+
+	private CachedDataView(ByteBuffer name, ByteBuffer sources, String sourcesId, @Nullable ByteBuffer lineNumbersChunk, boolean binaryLineNumbers, @Nullable SourceBlobStore sourceBlobs) {
+		this.name = name;
+		this.sources = sources;
+		this.sourcesId = sourcesId;
+		this.lineNumbersChunk = lineNumbersChunk;
+		this.binaryLineNumbers = binaryLineNumbers;
+		this.sourceBlobs = sourceBlobs;
+	}
+
+	public static CachedDataView parse(ByteBuffer buffer) throws IOException {
+		return parse(buffer, null);
+	}
+
+	/**
+	 * Locate the chunks of the entry, the buffer must not be modified while the view is in use.
+	 *
+	 * @param sourceBlobs The store used to resolve sources stored by reference, or null if the entry cannot contain any
+	 */
+	public static CachedDataView parse(ByteBuffer buffer, @Nullable SourceBlobStore sourceBlobs) throws IOException {
+		buffer = buffer.slice().order(ByteOrder.BIG_ENDIAN);
+
+		if (buffer.remaining() < 8) {
+			throw new IOException("Cached data is too short to contain a RIFF header");
+		}
+
+		final String header = readId(buffer, 0);
+
+		if (!header.equals(CachedData.HEADER_ID)) {
+			throw new IOException("Invalid RIFF header: " + header + ", expected " + CachedData.HEADER_ID);
+		}
+
+		final int length = buffer.getInt(4);
+		final int end = 8 + length;
+
+		if (length < 0 || end > buffer.limit()) {
+			throw new IOException("Truncated cached data, expected " + length + " bytes but got " + (buffer.limit() - 8));
+		}
+
+		ByteBuffer name = null;
+		ByteBuffer sources = null;
+		String sourcesId = null;
+		ByteBuffer lineNumbers = null;
+		boolean binaryLineNumbers = false;
+
+		int position = 8;
+
+		while (position < end) {
+			if (end - position < 8) {
+				throw new IOException("Truncated chunk header at " + position);
+			}
+
+			final String chunkHeader = readId(buffer, position);
+			final int chunkLength = buffer.getInt(position + 4);
+			final int chunkStart = position + 8;
+
+			if (chunkLength < 0 || chunkStart + chunkLength > end) {
+				throw new IOException("Chunk " + chunkHeader + " extends past the end of the data");
+			}
+
+			final ByteBuffer chunkData = buffer.slice(chunkStart, chunkLength).order(ByteOrder.BIG_ENDIAN);
+
+			switch (chunkHeader) {
+			case CachedData.NAME_ID -> {
+				if (name != null) {
+					throw new IOException("Duplicate name chunk");
+				}
+
+				name = chunkData;
+			}
+			case CachedData.SOURCES_ID, CachedData.COMPRESSED_SOURCES_ID, CachedData.SOURCES_REF_ID -> {
+				if (sources != null) {
+					throw new IOException("Duplicate sources chunk");
+				}
+
+				sources = chunkData;
+				sourcesId = chunkHeader;
+			}
+			case CachedData.LINE_NUMBERS_ID, CachedData.LINE_NUMBERS_BINARY_ID -> {
+				if (lineNumbers != null) {
+					throw new IOException("Duplicate line numbers chunk");
+				}
+
+				lineNumbers = chunkData;
+				binaryLineNumbers = chunkHeader.equals(CachedData.LINE_NUMBERS_BINARY_ID);
+			}
+			default -> LOGGER.warn("Skipping unknown chunk: {} of size {}", chunkHeader, chunkLength);
+			}
+
+			position = chunkStart + chunkLength;
+		}
+
+		if (name == null) {
+			throw new IOException("Missing name");
+		}
+
+		if (sources == null) {
+			throw new IOException("Missing sources");
+		}
+
+		return new CachedDataView(name, sources, sourcesId, lineNumbers, binaryLineNumbers, sourceBlobs);
+	}
+
+	public String className() {
+		return StandardCharsets.UTF_8.decode(name.duplicate()).toString();
+	}
+
+	/**
+	 * @return A read only buffer containing the UTF-8 encoded sources. For uncompressed entries this is a slice of the
+	 * underlying buffer, no copy is made.
+	 */
+	public ByteBuffer sources() throws IOException {
+		if (sourcesId.equals(CachedData.SOURCES_ID)) {
+			return sources.asReadOnlyBuffer();
+		}
+
+		if (sourcesId.equals(CachedData.SOURCES_REF_ID)) {
+			final String digest = sourcesDigest();
+
+			if (sourceBlobs == null) {
+				throw new IOException("Cached sources are stored by reference (" + digest + "), but no blob store is available");
+			}
+
+			return sourceBlobs.get(digest);
+		}
+
+		final ByteBuffer buffer = sources.duplicate().order(ByteOrder.BIG_ENDIAN);
+		final int version = buffer.get();
+
+		if (version != CachedData.COMPRESSED_SOURCES_VERSION) {
+			throw new IOException("Unsupported compressed sources version: " + version);
+		}
+
+		final SourceCompression.Codec codec = SourceCompression.Codec.byId(buffer.get());
+		final int uncompressedLength = buffer.getInt();
+		return ByteBuffer.wrap(codec.decompress(buffer, uncompressedLength)).asReadOnlyBuffer();
+	}
+
+	/**
+	 * @return The digest of the sources in the {@link SourceBlobStore}, or null when the sources are stored inline
+	 */
+	public @Nullable String sourcesDigest() throws IOException {
+		if (!sourcesId.equals(CachedData.SOURCES_REF_ID)) {
+			return null;
+		}
+
+		final ByteBuffer buffer = sources.duplicate();
+		final int version = buffer.get();
+
+		if (version != CachedData.SOURCES_REF_VERSION || buffer.remaining() != SourceBlobStore.DIGEST_LENGTH) {
+			throw new IOException("Unsupported sources reference version: " + version);
+		}
+
+		final byte[] digest = new byte[SourceBlobStore.DIGEST_LENGTH];
+		buffer.get(digest);
+		return HexFormat.of().formatHex(digest);
+	}
+
+	public String sourcesString() throws IOException {
+		return StandardCharsets.UTF_8.decode(sources()).toString();
+	}
+
+	public synchronized @Nullable ClassLineNumbers.Entry lineNumbers() throws IOException {
+		if (!lineNumbersDecoded) {
+			lineNumbers = decodeLineNumbers();
+			lineNumbersDecoded = true;
+		}
+
+		return lineNumbers;
+	}
+
+	private @Nullable ClassLineNumbers.Entry decodeLineNumbers() throws IOException {
+		if (lineNumbersChunk == null) {
+			return null;
+		}
+
+		if (binaryLineNumbers) {
+			return ClassLineNumbers.Entry.readBinary(lineNumbersChunk.duplicate());
+		}
+
+		// Written by an older version
+		final String text = StandardCharsets.UTF_8.decode(lineNumbersChunk.duplicate()).toString();
+
+		try (var br = new BufferedReader(new StringReader(text))) {
+			ClassLineNumbers classLineNumbers = ClassLineNumbers.readMappings(br);
+
+			if (classLineNumbers.lineMap().size() != 1) {
+				throw new IOException("Expected exactly one class line numbers entry got " + classLineNumbers.lineMap().size() + " entries");
+			}
+
+			return classLineNumbers.lineMap().values().iterator().next();
+		}
+	}
+
+	public CachedData toCachedData() throws IOException {
+		return new CachedData(className(), sourcesString(), lineNumbers());
+	}
+
+	private static String readId(ByteBuffer buffer, int position) {
+		final byte[] id = new byte[4];
+		buffer.get(position, id);
+		return new String(id, StandardCharsets.US_ASCII);
+	}
+}
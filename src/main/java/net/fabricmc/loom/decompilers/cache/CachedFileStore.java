@@ -25,18 +25,71 @@
 package net.fabricmc.loom.decompilers.cache;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 
 import org.jetbrains.annotations.Nullable;
 
-public interface CachedFileStore<T> {
+public interface CachedFileStore<T> extends AutoCloseable {
 	@Nullable T getEntry(String key) throws IOException;
 
+	/**
+	 * Get the serialised bytes of an entry without decoding it, the buffer is typically memory mapped.
+	 *
+	 * @return A buffer that can be passed to {@link EntrySerializer#read(ByteBuffer)}, or null if there is no entry
+	 */
+	@Nullable ByteBuffer getEntryBuffer(String key) throws IOException;
+
 	void putEntry(String key, T entry) throws IOException;
 
+	/**
+	 * Remove entries from the store that no longer satisfy the cache rules.
+	 */
+	void prune() throws IOException;
+
+	@Override
+	default void close() throws IOException {
+	}
+
 	interface EntrySerializer<T> {
 		T read(Path path) throws IOException;
 
 		void write(T entry, Path path) throws IOException;
+
+		/**
+		 * Read an entry from a buffer containing exactly the bytes previously written by {@link #write(Object, FileChannel)}.
+		 */
+		T read(ByteBuffer buffer) throws IOException;
+
+		/**
+		 * Write an entry at the current position of the file channel, leaving the position at the end of the entry.
+		 */
+		void write(T entry, FileChannel fileChannel) throws IOException;
+
+		/**
+		 * Called with the serialised bytes of an entry before it is removed or replaced, so that any data stored outside
+		 * of the entry can be released.
+		 */
+		default void release(ByteBuffer buffer) throws IOException {
+		}
+
+		/**
+		 * Whether {@link #release(ByteBuffer)} needs to be called at all, when false entries are removed or replaced
+		 * without reading them first.
+		 */
+		default boolean needsRelease() {
+			return false;
+		}
+
+		/**
+		 * Called with the serialised bytes of a newly written entry, to count the data it added outside of the entry
+		 * towards the size of the store.
+		 *
+		 * @return The number of bytes written outside of the entry
+		 */
+		default long externalSize(ByteBuffer buffer) throws IOException {
+			return 0;
+		}
 	}
 }
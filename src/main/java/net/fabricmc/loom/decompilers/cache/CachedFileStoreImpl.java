@@ -24,118 +24,365 @@
 
 package net.fabricmc.loom.decompilers.cache;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.nio.file.attribute.FileTime;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Collection;
 import java.util.Comparator;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.stream.Stream;
+import java.util.function.ToLongFunction;
 
 import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.fabricmc.loom.util.Platform;
+
+/**
+ * A {@link CachedFileStore} that stores each entry in its own file, which may be shared by multiple processes.
+ *
+ * <p>Entries are written to a temporary file and atomically renamed into place, so a reader never sees a partially
+ * written entry and never needs to take a lock. Writers of the same key, in this or any other process, are serialised
+ * by a striped advisory file lock, while writers of keys in other stripes proceed in parallel. Only one process prunes
+ * the cache at a time, which also deletes the temporary files of writers that crashed.
+ */
+public record CachedFileStoreImpl<T>(Path root, EntrySerializer<T> entrySerializer, CacheRules cacheRules, AccessJournal journal, StripedFileLock locks) implements CachedFileStore<T> {
+	private static final Logger LOGGER = LoggerFactory.getLogger(CachedFileStoreImpl.class);
+	static final String JOURNAL_FILE_NAME = "access.journal";
+	static final String LOCKS_DIRECTORY_NAME = "locks";
+	private static final String PRUNE_LOCK_FILE_NAME = "prune.lock";
+	private static final String TEMP_FILE_SUFFIX = ".tmp";
+	private static final String TEMP_FILE_SWEEP_FILE_NAME = "temp-sweep";
+	// A temporary file this old was left behind by a writer that crashed or was killed
+	private static final Duration STALE_TEMP_FILE_AGE = Duration.ofHours(1);
+	// Finding them means walking the whole cache, so it is only done this often
+	private static final Duration TEMP_FILE_SWEEP_INTERVAL = Duration.ofDays(1);
+	// Below this size a plain read is cheaper than setting up a mapping
+	private static final long MAP_THRESHOLD = 16 * 1024;
+	// A mapped file cannot be replaced or deleted on Windows, which would make writers fail while a reader holds a mapping
+	private static final boolean USE_MAPPING = !Platform.CURRENT.getOperatingSystem().isWindows();
 
-public record CachedFileStoreImpl<T>(Path root, EntrySerializer<T> entrySerializer, CacheRules cacheRules) implements CachedFileStore<T> {
 	public CachedFileStoreImpl {
 		Objects.requireNonNull(root, "root");
+		Objects.requireNonNull(journal, "journal");
+		Objects.requireNonNull(locks, "locks");
+	}
+
+	public CachedFileStoreImpl(Path root, EntrySerializer<T> entrySerializer, CacheRules cacheRules) {
+		this(root, entrySerializer, cacheRules, new AccessJournal(root.resolve(JOURNAL_FILE_NAME), root.resolve(LOCKS_DIRECTORY_NAME).resolve("journal")), new StripedFileLock(root.resolve(LOCKS_DIRECTORY_NAME), StripedFileLock.DEFAULT_STRIPES));
 	}
 
 	@Override
 	public @Nullable T getEntry(String key) throws IOException {
-		Path path = resolve(key);
+		final ByteBuffer buffer = getEntryBuffer(key);
+
+		if (buffer == null) {
+			return null;
+		}
+
+		return entrySerializer.read(buffer);
+	}
+
+	@Override
+	public @Nullable ByteBuffer getEntryBuffer(String key) throws IOException {
+		final ByteBuffer buffer;
+
+		try {
+			buffer = readBuffer(resolve(key));
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+
+		// Record the access in the journal, so recently used files stay in the cache
+		journal.recordAccess(key);
+		return buffer;
+	}
+
+	/**
+	 * Read an entry that is about to be removed or replaced, only when the serializer needs to release it.
+	 */
+	private @Nullable ByteBuffer readForRelease(Path path) throws IOException {
+		if (!entrySerializer.needsRelease()) {
+			return null;
+		}
 
-		if (Files.notExists(path)) {
+		try {
+			return readBuffer(path);
+		} catch (NoSuchFileException e) {
 			return null;
 		}
+	}
+
+	/**
+	 * Read the whole file into a buffer, larger files are memory mapped.
+	 *
+	 * <p>The mapping stays valid after the channel is closed, and after the file has been replaced or deleted.
+	 */
+	static ByteBuffer readBuffer(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			final long size = channel.size();
+
+			if (USE_MAPPING && size >= MAP_THRESHOLD) {
+				try {
+					return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+				} catch (UnsupportedOperationException e) {
+					// Not backed by a real file, e.g. a zip file system
+				}
+			}
+
+			final ByteBuffer buffer = ByteBuffer.allocate((int) size);
+
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) {
+					throw new EOFException("Unexpected end of file: " + path);
+				}
+			}
 
-		// Update last modified, so recently used files stay in the cache
-		Files.setLastModifiedTime(path, FileTime.from(Instant.now()));
-		return entrySerializer.read(path);
+			return buffer.flip();
+		}
 	}
 
 	@Override
 	public void putEntry(String key, T data) throws IOException {
 		Path path = resolve(key);
 		Files.createDirectories(path.getParent());
-		entrySerializer.write(data, path);
+
+		// Serialise outside the lock, only publishing the entry needs to be exclusive
+		final Path tempPath = Files.createTempFile(path.getParent(), path.getFileName().toString(), TEMP_FILE_SUFFIX);
+		final long size;
+
+		try {
+			entrySerializer.write(data, tempPath);
+			size = Files.size(tempPath) + entrySerializer.externalSize(readBuffer(tempPath));
+
+			try (StripedFileLock.Held held = locks.lock(key)) {
+				final ByteBuffer previous = readForRelease(path);
+				Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+				if (previous != null) {
+					entrySerializer.release(previous);
+				}
+			}
+		} finally {
+			Files.deleteIfExists(tempPath);
+		}
+
+		journal.recordPut(key, size);
 	}
 
 	private Path resolve(String key) {
 		return root.resolve(key);
 	}
 
+	@Override
 	public void prune() throws IOException {
-		// Sorted oldest -> newest
-		List<PathEntry> entries = new ArrayList<>();
+		Files.createDirectories(root.resolve(LOCKS_DIRECTORY_NAME));
+
+		try (FileChannel lockChannel = FileChannel.open(root.resolve(LOCKS_DIRECTORY_NAME).resolve(PRUNE_LOCK_FILE_NAME), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+				FileLock pruneLock = lockChannel.tryLock()) {
+			if (pruneLock == null) {
+				LOGGER.info("Decompile cache is being pruned by another process, skipping");
+				return;
+			}
 
-		// Iterate over all the files in the cache, and store them into the sorted list.
-		try (Stream<Path> walk = Files.walk(root)) {
-			Iterator<Path> iterator = walk.iterator();
+			pruneLocked();
+		} catch (OverlappingFileLockException e) {
+			LOGGER.info("Decompile cache is already being pruned, skipping");
+		}
+	}
+
+	private void pruneLocked() throws IOException {
+		if (!journal.exists()) {
+			// A cache written before the journal existed, seed it from the files on disk once.
+			seedJournal();
+		}
 
-			while (iterator.hasNext()) {
-				final Path entry = iterator.next();
+		final Map<String, AccessJournal.Entry> entries = journal.read();
+		final List<AccessJournal.Entry> toRemove = cacheRules.selectEvictions(entries.values(), AccessJournal.Entry::size, AccessJournal.Entry::lastAccess);
 
-				if (!Files.isRegularFile(entry)) {
-					continue;
-				}
+		for (AccessJournal.Entry entry : toRemove) {
+			final Path path = resolve(entry.key());
+			final ByteBuffer contents;
 
-				insertSorted(entries, new PathEntry(entry));
+			try (StripedFileLock.Held held = locks.lock(entry.key())) {
+				contents = readForRelease(path);
+				Files.deleteIfExists(path);
+			} catch (IOException e) {
+				// Most likely still open in another process on Windows, keep it in the journal so the delete is retried next time
+				LOGGER.debug("Failed to delete cache entry {}", entry.key(), e);
+				continue;
 			}
-		}
 
-		// Delete the oldest files to get under the max file limit
-		if (entries.size() > cacheRules.maxFiles) {
-			for (int i = 0; i < cacheRules.maxFiles; i++) {
-				PathEntry toRemove = entries.remove(0);
-				Files.delete(toRemove.path);
+			if (contents != null) {
+				entrySerializer.release(contents);
 			}
+
+			entries.remove(entry.key());
 		}
 
-		final Instant maxAge = Instant.now().minus(cacheRules().maxAge());
-		Iterator<PathEntry> iterator = entries.iterator();
+		if (!toRemove.isEmpty() || journal.shouldCompact(entries.size())) {
+			journal.compact(entries);
+		}
 
-		while (iterator.hasNext()) {
-			final PathEntry entry = iterator.next();
+		LOGGER.info("Pruned {} entries from the decompile cache, {} remaining", toRemove.size(), entries.size());
 
-			if (entry.lastModified().toInstant().isAfter(maxAge)) {
-				// File is not longer than the max age
-				// As this is a sorted list we don't need to keep checking
-				break;
-			}
+		final Path sweepFile = root.resolve(LOCKS_DIRECTORY_NAME).resolve(TEMP_FILE_SWEEP_FILE_NAME);
 
-			// Remove all files over the max age
-			iterator.remove();
-			Files.delete(entry.path);
+		if (Files.notExists(sweepFile) || Files.getLastModifiedTime(sweepFile).toInstant().isBefore(Instant.now().minus(TEMP_FILE_SWEEP_INTERVAL))) {
+			deleteStaleTempFiles();
+			Files.write(sweepFile, new byte[0]);
 		}
 	}
 
-	private void insertSorted(List<PathEntry> list, PathEntry entry) {
-		int index = Collections.binarySearch(list, entry, Comparator.comparing(PathEntry::lastModified));
+	private void deleteStaleTempFiles() throws IOException {
+		final Path locksDirectory = root.resolve(LOCKS_DIRECTORY_NAME);
+		final long maxLastModified = Instant.now().minus(STALE_TEMP_FILE_AGE).toEpochMilli();
+		final int[] deleted = {0};
+
+		Files.walkFileTree(root, new SimpleFileVisitor<>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+				return dir.equals(locksDirectory) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				if (attrs.isRegularFile() && file.getFileName().toString().endsWith(TEMP_FILE_SUFFIX) && attrs.lastModifiedTime().toMillis() < maxLastModified) {
+					try {
+						Files.deleteIfExists(file);
+						deleted[0]++;
+					} catch (IOException e) {
+						LOGGER.debug("Failed to delete stale temporary file {}", file, e);
+					}
+				}
+
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+				if (exc instanceof NoSuchFileException) {
+					return FileVisitResult.CONTINUE;
+				}
+
+				throw exc;
+			}
+		});
+
+		if (deleted[0] > 0) {
+			LOGGER.info("Deleted {} stale temporary files from the decompile cache", deleted[0]);
+		}
+	}
 
-		if (index < 0) {
-			index = -index - 1;
+	private void seedJournal() throws IOException {
+		if (Files.notExists(root)) {
+			return;
 		}
 
-		list.add(index, entry);
+		final Map<String, AccessJournal.Entry> entries = new HashMap<>();
+
+		final Path locksDirectory = root.resolve(LOCKS_DIRECTORY_NAME);
+
+		Files.walkFileTree(root, new SimpleFileVisitor<>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+				return dir.equals(locksDirectory) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				final String fileName = file.getFileName().toString();
+
+				// Entries that are still being written are skipped
+				if (!attrs.isRegularFile() || fileName.startsWith(JOURNAL_FILE_NAME) || fileName.endsWith(TEMP_FILE_SUFFIX)) {
+					return FileVisitResult.CONTINUE;
+				}
+
+				final String key = root.relativize(file).toString().replace('\\', '/');
+				entries.put(key, new AccessJournal.Entry(key, attrs.size(), attrs.lastModifiedTime().toMillis()));
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+				if (exc instanceof NoSuchFileException) {
+					// Replaced or removed by another process while walking
+					return FileVisitResult.CONTINUE;
+				}
+
+				throw exc;
+			}
+		});
+
+		journal.compact(entries);
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			journal.close();
+		} finally {
+			locks.close();
+		}
 	}
 
 	/**
 	 * The rules for the cache.
 	 *
 	 * @param maxFiles The maximum number of files in the cache
+	 * @param maxBytes The maximum total size of the cache in bytes
 	 * @param maxAge  The maximum age of a file in the cache
 	 */
-	public record CacheRules(long maxFiles, Duration maxAge) {
-	}
+	public record CacheRules(long maxFiles, long maxBytes, Duration maxAge) {
+		/**
+		 * Select the least recently used entries that must be removed to satisfy these rules.
+		 *
+		 * @return The entries to remove, oldest first
+		 */
+		public <E> List<E> selectEvictions(Collection<E> entries, ToLongFunction<E> size, ToLongFunction<E> lastAccess) {
+			// Sorted oldest -> newest
+			final List<E> sorted = new ArrayList<>(entries);
+			sorted.sort(Comparator.comparingLong(lastAccess));
+
+			final long minLastAccess = Instant.now().minus(maxAge).toEpochMilli();
+			long totalFiles = sorted.size();
+			long totalBytes = 0;
+
+			for (E entry : sorted) {
+				totalBytes += size.applyAsLong(entry);
+			}
+
+			final List<E> evictions = new ArrayList<>();
+
+			for (E entry : sorted) {
+				if (totalFiles <= maxFiles && totalBytes <= maxBytes && lastAccess.applyAsLong(entry) >= minLastAccess) {
+					// As this is a sorted list every remaining entry is newer and within the limits
+					break;
+				}
+
+				evictions.add(entry);
+				totalFiles--;
+				totalBytes -= size.applyAsLong(entry);
+			}
 
-	record PathEntry(Path path, FileTime lastModified) {
-		PathEntry(Path path) throws IOException {
-			this(path, Files.getLastModifiedTime(path));
+			return evictions;
 		}
 	}
 }
@@ -24,14 +24,21 @@
 
 package net.fabricmc.loom.decompilers.cache;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Stream;
 
 import org.jetbrains.annotations.Nullable;
@@ -39,85 +46,163 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import net.fabricmc.loom.decompilers.ClassLineNumbers;
+import net.fabricmc.loom.decompilers.JavadocInjector;
 import net.fabricmc.loom.util.FileSystemUtil;
 
-public record CachedJarProcessor(CachedFileStore<CachedData> fileStore, String baseHash) {
+/**
+ * Each class is cached under the base hash, covering everything that applies to the whole jar such as the decompiler
+ * and its options, followed by a hash of the class itself. The class hash covers the bytes of the class and its inner
+ * classes after every jar processor has run, and those of its super types within the jar. Changing one class only
+ * invalidates that class and its subtypes. The sources are cached without javadoc, see {@link JavadocInjector}.
+ *
+ * @param parallelism The maximum number of concurrent cache lookups, entry reads and cache writes
+ * @param sourceBlobs The blob store used by the file store's serializer, or null when the sources are stored inline
+ */
+public record CachedJarProcessor(CachedFileStore<CachedData> fileStore, String baseHash, int parallelism, @Nullable SourceBlobStore sourceBlobs) {
 	private static final Logger LOGGER = LoggerFactory.getLogger(CachedJarProcessor.class);
+	public static final int DEFAULT_PARALLELISM = 16;
+
+	public CachedJarProcessor(CachedFileStore<CachedData> fileStore, String baseHash) {
+		this(fileStore, baseHash, DEFAULT_PARALLELISM);
+	}
+
+	public CachedJarProcessor(CachedFileStore<CachedData> fileStore, String baseHash, int parallelism) {
+		this(fileStore, baseHash, parallelism, null);
+	}
 
 	public WorkRequest prepareJob(Path inputJar) throws IOException {
-		boolean isIncomplete = false;
-		boolean hasSomeExisting = false;
+		return prepareJob(inputJar, null);
+	}
+
+	/**
+	 * @param warmup Where to record the class hashes of this job, and optionally a previous version to reuse entries from.
+	 * The hashes recorded by the previous job with the same base hash are used to report which classes changed.
+	 */
+	public WorkRequest prepareJob(Path inputJar, @Nullable Warmup warmup) throws IOException {
+		return prepareJob(inputJar, warmup, null);
+	}
+
+	/**
+	 * Prepare a job for only the given classes and the classes nested within them. The hashes still cover the super
+	 * hierarchy within the whole jar, so the entries are shared with full jobs. The rest of the jar is not part of the
+	 * job, when there is work to do the input jar should be given to the decompiler as a library.
+	 *
+	 * @param classNames The internal names of the classes, a nested class selects its top level class. Names that are
+	 * not in the jar are skipped.
+	 */
+	public WorkRequest prepareClassJob(Path inputJar, Collection<String> classNames) throws IOException {
+		return prepareJob(inputJar, null, classNames);
+	}
 
+	private WorkRequest prepareJob(Path inputJar, @Nullable Warmup warmup, @Nullable Collection<String> classNames) throws IOException {
 		Path incompleteJar = Files.createTempFile("loom-cache-incomplete", ".jar");
 		Path existingClassesJar = Files.createTempFile("loom-cache-existingClasses", ".jar");
-		Path existingSourcesJar = Files.createTempFile("loom-cache-existingSources", ".jar");
+		Path sourcesJar = Files.createTempFile("loom-cache-sources", ".jar");
 
 		// We must delete the empty files, so they can be created as a zip
 		Files.delete(incompleteJar);
 		Files.delete(existingClassesJar);
-		Files.delete(existingSourcesJar);
-
-		// Sources name -> hash
-		Map<String, String> outputNameMap = new HashMap<>();
-		Map<String, ClassLineNumbers.Entry> lineNumbersMap = new HashMap<>();
-
-		int hits = 0;
-		int misses = 0;
+		Files.delete(sourcesJar);
+
+		// The cache hits are streamed straight into the final sources jar, the decompiled sources are appended to it later
+		final var sourcesWriter = new SourcesJarWriter(sourcesJar);
+		final var results = new LookupResults();
+		final String previousBaseHash = warmup != null ? warmup.previousBaseHash() : null;
+		// Compare with the previous version when warming up, otherwise with the previous run of this version
+		final String compareBaseHash = previousBaseHash != null ? previousBaseHash : baseHash;
+		final Map<String, String> previousHashes = warmup != null ? warmup.index().read(compareBaseHash) : Collections.emptyMap();
+
+		if (previousBaseHash != null && previousHashes.isEmpty()) {
+			LOGGER.info("No decompile cache warmup index found for {}", previousBaseHash);
+		}
 
 		try (FileSystemUtil.Delegate inputFs = FileSystemUtil.getJarFileSystem(inputJar, false);
 				FileSystemUtil.Delegate incompleteFs = FileSystemUtil.getJarFileSystem(incompleteJar, true);
-				FileSystemUtil.Delegate existingSourcesFs = FileSystemUtil.getJarFileSystem(existingSourcesJar, true);
 				FileSystemUtil.Delegate existingClassesFs = FileSystemUtil.getJarFileSystem(existingClassesJar, true)) {
-			final List<ClassEntry> inputClasses = JarWalker.findClasses(inputFs);
-			final Map<String, String> rawEntryHashes = getEntryHashes(inputClasses, inputFs.getRoot());
-
-			for (ClassEntry entry : inputClasses) {
-				String outputFileName = entry.sourcesFileName();
-				String fullHash = baseHash + "/" + entry.hashSuperHierarchy(rawEntryHashes);
-
-				final CachedData entryData = fileStore.getEntry(fullHash);
+			final List<ClassEntry> inputClasses = JarWalker.findClasses(inputFs, parallelism);
+			final Map<String, String> rawEntryHashes = getEntryHashes(inputClasses);
+			final List<ClassEntry> classes = classNames != null ? selectClasses(inputClasses, classNames) : inputClasses;
+
+			// The entries are read and decoded in parallel, the jars are only written to from this thread in input order
+			OrderedParallelProcessor.process(classes, parallelism, entry -> lookup(entry, rawEntryHashes, previousBaseHash, previousHashes), lookup -> {
+				final ClassEntry entry = lookup.entry();
+				final String outputFileName = entry.sourcesFileName();
+				results.classHashes.put(entry.name(), lookup.classHash());
+
+				if (lookup.reused()) {
+					results.reused++;
+				} else if (!previousHashes.isEmpty()) {
+					final String previousHash = previousHashes.get(entry.name());
+
+					if (previousHash == null) {
+						results.added++;
+					} else if (!previousHash.equals(lookup.classHash())) {
+						results.changed++;
+					}
+				}
 
-				if (entryData == null) {
+				if (lookup.sources() == null) {
 					// Cached entry was not found, so copy the input to the incomplete jar to be processed
 					entry.copyTo(inputFs.getRoot(), incompleteFs.getRoot());
-					isIncomplete = true;
-					outputNameMap.put(outputFileName, fullHash);
+					results.outputNameMap.put(outputFileName, lookup.fullHash());
 
-					LOGGER.debug("Cached entry ({}) not found, going to process {}", fullHash, outputFileName);
-					misses++;
+					LOGGER.debug("Cached entry ({}) not found, going to process {}", lookup.fullHash(), outputFileName);
+					results.misses++;
 				} else {
-					final Path outputPath = existingSourcesFs.getPath(outputFileName);
-					createParentDirectories(outputPath);
-					Files.writeString(outputPath, entryData.sources());
+					// Copy the UTF-8 sources straight from the cache, without decoding them
+					sourcesWriter.write(outputFileName, lookup.sources());
 
 					entry.copyTo(inputFs.getRoot(), existingClassesFs.getRoot());
 
-					if (entryData.lineNumbers() != null) {
-						lineNumbersMap.put(entryData.className(), entryData.lineNumbers());
+					if (lookup.lineNumbers() != null) {
+						results.lineNumbersMap.put(lookup.className(), lookup.lineNumbers());
 					} else {
 						LOGGER.info("Cached entry ({}) does not have line numbers", outputFileName);
 					}
 
-					hasSomeExisting = true;
-
-					LOGGER.debug("Cached entry ({}) found: {}", fullHash, outputFileName);
-					hits++;
+					LOGGER.debug("Cached entry ({}) found: {}", lookup.fullHash(), outputFileName);
+					results.hits++;
 				}
+			});
+		} catch (IOException | RuntimeException e) {
+			// The jar file systems have been closed by now, leaving the jars written so far behind
+			try {
+				sourcesWriter.close();
+				Files.deleteIfExists(incompleteJar);
+				Files.deleteIfExists(existingClassesJar);
+			} catch (IOException suppressed) {
+				e.addSuppressed(suppressed);
 			}
+
+			throw e;
+		}
+
+		if (warmup != null) {
+			warmup.index().write(baseHash, results.classHashes);
+		}
+
+		if (previousBaseHash != null) {
+			LOGGER.info("Reused {} decompile cache entries from {}, {} classes changed and {} are new",
+					results.reused, previousBaseHash, results.changed, results.added);
+		} else if (!previousHashes.isEmpty()) {
+			LOGGER.info("{} classes changed and {} are new since the last decompile", results.changed, results.added);
 		}
 
 		// A jar file that will be created by the work action, containing the newly processed items.
 		Path outputJar = Files.createTempFile("loom-cache-output", ".jar");
 		Files.delete(outputJar);
 
-		final ClassLineNumbers lineNumbers = lineNumbersMap.isEmpty() ? null : new ClassLineNumbers(Collections.unmodifiableMap(lineNumbersMap));
-		final var stats = new CacheStats(hits, misses);
+		final Map<String, String> outputNameMap = results.outputNameMap;
+		final ClassLineNumbers lineNumbers = results.lineNumbersMap.isEmpty() ? null : new ClassLineNumbers(Collections.unmodifiableMap(results.lineNumbersMap));
+		final var stats = new CacheStats(results.hits, results.misses, results.reused, results.changed, results.added);
+		final boolean isIncomplete = results.misses > 0;
+		final boolean hasSomeExisting = results.hits > 0;
 
-		if (isIncomplete && !hasSomeExisting) {
+		if (isIncomplete && !hasSomeExisting && classNames == null) {
 			// The cache contained nothing of use, fully process the input jar
+			sourcesWriter.close();
 			Files.delete(incompleteJar);
 			Files.delete(existingClassesJar);
-			Files.delete(existingSourcesJar);
 
 			LOGGER.info("No cached entries found, going to process the whole jar");
 			return new FullWorkJob(inputJar, outputJar, outputNameMap)
@@ -125,33 +210,116 @@ public record CachedJarProcessor(CachedFileStore<CachedData> fileStore, String b
 		} else if (isIncomplete) {
 			// The cache did not contain everything so we have some work to do
 			LOGGER.info("Some cached entries found, using partial work job");
-			return new PartialWorkJob(incompleteJar, existingSourcesJar, existingClassesJar, outputJar, outputNameMap)
+			return new PartialWorkJob(incompleteJar, sourcesWriter, existingClassesJar, outputJar, outputNameMap)
 					.asRequest(stats, lineNumbers);
 		} else {
-			// The cached contained everything we need, so the existing jar is the output
+			// The cached contained everything we need, so the sources jar is the output
 			LOGGER.info("All cached entries found, using completed work job");
 			Files.delete(incompleteJar);
 			Files.delete(existingClassesJar);
-			return new CompletedWorkJob(existingSourcesJar)
+			return new CompletedWorkJob(sourcesWriter.finish())
 					.asRequest(stats, lineNumbers);
 		}
 	}
 
-	private static Map<String, String> getEntryHashes(List<ClassEntry> entries, Path root) throws IOException {
+	private static List<ClassEntry> selectClasses(List<ClassEntry> entries, Collection<String> classNames) {
+		final Set<String> fileNames = new HashSet<>();
+
+		for (String className : classNames) {
+			fileNames.add(className.replace('.', '/') + ".class");
+		}
+
+		final List<ClassEntry> selected = new ArrayList<>();
+
+		for (ClassEntry entry : entries) {
+			boolean matches = fileNames.remove(entry.name());
+
+			for (String innerClass : entry.innerClasses()) {
+				matches |= fileNames.remove(innerClass);
+			}
+
+			if (matches) {
+				selected.add(entry);
+			}
+		}
+
+		if (!fileNames.isEmpty()) {
+			LOGGER.info("Skipping classes not found in the jar: {}", fileNames);
+		}
+
+		return selected;
+	}
+
+	private static Map<String, String> getEntryHashes(List<ClassEntry> entries) {
 		final Map<String, String> rawEntryHashes = new HashMap<>();
 
 		for (ClassEntry entry : entries) {
-			String hash = entry.hash(root);
-			rawEntryHashes.put(entry.name(), hash);
+			rawEntryHashes.put(entry.name(), entry.hash());
 
 			for (String s : entry.innerClasses()) {
-				rawEntryHashes.put(s, hash);
+				rawEntryHashes.put(s, entry.hash());
 			}
 		}
 
 		return Collections.unmodifiableMap(rawEntryHashes);
 	}
 
+	/**
+	 * Look up and decode the cached entry for a class, called concurrently.
+	 */
+	private Lookup lookup(ClassEntry entry, Map<String, String> rawEntryHashes, @Nullable String previousBaseHash, Map<String, String> previousHashes) throws IOException {
+		final String classHash = entry.hashSuperHierarchy(rawEntryHashes);
+		final String fullHash = baseHash + "/" + classHash;
+		final ByteBuffer entryBuffer = fileStore.getEntryBuffer(fullHash);
+
+		if (entryBuffer == null) {
+			if (previousBaseHash != null && classHash.equals(previousHashes.get(entry.name()))) {
+				return reuse(entry, classHash, previousBaseHash);
+			}
+
+			return Lookup.miss(entry, classHash, fullHash);
+		}
+
+		final CachedDataView entryData = CachedDataView.parse(entryBuffer, sourceBlobs);
+		final ByteBuffer sources;
+
+		try {
+			sources = entryData.sources();
+		} catch (NoSuchFileException e) {
+			// The shared sources blob has gone, treat it as a miss so the entry is replaced
+			LOGGER.warn("Sources blob for cached entry ({}) is missing", fullHash);
+			return Lookup.miss(entry, classHash, fullHash);
+		}
+
+		return new Lookup(entry, classHash, fullHash, entryData.className(), sources, entryData.lineNumbers(), false);
+	}
+
+	/**
+	 * The class and its whole super hierarchy are unchanged since the previous version, copy its entry to the new key.
+	 */
+	private Lookup reuse(ClassEntry entry, String classHash, String previousBaseHash) throws IOException {
+		final String fullHash = baseHash + "/" + classHash;
+		final ByteBuffer previousBuffer = fileStore.getEntryBuffer(previousBaseHash + "/" + classHash);
+
+		if (previousBuffer == null) {
+			return Lookup.miss(entry, classHash, fullHash);
+		}
+
+		final CachedData cachedData;
+
+		try {
+			cachedData = CachedDataView.parse(previousBuffer, sourceBlobs).toCachedData();
+		} catch (NoSuchFileException e) {
+			return Lookup.miss(entry, classHash, fullHash);
+		}
+
+		fileStore.putEntry(fullHash, cachedData);
+
+		LOGGER.debug("Reusing cached entry ({}) from {}", fullHash, previousBaseHash);
+		final ByteBuffer sources = ByteBuffer.wrap(cachedData.sources().getBytes(StandardCharsets.UTF_8));
+		return new Lookup(entry, classHash, fullHash, cachedData.className(), sources, cachedData.lineNumbers(), true);
+	}
+
 	public void completeJob(Path output, WorkJob workJob, ClassLineNumbers lineNumbers) throws IOException {
 		if (workJob instanceof CompletedWorkJob completedWorkJob) {
 			// Fully complete, nothing new to cache
@@ -163,77 +331,45 @@ public record CachedJarProcessor(CachedFileStore<CachedData> fileStore, String b
 		if (workJob instanceof WorkToDoJob workToDoJob) {
 			// Sources name -> hash
 			Map<String, String> outputNameMap = workToDoJob.outputNameMap();
+			// When merging, every output entry is appended to the sources jar that already contains the cache hits
+			final SourcesJarWriter sourcesWriter = workJob instanceof PartialWorkJob partialWorkJob ? partialWorkJob.sources() : null;
 
 			try (FileSystemUtil.Delegate outputFs = FileSystemUtil.getJarFileSystem(workToDoJob.output(), false);
 					Stream<Path> walk = Files.walk(outputFs.getRoot())) {
-				Iterator<Path> iterator = walk.iterator();
-
-				while (iterator.hasNext()) {
-					final Path fsPath = iterator.next();
-
-					if (fsPath.startsWith("/META-INF/")) {
-						continue;
-					}
-
-					if (!Files.isRegularFile(fsPath)) {
-						continue;
-					}
+				final List<Path> outputFiles = walk.filter(Files::isRegularFile).toList();
 
-					final String hash = outputNameMap.get(fsPath.toString().substring(outputFs.getRoot().toString().length()));
+				// The cache writes are parallel, the sources jar is written to in order from this thread
+				OrderedParallelProcessor.process(outputFiles, parallelism, fsPath -> {
+					final byte[] sourceBytes = Files.readAllBytes(fsPath);
 
-					if (hash == null) {
-						throw new IllegalStateException("Unexpected output: " + fsPath);
+					if (!fsPath.startsWith("/META-INF/")) {
+						saveEntry(fsPath, sourceBytes, outputNameMap, lineNumbers);
 					}
 
-					// Trim the leading / and the .java extension
-					final String className = fsPath.toString().substring(1, fsPath.toString().length() - ".java".length());
-					final String sources = Files.readString(fsPath);
-
-					ClassLineNumbers.Entry lineMapEntry = null;
+					return sourceBytes;
+				}, new OrderedParallelProcessor.ResultWriter<>() {
+					int index = 0;
 
-					if (lineNumbers != null) {
-						lineMapEntry = lineNumbers.lineMap().get(className);
-					}
+					@Override
+					public void write(byte[] sourceBytes) throws IOException {
+						final Path fsPath = outputFiles.get(index++);
 
-					if (lineMapEntry == null) {
-						LOGGER.info("No line numbers generated for class: {}", className);
+						if (sourcesWriter != null) {
+							sourcesWriter.write(fsPath.toString().substring(outputFs.getRoot().toString().length()), sourceBytes);
+						}
 					}
-
-					final var cachedData = new CachedData(className, sources, lineMapEntry);
-					fileStore.putEntry(hash, cachedData);
-
-					LOGGER.debug("Saving processed entry ({}) to cache: {}", hash, fsPath);
-				}
+				});
 			}
 		} else {
 			throw new IllegalStateException();
 		}
 
 		if (workJob instanceof PartialWorkJob partialWorkJob) {
-			// Copy all the existing items to the output jar
-			try (FileSystemUtil.Delegate outputFs = FileSystemUtil.getJarFileSystem(partialWorkJob.output(), false);
-					FileSystemUtil.Delegate existingFs = FileSystemUtil.getJarFileSystem(partialWorkJob.existingSources(), false);
-					Stream<Path> walk = Files.walk(existingFs.getRoot())) {
-				Iterator<Path> iterator = walk.iterator();
-
-				while (iterator.hasNext()) {
-					Path existingPath = iterator.next();
-
-					if (!Files.isRegularFile(existingPath)) {
-						continue;
-					}
-
-					final Path outputPath = outputFs.getRoot().resolve(existingPath.toString());
-
-					LOGGER.debug("Copying existing entry to output: {}", existingPath);
-					createParentDirectories(outputPath);
-					Files.copy(existingPath, outputPath);
-				}
-			}
-
-			Files.delete(partialWorkJob.existingSources());
+			// The new sources have been appended to the jar containing the cache hits, so it is now complete
+			Files.move(partialWorkJob.sources().finish(), output);
+			Files.delete(partialWorkJob.incomplete());
 			Files.delete(partialWorkJob.existingClasses());
-			Files.move(partialWorkJob.output(), output);
+			Files.delete(partialWorkJob.output());
 		} else if (workJob instanceof FullWorkJob fullWorkJob) {
 			// Nothing to merge, just use the output jar
 			Files.move(fullWorkJob.output, output);
@@ -242,16 +378,90 @@ public record CachedJarProcessor(CachedFileStore<CachedData> fileStore, String b
 		}
 	}
 
+	private void saveEntry(Path fsPath, byte[] sourceBytes, Map<String, String> outputNameMap, @Nullable ClassLineNumbers lineNumbers) throws IOException {
+		final String hash = outputNameMap.get(fsPath.toString().substring(1));
+
+		if (hash == null) {
+			throw new IllegalStateException("Unexpected output: " + fsPath);
+		}
+
+		// Trim the leading / and the .java extension
+		final String className = fsPath.toString().substring(1, fsPath.toString().length() - ".java".length());
+		final String sources = new String(sourceBytes, StandardCharsets.UTF_8);
+
+		ClassLineNumbers.Entry lineMapEntry = null;
+
+		if (lineNumbers != null) {
+			lineMapEntry = lineNumbers.lineMap().get(className);
+		}
+
+		if (lineMapEntry == null) {
+			LOGGER.info("No line numbers generated for class: {}", className);
+		}
+
+		final var cachedData = new CachedData(className, sources, lineMapEntry);
+		fileStore.putEntry(hash, cachedData);
+
+		LOGGER.debug("Saving processed entry ({}) to cache: {}", hash, fsPath);
+	}
+
+	/**
+	 * The state built up by the ordered writer while preparing a job.
+	 */
+	private static final class LookupResults {
+		// Sources name -> hash
+		private final Map<String, String> outputNameMap = new HashMap<>();
+		private final Map<String, ClassLineNumbers.Entry> lineNumbersMap = new HashMap<>();
+		// Class file name -> class hash
+		private final Map<String, String> classHashes = new HashMap<>();
+		private int hits = 0;
+		private int misses = 0;
+		private int reused = 0;
+		private int changed = 0;
+		private int added = 0;
+	}
+
+	/**
+	 * The result of looking up a single class in the cache.
+	 *
+	 * @param sources The cached UTF-8 sources, or null when the class is not cached
+	 * @param reused Whether the entry was copied from a previous version
+	 */
+	private record Lookup(ClassEntry entry, String classHash, String fullHash, @Nullable String className, @Nullable ByteBuffer sources, @Nullable ClassLineNumbers.Entry lineNumbers, boolean reused) {
+		static Lookup miss(ClassEntry entry, String classHash, String fullHash) {
+			return new Lookup(entry, classHash, fullHash, null, null, null, false);
+		}
+	}
+
 	public record WorkRequest(WorkJob job, CacheStats stats, @Nullable ClassLineNumbers lineNumbers) {
 	}
 
-	public record CacheStats(int hits, int misses) {
+	/**
+	 * @param reused The number of hits that were copied from a previous version by the warmup
+	 * @param changed The number of classes whose hash changed since the previous version or run
+	 * @param added The number of classes that were not part of the previous version or run
+	 */
+	public record CacheStats(int hits, int misses, int reused, int changed, int added) {
 	}
 
-	public sealed interface WorkJob permits CompletedWorkJob, WorkToDoJob {
+	/**
+	 * @param index The index to record the class hashes of the job in
+	 * @param previousBaseHash The base hash of a previously processed version to reuse unchanged entries from, or null
+	 */
+	public record Warmup(CacheWarmupIndex index, @Nullable String previousBaseHash) {
+	}
+
+	public sealed interface WorkJob extends Closeable permits CompletedWorkJob, WorkToDoJob {
 		default WorkRequest asRequest(CacheStats stats, @Nullable ClassLineNumbers lineNumbers) {
 			return new WorkRequest(this, stats, lineNumbers);
 		}
+
+		/**
+		 * Release any resources held by the job, a job that was never completed is discarded.
+		 */
+		@Override
+		default void close() throws IOException {
+		}
 	}
 
 	public sealed interface WorkToDoJob extends WorkJob permits PartialWorkJob, FullWorkJob {
@@ -283,12 +493,16 @@ public record CachedJarProcessor(CachedFileStore<CachedData> fileStore, String b
 	 * Some work needs to be done.
 	 *
 	 * @param incomplete A path to jar file containing all the classes to be processed
-	 * @param existingSources A path pointing to a jar containing existing sources that have previously been processed
+	 * @param sources The final sources jar, already containing the sources that have previously been processed
 	 * @param existingClasses A path pointing to a jar containing existing classes that have previously been processed
 	 * @param output A path to a temporary jar where work output should be written to
 	 * @param outputNameMap A map of sources name to hash
 	 */
-	public record PartialWorkJob(Path incomplete, Path existingSources, Path existingClasses, Path output, Map<String, String> outputNameMap) implements WorkToDoJob {
+	public record PartialWorkJob(Path incomplete, SourcesJarWriter sources, Path existingClasses, Path output, Map<String, String> outputNameMap) implements WorkToDoJob {
+		@Override
+		public void close() throws IOException {
+			sources.close();
+		}
 	}
 
 	/**
@@ -300,14 +514,4 @@ public record CachedJarProcessor(CachedFileStore<CachedData> fileStore, String b
 	 */
 	public record FullWorkJob(Path incomplete, Path output, Map<String, String> outputNameMap) implements WorkToDoJob {
 	}
-
-	private static void createParentDirectories(Path path) throws IOException {
-		final Path parent = path.getParent();
-
-		if (parent == null) {
-			return;
-		}
-
-		Files.createDirectories(parent);
-	}
 }
@@ -41,8 +41,9 @@ import net.fabricmc.loom.util.Checksum;
  * @param name The class name
  * @param innerClasses A list of inner class names
  * @param superClasses A list of parent classes (super and interface) from the class and all inner classes
+ * @param hash The sha256 hash of the class and its inner classes
  */
-public record ClassEntry(String name, List<String> innerClasses, List<String> superClasses) {
+public record ClassEntry(String name, List<String> innerClasses, List<String> superClasses, String hash) {
 	private static final Logger LOGGER = LoggerFactory.getLogger(ClassEntry.class);
 
 	/**
@@ -62,25 +63,6 @@ public record ClassEntry(String name, List<String> innerClasses, List<String> su
 		}
 	}
 
-	/**
-	 * Hash the class and its inner classes using sha256.
-	 * @param root The root of the jar
-	 * @return The hash of the class and its inner classes
-	 *
-	 * @throws IOException If an error occurs while hashing the files
-	 */
-	public String hash(Path root) throws IOException {
-		StringJoiner joiner = new StringJoiner(",");
-
-		joiner.add(Checksum.sha256Hex(Files.readAllBytes(root.resolve(name))));
-
-		for (String innerClass : innerClasses) {
-			joiner.add(Checksum.sha256Hex(Files.readAllBytes(root.resolve(innerClass))));
-		}
-
-		return Checksum.sha256Hex(joiner.toString().getBytes());
-	}
-
 	/**
 	 * Return a hash of the class and its super classes.
 	 */
@@ -0,0 +1,73 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2024 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.decompilers.cache;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Locale;
+
+import org.gradle.api.Project;
+
+import net.fabricmc.loom.util.Constants;
+
+/**
+ * The on disk layout used by the decompile cache, selected with the {@value Constants.Properties#DECOMPILE_CACHE_BACKEND} property.
+ */
+public enum DecompileCacheBackend {
+	/**
+	 * One file per cached class, see {@link CachedFileStoreImpl}.
+	 */
+	FILES {
+		@Override
+		public <T> CachedFileStore<T> open(Path root, CachedFileStore.EntrySerializer<T> entrySerializer, CachedFileStoreImpl.CacheRules cacheRules) {
+			return new CachedFileStoreImpl<>(root, entrySerializer, cacheRules);
+		}
+	},
+	/**
+	 * A single append only pack file, see {@link PackedCachedFileStore}.
+	 */
+	PACKED {
+		@Override
+		public <T> CachedFileStore<T> open(Path root, CachedFileStore.EntrySerializer<T> entrySerializer, CachedFileStoreImpl.CacheRules cacheRules) throws IOException {
+			return PackedCachedFileStore.open(root, entrySerializer, cacheRules);
+		}
+	};
+
+	public abstract <T> CachedFileStore<T> open(Path root, CachedFileStore.EntrySerializer<T> entrySerializer, CachedFileStoreImpl.CacheRules cacheRules) throws IOException;
+
+	public static DecompileCacheBackend get(Project project) {
+		final Object value = project.findProperty(Constants.Properties.DECOMPILE_CACHE_BACKEND);
+
+		if (value == null) {
+			return FILES;
+		}
+
+		try {
+			return valueOf(value.toString().toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Unknown decompile cache backend: " + value, e);
+		}
+	}
+}
@@ -25,8 +25,6 @@
 package net.fabricmc.loom.decompilers.cache;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.UncheckedIOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.nio.file.Files;
@@ -35,26 +33,24 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executor;
+import java.util.Set;
+import java.util.StringJoiner;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ForkJoinPool;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 import java.util.stream.Stream;
 
 import org.gradle.api.JavaVersion;
+import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.tree.ClassNode;
-import org.objectweb.asm.tree.InnerClassNode;
+import org.objectweb.asm.ClassVisitor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import net.fabricmc.loom.util.CompletableFutureCollector;
+import net.fabricmc.loom.util.Checksum;
+import net.fabricmc.loom.util.Constants;
 import net.fabricmc.loom.util.FileSystemUtil;
 
 public final class JarWalker {
@@ -70,10 +66,12 @@ public final class JarWalker {
 	}
 
 	public static List<ClassEntry> findClasses(FileSystemUtil.Delegate fs) throws IOException {
-		List<String> outerClasses = new ArrayList<>();
-		Map<String, List<String>> innerClasses = new HashMap<>();
+		return findClasses(fs, CachedJarProcessor.DEFAULT_PARALLELISM);
+	}
+
+	public static List<ClassEntry> findClasses(FileSystemUtil.Delegate fs, int parallelism) throws IOException {
+		final List<String> classFiles = new ArrayList<>();
 
-		// Iterate over all the classes in the jar, and store them into the sorted list.
 		try (Stream<Path> walk = Files.walk(fs.getRoot())) {
 			Iterator<Path> iterator = walk.iterator();
 
@@ -86,126 +84,145 @@ public final class JarWalker {
 
 				final String fileName = entry.toString().substring(fs.getRoot().toString().length());
 
-				if (!fileName.endsWith(".class")) {
-					continue;
+				if (fileName.endsWith(".class")) {
+					classFiles.add(fileName);
 				}
+			}
+		}
 
-				String outerClass = findOuterClass(fs, fileName);
+		// Read each class file exactly once, extracting everything needed to build the entries
+		final List<ScannedClass> scannedClasses = new ArrayList<>(classFiles.size());
+		OrderedParallelProcessor.process(classFiles, parallelism, classFile -> scanClass(fs, classFile), scannedClasses::add);
 
-				if (outerClass == null) {
-					outerClasses.add(fileName);
-				} else {
-					innerClasses.computeIfAbsent(outerClass + ".class", k -> new ArrayList<>()).add(fileName);
-				}
+		Map<String, ScannedClass> outerClasses = new HashMap<>();
+		Map<String, ScannedClass> nestedClasses = new HashMap<>();
+		Map<String, List<ScannedClass>> innerClasses = new HashMap<>();
+
+		for (ScannedClass scannedClass : scannedClasses) {
+			if (scannedClass.outerClass() == null) {
+				outerClasses.put(scannedClass.fileName(), scannedClass);
+			} else {
+				nestedClasses.put(scannedClass.fileName(), scannedClass);
 			}
 		}
 
+		for (ScannedClass scannedClass : nestedClasses.values()) {
+			innerClasses.computeIfAbsent(findTopLevelClass(scannedClass, nestedClasses), k -> new ArrayList<>()).add(scannedClass);
+		}
+
 		LOGGER.info("Found {} outer classes and {} inner classes", outerClasses.size(), innerClasses.size());
 
-		Collections.sort(outerClasses);
+		final List<String> sortedOuterClasses = new ArrayList<>(outerClasses.keySet());
+		Collections.sort(sortedOuterClasses);
 
-		final Executor executor = getExecutor();
-		List<CompletableFuture<ClassEntry>> classEntries = new ArrayList<>();
+		final List<ClassEntry> classEntries = new ArrayList<>(sortedOuterClasses.size());
 
-		for (String outerClass : outerClasses) {
-			List<String> innerClasList = innerClasses.get(outerClass);
+		for (String outerClass : sortedOuterClasses) {
+			List<ScannedClass> innerClassList = innerClasses.getOrDefault(outerClass, Collections.emptyList());
+			innerClassList.sort(null);
 
-			if (innerClasList == null) {
-				innerClasList = Collections.emptyList();
-			} else {
-				Collections.sort(innerClasList);
-			}
-
-			classEntries.add(getClassEntry(outerClass, innerClasList, fs, executor));
+			classEntries.add(createClassEntry(outerClasses.get(outerClass), innerClassList));
 		}
 
-		try {
-			return classEntries.stream()
-					.collect(CompletableFutureCollector.allOf())
-					.get(10, TimeUnit.MINUTES);
-		} catch (InterruptedException | ExecutionException | TimeoutException e) {
-			throw new RuntimeException("Failed to get class entries", e);
-		}
+		return Collections.unmodifiableList(classEntries);
 	}
 
 	/**
-	 * Check if the given class file denotes and inner class and find the corresponding outer class name.
+	 * Classes nested more than one level deep belong to the entry of the top level class, along with their outer classes.
 	 */
-	private static String findOuterClass(FileSystemUtil.Delegate fs, String classFile) throws IOException {
-		// this check can speed things up quite a bit, even if it does not follow the JVM spec
-		if (classFile.indexOf('$') < 0) {
-			return null;
-		}
+	private static String findTopLevelClass(ScannedClass nestedClass, Map<String, ScannedClass> nestedClasses) {
+		String outerClass = nestedClass.outerClass() + ".class";
 
-		try (InputStream is = Files.newInputStream(fs.getPath(classFile))) {
-			final ClassReader reader = new ClassReader(is);
-			final ClassNode classNode = new ClassNode();
+		// Bounded in case of a malformed jar where the outer classes form a cycle
+		for (int i = 0; i < nestedClasses.size(); i++) {
+			final ScannedClass next = nestedClasses.get(outerClass);
 
-			reader.accept(classNode, ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES);
+			if (next == null) {
+				break;
+			}
 
-			for (InnerClassNode innerClass : classNode.innerClasses) {
-				// a class file also contains references to enclosed inner classes
-				if (innerClass.name.equals(classNode.name)) {
-					// only regular inner classes have the outer class in the inner class attribute
-					if (innerClass.outerName != null) {
-						return innerClass.outerName;
-					}
+			outerClass = next.outerClass() + ".class";
+		}
 
-					// local and anonymous classes have the outer class in the enclosing method attribute
-					// we check for both attributes because both should be present for decompilers to
-					// recognize a class as an inner class
-					if (classNode.outerClass != null) {
-						return classNode.outerClass;
-					}
+		return outerClass;
+	}
 
-					// there are some Minecraft versions with one attribute stripped but not the other
-					LOGGER.debug("inner class attribute is present for " + classNode.name + " but no outer class could be found, weird!");
-				}
-			}
+	private static ClassEntry createClassEntry(ScannedClass outerClass, List<ScannedClass> innerClasses) throws IOException {
+		final List<String> innerClassNames = new ArrayList<>(innerClasses.size());
+		final Set<String> parentClasses = new LinkedHashSet<>(outerClass.superClasses());
+		// The same hash that hashing the class and its inner classes in order would give
+		final StringJoiner joiner = new StringJoiner(",");
+		joiner.add(outerClass.hash());
+
+		for (ScannedClass innerClass : innerClasses) {
+			innerClassNames.add(innerClass.fileName());
+			parentClasses.addAll(innerClass.superClasses());
+			joiner.add(innerClass.hash());
 		}
 
-		return null;
+		parentClasses.removeIf(name -> !isNotReservedClass(name));
+
+		return new ClassEntry(
+				outerClass.fileName(),
+				Collections.unmodifiableList(innerClassNames),
+				List.copyOf(parentClasses),
+				Checksum.sha256Hex(joiner.toString().getBytes())
+		);
 	}
 
-	private static CompletableFuture<ClassEntry> getClassEntry(String outerClass, List<String> innerClasses, FileSystemUtil.Delegate fs, Executor executor) {
-		List<CompletableFuture<List<String>>> parentClassesFutures = new ArrayList<>();
+	private static ScannedClass scanClass(FileSystemUtil.Delegate fs, String classFile) throws IOException {
+		final byte[] bytes = Files.readAllBytes(fs.getPath(classFile));
+		final ClassReader reader = new ClassReader(bytes);
 
-		// Get the super classes of the outer class and any inner classes
-		parentClassesFutures.add(CompletableFuture.supplyAsync(() -> getSuperClasses(outerClass, fs), executor));
+		List<String> superClasses = new ArrayList<>();
+		String superName = reader.getSuperName();
 
-		for (String innerClass : innerClasses) {
-			parentClassesFutures.add(CompletableFuture.supplyAsync(() -> getSuperClasses(innerClass, fs), executor));
+		if (superName != null) {
+			superClasses.add(superName);
 		}
 
-		return parentClassesFutures.stream()
-				.collect(CompletableFutureCollector.allOf())
-				.thenApply(lists -> lists.stream()
-						.flatMap(List::stream)
-						.filter(JarWalker::isNotReservedClass)
-						.distinct()
-						.toList())
-				.thenApply(parentClasses -> new ClassEntry(outerClass, innerClasses, parentClasses));
+		Collections.addAll(superClasses, reader.getInterfaces());
+
+		return new ScannedClass(classFile, Checksum.sha256Hex(bytes), findOuterClass(reader, classFile), Collections.unmodifiableList(superClasses));
 	}
 
-	private static List<String> getSuperClasses(String classFile, FileSystemUtil.Delegate fs) {
-		try (InputStream is = Files.newInputStream(fs.getPath(classFile))) {
-			final ClassReader reader = new ClassReader(is);
+	/**
+	 * Check if the given class file denotes and inner class and find the corresponding outer class name.
+	 */
+	private static @Nullable String findOuterClass(ClassReader reader, String classFile) {
+		// this check can speed things up quite a bit, even if it does not follow the JVM spec
+		if (classFile.indexOf('$') < 0) {
+			return null;
+		}
 
-			List<String> parentClasses = new ArrayList<>();
-			String superName = reader.getSuperName();
+		final OuterClassVisitor visitor = new OuterClassVisitor();
+		// Only the class level attributes are needed, the visitor skips all fields and methods
+		reader.accept(visitor, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
 
-			if (superName != null) {
-				parentClasses.add(superName);
+		// only regular inner classes have the outer class in the inner class attribute
+		if (visitor.innerClassOuterName != null) {
+			return visitor.innerClassOuterName;
+		}
+
+		if (visitor.hasOwnInnerClassAttribute) {
+			// local and anonymous classes have the outer class in the enclosing method attribute
+			// we check for both attributes because both should be present for decompilers to
+			// recognize a class as an inner class
+			if (visitor.enclosingClass != null) {
+				return visitor.enclosingClass;
 			}
 
-			Collections.addAll(parentClasses, reader.getInterfaces());
-			return Collections.unmodifiableList(parentClasses);
-		} catch (IOException e) {
-			throw new UncheckedIOException("Failed to read class file: " + classFile, e);
+			// there are some Minecraft versions with one attribute stripped but not the other
+			LOGGER.debug("inner class attribute is present for " + visitor.name + " but no outer class could be found, weird!");
 		}
+
+		return null;
 	}
 
-	private static Executor getExecutor() {
+	/**
+	 * @return An executor that starts a new virtual thread for each task, or null when running on Java 17
+	 */
+	static @Nullable ExecutorService newVirtualThreadExecutor() {
 		if (JavaVersion.current().isCompatibleWith(JavaVersion.VERSION_21)) {
 			try {
 				Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
@@ -215,11 +232,57 @@ public final class JarWalker {
 			}
 		}
 
-		return ForkJoinPool.commonPool();
+		return null;
 	}
 
 	// Slight optimization, if we skip over Object
 	private static boolean isNotReservedClass(String name) {
 		return !"java/lang/Object".equals(name);
 	}
+
+	/**
+	 * @param fileName The class file name within the jar
+	 * @param hash The sha256 hash of the class file
+	 * @param outerClass The name of the outer class, or null if this is not an inner class
+	 * @param superClasses The super class and interfaces of the class
+	 */
+	private record ScannedClass(String fileName, String hash, @Nullable String outerClass, List<String> superClasses) implements Comparable<ScannedClass> {
+		@Override
+		public int compareTo(ScannedClass o) {
+			return fileName.compareTo(o.fileName);
+		}
+	}
+
+	private static final class OuterClassVisitor extends ClassVisitor {
+		private String name;
+		private @Nullable String enclosingClass;
+		private @Nullable String innerClassOuterName;
+		private boolean hasOwnInnerClassAttribute = false;
+
+		private OuterClassVisitor() {
+			super(Constants.ASM_VERSION);
+		}
+
+		@Override
+		public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+			this.name = name;
+		}
+
+		@Override
+		public void visitOuterClass(String owner, String name, String descriptor) {
+			this.enclosingClass = owner;
+		}
+
+		@Override
+		public void visitInnerClass(String name, String outerName, String innerName, int access) {
+			// a class file also contains references to enclosed inner classes
+			if (name.equals(this.name)) {
+				hasOwnInnerClassAttribute = true;
+
+				if (outerName != null) {
+					innerClassOuterName = outerName;
+				}
+			}
+		}
+	}
 }
@@ -0,0 +1,115 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2024 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.decompilers.cache;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.fabricmc.loom.util.IOFunction;
+
+/**
+ * Runs a task for each input in parallel, while handing the results to a single writer in input order.
+ *
+ * <p>At most {@code parallelism} tasks are in flight at once, which also bounds the number of results held in memory.
+ * The tasks are expected to mostly block on IO, so they run on virtual threads when available, or otherwise on a fixed
+ * pool of {@code parallelism} threads rather than the common pool, which is sized for CPU bound work.
+ * The writer is always called on the calling thread, so it does not need to be thread safe, and its output is the
+ * same as if the inputs had been processed sequentially.
+ */
+public final class OrderedParallelProcessor {
+	private OrderedParallelProcessor() {
+	}
+
+	public static <I, O> void process(List<I> inputs, int parallelism, IOFunction<I, O> task, ResultWriter<O> writer) throws IOException {
+		if (parallelism <= 1) {
+			for (I input : inputs) {
+				writer.write(task.apply(input));
+			}
+
+			return;
+		}
+
+		final ExecutorService virtualThreadExecutor = JarWalker.newVirtualThreadExecutor();
+		final ExecutorService executor = virtualThreadExecutor != null ? virtualThreadExecutor : Executors.newFixedThreadPool(parallelism);
+		final Deque<CompletableFuture<O>> inFlight = new ArrayDeque<>(parallelism);
+
+		try {
+			for (I input : inputs) {
+				if (inFlight.size() >= parallelism) {
+					writer.write(join(inFlight.removeFirst()));
+				}
+
+				inFlight.addLast(CompletableFuture.supplyAsync(() -> {
+					try {
+						return task.apply(input);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}, executor));
+			}
+
+			while (!inFlight.isEmpty()) {
+				writer.write(join(inFlight.removeFirst()));
+			}
+		} catch (IOException | RuntimeException e) {
+			// Don't return while tasks may still be using resources that the caller is about to close
+			for (CompletableFuture<O> future : inFlight) {
+				future.exceptionally(t -> null).join();
+			}
+
+			throw e;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private static <O> O join(CompletableFuture<O> future) throws IOException {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof UncheckedIOException uncheckedIOException) {
+				throw uncheckedIOException.getCause();
+			}
+
+			if (e.getCause() instanceof RuntimeException runtimeException) {
+				throw runtimeException;
+			}
+
+			throw e;
+		}
+	}
+
+	@FunctionalInterface
+	public interface ResultWriter<O> {
+		void write(O result) throws IOException;
+	}
+}
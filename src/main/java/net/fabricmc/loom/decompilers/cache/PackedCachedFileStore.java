@@ -0,0 +1,707 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2024 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.decompilers.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.fabricmc.loom.util.Platform;
+
+/**
+ * A {@link CachedFileStore} that appends all entries to a single pack file, rather than writing a file per entry.
+ *
+ * <p>Each record in the pack is laid out as {@code [key length][key][data length][data]}, making the pack self describing.
+ * An index of key to data location and last access time is kept in memory and persisted next to the pack when the store
+ * is closed. Any records appended after the index was last written, by another process or before a crash, are picked up
+ * by scanning the tail of the pack.
+ *
+ * <p>Reads are served from a read only mapping of the pack, which is extended when an entry beyond it is requested, and
+ * may happen concurrently with each other and with appends. On Windows, or when the pack is too large to map, positional
+ * channel reads are used instead, as a mapped file cannot be replaced there. Replacing an entry leaves the old record in
+ * the pack, these are dropped when the pack is compacted by {@link #prune()}.
+ *
+ * <p>Stores opened on the same directory within this JVM share one open pack. The pack is only locked for the duration
+ * of each operation, so several processes can use it at once: reads and appends hold it in shared mode, with appends
+ * also taking turns with each other, while compacting holds it exclusively. Every compaction bumps a generation number
+ * kept in the lock file, telling the other processes to reload the pack and its index.
+ */
+public final class PackedCachedFileStore<T> implements CachedFileStore<T> {
+	private static final Logger LOGGER = LoggerFactory.getLogger(PackedCachedFileStore.class);
+
+	static final String PACK_FILE_NAME = "entries.pack";
+	static final String INDEX_FILE_NAME = "entries.idx";
+	static final String LOCK_FILE_NAME = "entries.lock";
+
+	private static final int INDEX_MAGIC = 0x4C504958; // LPIX
+	private static final int INDEX_VERSION = 2;
+	// Written before the external size of each entry was stored
+	private static final int INDEX_VERSION_NO_EXTERNAL_SIZE = 1;
+
+	// The lock file holds the generation, the regions after it are locked. Windows does not allow writing to a locked region.
+	private static final long PACK_LOCK_POSITION = Long.BYTES;
+	private static final long APPEND_LOCK_POSITION = Long.BYTES + 1;
+
+	private static final boolean USE_MAPPING = !Platform.CURRENT.getOperatingSystem().isWindows();
+
+	// A file can only be locked once per JVM, so every store of the same directory shares the pack
+	private static final Map<Path, Pack> OPEN_PACKS = new HashMap<>();
+
+	private final Pack pack;
+	private final EntrySerializer<T> entrySerializer;
+	private final CachedFileStoreImpl.CacheRules cacheRules;
+	private final AtomicBoolean closed = new AtomicBoolean();
+
+	private PackedCachedFileStore(Pack pack, EntrySerializer<T> entrySerializer, CachedFileStoreImpl.CacheRules cacheRules) {
+		this.pack = pack;
+		this.entrySerializer = Objects.requireNonNull(entrySerializer, "entrySerializer");
+		this.cacheRules = Objects.requireNonNull(cacheRules, "cacheRules");
+	}
+
+	public static <T> PackedCachedFileStore<T> open(Path root, EntrySerializer<T> entrySerializer, CachedFileStoreImpl.CacheRules cacheRules) throws IOException {
+		final Path key = root.toAbsolutePath().normalize();
+
+		synchronized (OPEN_PACKS) {
+			Pack pack = OPEN_PACKS.get(key);
+
+			if (pack == null) {
+				pack = Pack.open(key);
+				OPEN_PACKS.put(key, pack);
+			}
+
+			pack.references++;
+			return new PackedCachedFileStore<>(pack, entrySerializer, cacheRules);
+		}
+	}
+
+	@Override
+	public @Nullable T getEntry(String key) throws IOException {
+		final ByteBuffer buffer = getEntryBuffer(key);
+
+		if (buffer == null) {
+			return null;
+		}
+
+		return entrySerializer.read(buffer);
+	}
+
+	@Override
+	public @Nullable ByteBuffer getEntryBuffer(String key) throws IOException {
+		try (StripedFileLock.Held ignored = pack.lockShared()) {
+			final PackEntry entry = pack.index.get(key);
+
+			if (entry == null) {
+				return null;
+			}
+
+			// Only the in memory index is touched, the access time is persisted along with the index.
+			pack.index.replace(key, entry, entry.withLastAccess(System.currentTimeMillis()));
+			pack.indexDirty = true;
+
+			return pack.read(entry);
+		}
+	}
+
+	@Override
+	public void putEntry(String key, T data) throws IOException {
+		final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+
+		try (StripedFileLock.Held ignored = pack.lockShared()) {
+			synchronized (pack.appendLock) {
+				final FileLock fileLock = StripedFileLock.acquire(pack.lockChannel, APPEND_LOCK_POSITION, 1, false);
+
+				try {
+					append(key, keyBytes, data);
+				} finally {
+					fileLock.release();
+				}
+			}
+		}
+	}
+
+	// Only called while holding the append lock of the pack, in this and every other process
+	private void append(String key, byte[] keyBytes, T data) throws IOException {
+		// Records appended by other processes since the last operation must be indexed before writing after them
+		pack.catchUp(true);
+
+		final FileChannel channel = pack.channel;
+		final long start = pack.length;
+		final long dataOffset = start + Integer.BYTES + keyBytes.length + Integer.BYTES;
+
+		final long length;
+
+		try {
+			channel.position(start);
+			writeFully(channel, ByteBuffer.allocate(Integer.BYTES + keyBytes.length + Integer.BYTES)
+					.putInt(keyBytes.length)
+					.put(keyBytes)
+					.putInt(0)
+					.flip());
+			entrySerializer.write(data, channel);
+
+			length = channel.position() - dataOffset;
+
+			if (length > Integer.MAX_VALUE) {
+				throw new IOException("Cache entry is too large: " + key);
+			}
+		} catch (IOException | RuntimeException e) {
+			// Don't leave a partial record behind, the next append would start after it
+			channel.truncate(start);
+			throw e;
+		}
+
+		// Now go back and fill in the data length, only then can another process index the record
+		writeFully(channel, ByteBuffer.allocate(Integer.BYTES).putInt((int) length).flip(), dataOffset - Integer.BYTES);
+		pack.length = dataOffset + length;
+
+		final long externalSize = entrySerializer.externalSize(readFully(channel, dataOffset, (int) length));
+		final PackEntry previous = pack.index.put(key, new PackEntry(dataOffset, (int) length, externalSize, System.currentTimeMillis()));
+		pack.indexDirty = true;
+
+		if (previous != null && entrySerializer.needsRelease()) {
+			// The old record stays in the pack until it is compacted, but is no longer reachable
+			entrySerializer.release(pack.read(previous));
+		}
+	}
+
+	/**
+	 * Drop entries that break the cache rules, and rewrite the pack with only the remaining entries.
+	 */
+	@Override
+	public void prune() throws IOException {
+		try (StripedFileLock.Held ignored = pack.lockExclusive()) {
+			final FileChannel channel = pack.channel;
+			final List<Map.Entry<String, PackEntry>> entries = new ArrayList<>(pack.index.entrySet());
+			final Set<Map.Entry<String, PackEntry>> toRemove = new HashSet<>(cacheRules.selectEvictions(entries, e -> e.getValue().length() + e.getValue().externalSize(), e -> e.getValue().lastAccess()));
+
+			if (entrySerializer.needsRelease()) {
+				for (Map.Entry<String, PackEntry> mapEntry : toRemove) {
+					entrySerializer.release(pack.read(mapEntry.getValue()));
+				}
+			}
+
+			final Path tempPack = pack.root.resolve(PACK_FILE_NAME + ".tmp");
+			final Map<String, PackEntry> compacted = new HashMap<>();
+			final long compactedLength;
+
+			try (FileChannel out = FileChannel.open(tempPack, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+				for (Map.Entry<String, PackEntry> mapEntry : entries) {
+					if (toRemove.contains(mapEntry)) {
+						continue;
+					}
+
+					final PackEntry entry = mapEntry.getValue();
+					final byte[] keyBytes = mapEntry.getKey().getBytes(StandardCharsets.UTF_8);
+					final long start = out.position();
+
+					writeFully(out, ByteBuffer.allocate(Integer.BYTES + keyBytes.length + Integer.BYTES)
+							.putInt(keyBytes.length)
+							.put(keyBytes)
+							.putInt(entry.length())
+							.flip());
+					transferFully(channel, entry.offset(), entry.length(), out);
+
+					compacted.put(mapEntry.getKey(), new PackEntry(start + Integer.BYTES + keyBytes.length + Integer.BYTES, entry.length(), entry.externalSize(), entry.lastAccess()));
+				}
+
+				compactedLength = out.position();
+			}
+
+			LOGGER.info("Compacted decompile cache pack, kept {} of {} entries", compacted.size(), entries.size());
+
+			pack.replace(tempPack, compacted, compactedLength);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!closed.compareAndSet(false, true)) {
+			return;
+		}
+
+		synchronized (OPEN_PACKS) {
+			if (--pack.references == 0) {
+				OPEN_PACKS.remove(pack.root);
+				pack.close();
+			}
+		}
+	}
+
+	private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(length);
+
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new EOFException("Unexpected end of decompile cache pack");
+			}
+		}
+
+		return buffer.flip();
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer, position + buffer.position());
+		}
+	}
+
+	private static void transferFully(FileChannel source, long position, long length, FileChannel target) throws IOException {
+		long transferred = 0;
+
+		while (transferred < length) {
+			transferred += source.transferTo(position + transferred, length - transferred, target);
+		}
+	}
+
+	/**
+	 * The open pack of a directory, shared by every store of it in this JVM.
+	 */
+	private static final class Pack {
+		private final Path root;
+		private final Path packPath;
+		private final Path indexPath;
+		private final FileChannel lockChannel;
+
+		// Guards the pack channel itself, only reloading, compaction and closing need exclusive access
+		private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+		// Guards appending to the pack, indexing records appended by other processes and the mapping
+		private final Object appendLock = new Object();
+		private final Object sharedLockMonitor = new Object();
+		private final Map<String, PackEntry> index = new ConcurrentHashMap<>();
+
+		// Guarded by OPEN_PACKS
+		private int references = 0;
+
+		private @Nullable FileChannel channel;
+		private volatile @Nullable MappedByteBuffer mapping;
+		// The length of the pack covered by the index
+		private volatile long length;
+		private long generation = -1;
+		private volatile boolean indexDirty = false;
+
+		// The shared file lock is held for as long as any thread of this JVM holds the pack in shared mode
+		private @Nullable FileLock sharedLock;
+		private int sharedHolders = 0;
+
+		private Pack(Path root, FileChannel lockChannel) {
+			this.root = root;
+			this.packPath = root.resolve(PACK_FILE_NAME);
+			this.indexPath = root.resolve(INDEX_FILE_NAME);
+			this.lockChannel = lockChannel;
+		}
+
+		static Pack open(Path root) throws IOException {
+			Files.createDirectories(root);
+			final var pack = new Pack(root, FileChannel.open(root.resolve(LOCK_FILE_NAME), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+
+			try {
+				// The generation starts out unknown, so this loads the pack
+				pack.lockExclusive().close();
+			} catch (IOException | RuntimeException e) {
+				pack.lockChannel.close();
+				throw e;
+			}
+
+			return pack;
+		}
+
+		/**
+		 * Hold the pack so that no other process can replace it, reloading it first if another process already has.
+		 */
+		StripedFileLock.Held lockShared() throws IOException {
+			while (true) {
+				lock.readLock().lock();
+				boolean held = false;
+
+				try {
+					acquireShared();
+
+					try {
+						if (readGeneration() == generation) {
+							catchUp(false);
+							held = true;
+							return () -> {
+								try {
+									releaseShared();
+								} finally {
+									lock.readLock().unlock();
+								}
+							};
+						}
+					} finally {
+						if (!held) {
+							releaseShared();
+						}
+					}
+				} finally {
+					if (!held) {
+						lock.readLock().unlock();
+					}
+				}
+
+				// The pack has been compacted by another process, reloading it needs exclusive access
+				lockExclusive().close();
+			}
+		}
+
+		/**
+		 * Hold the pack exclusively, in this and every other process.
+		 */
+		StripedFileLock.Held lockExclusive() throws IOException {
+			lock.writeLock().lock();
+
+			try {
+				final FileLock fileLock = StripedFileLock.acquire(lockChannel, PACK_LOCK_POSITION, 1, false);
+
+				try {
+					final long generation = readGeneration();
+
+					if (generation != this.generation) {
+						reload(generation);
+					} else {
+						catchUp(true);
+					}
+				} catch (IOException | RuntimeException e) {
+					fileLock.release();
+					throw e;
+				}
+
+				return () -> {
+					try {
+						fileLock.release();
+					} finally {
+						lock.writeLock().unlock();
+					}
+				};
+			} catch (IOException | RuntimeException e) {
+				lock.writeLock().unlock();
+				throw e;
+			}
+		}
+
+		private void acquireShared() throws IOException {
+			synchronized (sharedLockMonitor) {
+				if (sharedHolders == 0) {
+					sharedLock = StripedFileLock.acquire(lockChannel, PACK_LOCK_POSITION, 1, true);
+				}
+
+				sharedHolders++;
+			}
+		}
+
+		private void releaseShared() throws IOException {
+			synchronized (sharedLockMonitor) {
+				if (--sharedHolders == 0) {
+					Objects.requireNonNull(sharedLock).release();
+					sharedLock = null;
+				}
+			}
+		}
+
+		private long readGeneration() throws IOException {
+			if (lockChannel.size() < Long.BYTES) {
+				return 0;
+			}
+
+			return readFully(lockChannel, 0, Long.BYTES).getLong();
+		}
+
+		// Only called while holding the pack exclusively
+		private void reload(long generation) throws IOException {
+			mapping = null;
+
+			if (channel != null) {
+				channel.close();
+			}
+
+			channel = FileChannel.open(packPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			index.clear();
+			length = readIndex(index);
+			this.generation = generation;
+
+			final long recovered = scan(true);
+
+			if (recovered > 0) {
+				LOGGER.info("Recovered {} unindexed entries from decompile cache pack", recovered);
+				indexDirty = true;
+			}
+		}
+
+		/**
+		 * Index the records appended by other processes. A partial record at the end of the pack can only be truncated
+		 * while holding the append lock, otherwise it may still be being written.
+		 */
+		void catchUp(boolean truncate) throws IOException {
+			synchronized (appendLock) {
+				if (channel.size() != length) {
+					scan(truncate);
+				}
+			}
+		}
+
+		// Only called while holding the pack exclusively
+		void replace(Path compactedPack, Map<String, PackEntry> compacted, long compactedLength) throws IOException {
+			mapping = null;
+			channel.close();
+			Files.move(compactedPack, packPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			channel = FileChannel.open(packPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+			index.clear();
+			index.putAll(compacted);
+			length = compactedLength;
+
+			generation = readGeneration() + 1;
+			writeFully(lockChannel, ByteBuffer.allocate(Long.BYTES).putLong(generation).flip(), 0);
+			writeIndex();
+		}
+
+		ByteBuffer read(PackEntry entry) throws IOException {
+			final long end = entry.offset() + entry.length();
+
+			if (!USE_MAPPING || end > Integer.MAX_VALUE) {
+				return readFully(channel, entry.offset(), entry.length());
+			}
+
+			MappedByteBuffer mapping = this.mapping;
+
+			if (mapping == null || end > mapping.capacity()) {
+				mapping = remap(end);
+			}
+
+			return mapping.slice((int) entry.offset(), entry.length()).asReadOnlyBuffer();
+		}
+
+		private MappedByteBuffer remap(long minimumSize) throws IOException {
+			synchronized (appendLock) {
+				MappedByteBuffer mapping = this.mapping;
+
+				// Another thread may have already extended the mapping
+				if (mapping == null || minimumSize > mapping.capacity()) {
+					mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), Integer.MAX_VALUE));
+					this.mapping = mapping;
+				}
+
+				return mapping;
+			}
+		}
+
+		// Guarded by OPEN_PACKS
+		void close() throws IOException {
+			try {
+				if (indexDirty) {
+					try (StripedFileLock.Held ignored = lockShared()) {
+						synchronized (appendLock) {
+							final FileLock fileLock = StripedFileLock.acquire(lockChannel, APPEND_LOCK_POSITION, 1, false);
+
+							try {
+								writeIndex();
+							} finally {
+								fileLock.release();
+							}
+						}
+					}
+				}
+			} finally {
+				lock.writeLock().lock();
+
+				try {
+					mapping = null;
+
+					if (channel != null) {
+						channel.close();
+					}
+				} finally {
+					lockChannel.close();
+					lock.writeLock().unlock();
+				}
+			}
+		}
+
+		/**
+		 * @return the length of the pack that is covered by the index, or 0 when the index is missing or invalid
+		 */
+		private long readIndex(Map<String, PackEntry> index) throws IOException {
+			if (Files.notExists(indexPath)) {
+				return 0;
+			}
+
+			try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexPath)))) {
+				final int magic = in.readInt();
+				final int version = in.readInt();
+
+				if (magic != INDEX_MAGIC || (version != INDEX_VERSION && version != INDEX_VERSION_NO_EXTERNAL_SIZE)) {
+					LOGGER.warn("Ignoring decompile cache index with unknown format: {}", indexPath);
+					return 0;
+				}
+
+				final long packLength = in.readLong();
+				final int count = in.readInt();
+
+				if (packLength > channel.size()) {
+					LOGGER.warn("Decompile cache index is newer than the pack, rebuilding: {}", indexPath);
+					return 0;
+				}
+
+				for (int i = 0; i < count; i++) {
+					final String key = in.readUTF();
+					final long offset = in.readLong();
+					final int length = in.readInt();
+					final long externalSize = version == INDEX_VERSION ? in.readLong() : 0;
+					index.put(key, new PackEntry(offset, length, externalSize, in.readLong()));
+				}
+
+				return packLength;
+			} catch (EOFException e) {
+				LOGGER.warn("Truncated decompile cache index, rebuilding: {}", indexPath);
+				index.clear();
+				return 0;
+			}
+		}
+
+		/**
+		 * Write the index, keeping the later access times and known external sizes of the records in the index
+		 * written by other processes. Only called while holding the append lock.
+		 */
+		private void writeIndex() throws IOException {
+			final Map<String, PackEntry> written = new HashMap<>();
+			readIndex(written);
+
+			final Path tempIndex = root.resolve(INDEX_FILE_NAME + ".tmp");
+
+			try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempIndex)))) {
+				out.writeInt(INDEX_MAGIC);
+				out.writeInt(INDEX_VERSION);
+				out.writeLong(length);
+				out.writeInt(index.size());
+
+				for (Map.Entry<String, PackEntry> mapEntry : index.entrySet()) {
+					final PackEntry entry = mapEntry.getValue();
+					final PackEntry other = written.get(mapEntry.getKey());
+					final boolean sameRecord = other != null && other.offset() == entry.offset() && other.length() == entry.length();
+
+					out.writeUTF(mapEntry.getKey());
+					out.writeLong(entry.offset());
+					out.writeInt(entry.length());
+					out.writeLong(sameRecord ? Math.max(entry.externalSize(), other.externalSize()) : entry.externalSize());
+					out.writeLong(sameRecord ? Math.max(entry.lastAccess(), other.lastAccess()) : entry.lastAccess());
+				}
+			}
+
+			Files.move(tempIndex, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			indexDirty = false;
+		}
+
+		/**
+		 * Index any records that exist in the pack after the indexed length.
+		 *
+		 * @return the number of indexed records
+		 */
+		private long scan(boolean truncate) throws IOException {
+			final long size = channel.size();
+			final long now = System.currentTimeMillis();
+			long position = length;
+			long recovered = 0;
+
+			while (position < size) {
+				if (size - position < Integer.BYTES) {
+					break;
+				}
+
+				final int keyLength = readFully(channel, position, Integer.BYTES).getInt();
+				final long dataLengthPosition = position + Integer.BYTES + keyLength;
+
+				if (keyLength < 0 || dataLengthPosition + Integer.BYTES > size) {
+					break;
+				}
+
+				final String key = StandardCharsets.UTF_8.decode(readFully(channel, position + Integer.BYTES, keyLength)).toString();
+				final int dataLength = readFully(channel, dataLengthPosition, Integer.BYTES).getInt();
+				final long dataOffset = dataLengthPosition + Integer.BYTES;
+
+				if (dataLength <= 0 || dataOffset + dataLength > size) {
+					break;
+				}
+
+				// The size of any data written outside of the pack is unknown
+				index.put(key, new PackEntry(dataOffset, dataLength, 0, now));
+				position = dataOffset + dataLength;
+				recovered++;
+			}
+
+			length = position;
+
+			if (position < size && truncate) {
+				LOGGER.warn("Truncating incomplete record at the end of the decompile cache pack ({} bytes)", size - position);
+				channel.truncate(position);
+			}
+
+			return recovered;
+		}
+	}
+
+	/**
+	 * @param offset The offset of the entry data within the pack
+	 * @param length The length of the entry data
+	 * @param externalSize The size of the data the entry added outside of the pack, see {@link EntrySerializer#externalSize(ByteBuffer)}
+	 * @param lastAccess The last time the entry was read or written, in epoch millis
+	 */
+	private record PackEntry(long offset, int length, long externalSize, long lastAccess) {
+		PackEntry withLastAccess(long lastAccess) {
+			return new PackEntry(offset, length, externalSize, lastAccess);
+		}
+	}
+}
@@ -0,0 +1,381 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2024 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.decompilers.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A content addressed store of decompiled sources, shared between cache entries.
+ *
+ * <p>Identical sources produced for different cache keys, e.g. for another game version or with other decompiler
+ * options, are only stored once. Each blob is stored at {@code <root>/<2 hex chars>/<sha256>} as
+ * {@code [u8 codec id][i32 uncompressed length][data]}.
+ *
+ * <p>The number of cache entries referencing each blob is kept in an append only journal of reference count changes,
+ * which may be shared by multiple processes. Adding a reference is appended straight away while holding a shared lock
+ * on the journal, removing one is buffered. {@link #prune()} takes the lock exclusively to replay the journal, delete
+ * the blobs that are no longer referenced and compact it, so it never misses a reference added by another process. The
+ * root must not be inside the root of a {@link CachedFileStoreImpl}, as its files would be mistaken for entries.
+ *
+ * <p>The size of a blob is counted towards the size budget of the cache through the entry that caused it to be written,
+ * see {@link #claimWrittenSize(String)}.
+ */
+public final class SourceBlobStore implements AutoCloseable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(SourceBlobStore.class);
+
+	static final int DIGEST_LENGTH = 32;
+	static final String REFS_FILE_NAME = "refs.journal";
+	static final String LOCKS_DIRECTORY_NAME = "locks";
+
+	private static final int REFS_MAGIC = 0x4C524546; // LREF
+	private static final int REFS_VERSION = 1;
+	private static final int RECORD_LENGTH = 1 + DIGEST_LENGTH + Integer.BYTES;
+	private static final int FLUSH_THRESHOLD = 64 * 1024;
+	// Add a delta to the count
+	private static final byte DELTA = 'D';
+	// Set the count, written when compacting
+	private static final byte SET = 'S';
+
+	private final Path root;
+	private final Path refsPath;
+	private final SourceCompression compression;
+	private final StripedFileLock locks;
+	private final ByteArrayOutputStream releases = new ByteArrayOutputStream();
+	// Digest -> size of the blobs written by this process that no entry has claimed yet
+	private final Map<String, Long> writtenSizes = new ConcurrentHashMap<>();
+
+	private SourceBlobStore(Path root, SourceCompression compression) {
+		this.root = root;
+		this.refsPath = root.resolve(REFS_FILE_NAME);
+		this.compression = compression;
+		this.locks = new StripedFileLock(root.resolve(LOCKS_DIRECTORY_NAME), 1);
+	}
+
+	public static SourceBlobStore open(Path root, SourceCompression compression) throws IOException {
+		final var store = new SourceBlobStore(root, compression);
+		Files.createDirectories(root);
+		return store;
+	}
+
+	/**
+	 * Store the sources if they are not already present, and add a reference to them.
+	 *
+	 * @param sources The UTF-8 encoded sources
+	 * @return The hex encoded sha256 digest of the sources
+	 */
+	public String put(byte[] sources) throws IOException {
+		final String digest = digest(sources);
+		final Path path = blobPath(digest);
+		// Compress outside the lock, only publishing the blob and its reference needs to hold it
+		Path tempPath = Files.exists(path) ? null : writeTempBlob(digest, sources);
+
+		try {
+			createRefs();
+
+			try (StripedFileLock.Held held = locks.lockShared(REFS_FILE_NAME)) {
+				if (Files.notExists(path)) {
+					if (tempPath == null) {
+						// Deleted by a prune since it was checked
+						tempPath = writeTempBlob(digest, sources);
+					}
+
+					try {
+						Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE);
+						writtenSizes.put(digest, Files.size(path));
+					} catch (FileAlreadyExistsException e) {
+						// Written by another process, the contents are identical
+					}
+				}
+
+				appendRefs(record(DELTA, digest, 1));
+			}
+		} finally {
+			if (tempPath != null) {
+				Files.deleteIfExists(tempPath);
+			}
+		}
+
+		return digest;
+	}
+
+	/**
+	 * Get the stored size of a blob so that the entry referencing it can be charged for it, this is only returned once
+	 * and only by the process that wrote the blob. Entries that reference an existing blob are not charged for it again,
+	 * so after the first entry is evicted the blob is no longer counted until it is written again.
+	 *
+	 * @return The size of the blob file if it was written by {@link #put(byte[])} and has not been claimed yet, otherwise 0
+	 */
+	public long claimWrittenSize(String digest) {
+		final Long size = writtenSizes.remove(digest);
+		return size != null ? size : 0;
+	}
+
+	/**
+	 * @return A buffer containing the UTF-8 encoded sources
+	 * @throws java.nio.file.NoSuchFileException If the blob does not exist
+	 */
+	public ByteBuffer get(String digest) throws IOException {
+		final ByteBuffer buffer = CachedFileStoreImpl.readBuffer(blobPath(digest)).order(ByteOrder.BIG_ENDIAN);
+
+		if (buffer.remaining() < 1 + Integer.BYTES) {
+			throw new IOException("Truncated source blob: " + digest);
+		}
+
+		final SourceCompression.Codec codec = SourceCompression.Codec.byId(buffer.get());
+		final int uncompressedLength = buffer.getInt();
+
+		if (codec == SourceCompression.Codec.NONE) {
+			return buffer.slice().asReadOnlyBuffer();
+		}
+
+		return ByteBuffer.wrap(codec.decompress(buffer.slice(), uncompressedLength)).asReadOnlyBuffer();
+	}
+
+	/**
+	 * Remove a reference to the blob, it is deleted by the next {@link #prune()} once no entries reference it.
+	 */
+	public synchronized void release(String digest) throws IOException {
+		releases.write(record(DELTA, digest, -1));
+
+		if (releases.size() >= FLUSH_THRESHOLD) {
+			flush();
+		}
+	}
+
+	private Path writeTempBlob(String digest, byte[] sources) throws IOException {
+		final Path directory = blobPath(digest).getParent();
+		Files.createDirectories(directory);
+
+		final byte[] data = compression.codec().compress(sources, compression.level());
+		final Path tempPath = Files.createTempFile(directory, digest, ".tmp");
+
+		try (OutputStream out = Files.newOutputStream(tempPath)) {
+			out.write(ByteBuffer.allocate(1 + Integer.BYTES)
+					.put((byte) compression.codec().id())
+					.putInt(sources.length)
+					.array());
+			out.write(data);
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(tempPath);
+			throw e;
+		}
+
+		return tempPath;
+	}
+
+	private Path blobPath(String digest) {
+		return root.resolve(digest.substring(0, 2)).resolve(digest.substring(2));
+	}
+
+	static String digest(byte[] sources) {
+		try {
+			return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(sources));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static byte[] record(byte type, String digest, int value) {
+		return ByteBuffer.allocate(RECORD_LENGTH)
+				.put(type)
+				.put(HexFormat.of().parseHex(digest))
+				.putInt(value)
+				.array();
+	}
+
+	/**
+	 * Append the buffered reference removals to the journal.
+	 */
+	public synchronized void flush() throws IOException {
+		if (releases.size() == 0) {
+			return;
+		}
+
+		createRefs();
+
+		try (StripedFileLock.Held held = locks.lockShared(REFS_FILE_NAME)) {
+			appendRefs(releases.toByteArray());
+		}
+
+		releases.reset();
+	}
+
+	// Only called while holding the lock
+	private void appendRefs(byte[] records) throws IOException {
+		try (OutputStream out = Files.newOutputStream(refsPath, StandardOpenOption.APPEND)) {
+			out.write(records);
+		}
+	}
+
+	// The header is written while holding the lock exclusively, as appending processes cannot tell whether it is complete
+	private void createRefs() throws IOException {
+		if (Files.exists(refsPath)) {
+			return;
+		}
+
+		try (StripedFileLock.Held held = locks.lock(REFS_FILE_NAME)) {
+			if (Files.notExists(refsPath)) {
+				writeRefs(Map.of());
+			}
+		}
+	}
+
+	/**
+	 * Delete the blobs that are no longer referenced by any entry, and compact the reference journal.
+	 */
+	public void prune() throws IOException {
+		flush();
+
+		if (Files.notExists(refsPath)) {
+			return;
+		}
+
+		try (StripedFileLock.Held held = locks.lock(REFS_FILE_NAME)) {
+			final Refs refs = readRefs();
+			int deleted = 0;
+
+			for (Iterator<Map.Entry<String, Integer>> iterator = refs.counts().entrySet().iterator(); iterator.hasNext(); ) {
+				final Map.Entry<String, Integer> entry = iterator.next();
+
+				if (entry.getValue() > 0) {
+					continue;
+				}
+
+				try {
+					Files.deleteIfExists(blobPath(entry.getKey()));
+				} catch (IOException e) {
+					// Most likely still open in another process on Windows, keep it in the journal so the delete is retried next time
+					LOGGER.debug("Failed to delete source blob {}", entry.getKey(), e);
+					continue;
+				}
+
+				iterator.remove();
+				deleted++;
+			}
+
+			if (deleted > 0 || refs.records() > refs.counts().size() * 2L) {
+				writeRefs(refs.counts());
+			}
+
+			LOGGER.info("Deleted {} unreferenced source blobs, {} remaining", deleted, refs.counts().size());
+		}
+	}
+
+	// Only called while holding the lock exclusively
+	private Refs readRefs() throws IOException {
+		final Map<String, Integer> counts = new HashMap<>();
+		final byte[] digest = new byte[DIGEST_LENGTH];
+		long records = 0;
+
+		try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(refsPath)))) {
+			if (in.readInt() != REFS_MAGIC || in.readInt() != REFS_VERSION) {
+				// Nothing can be deleted safely without knowing which blobs are referenced
+				LOGGER.warn("Ignoring source blob references with unknown format: {}", refsPath);
+				return new Refs(counts, records);
+			}
+
+			while (true) {
+				final int type = in.read();
+
+				if (type < 0) {
+					break;
+				}
+
+				in.readFully(digest);
+				final int value = in.readInt();
+				final String key = HexFormat.of().formatHex(digest);
+				records++;
+
+				if (type == DELTA) {
+					counts.merge(key, value, Integer::sum);
+				} else if (type == SET) {
+					counts.put(key, value);
+				} else {
+					throw new IOException("Unknown source blob reference record type: " + type);
+				}
+			}
+		} catch (EOFException e) {
+			// A partially written record at the end of the journal, everything before it is still valid.
+			LOGGER.warn("Source blob references ended with an incomplete record: {}", refsPath);
+		}
+
+		return new Refs(counts, records);
+	}
+
+	/**
+	 * Atomically replace the reference journal with a single record per blob, only called while holding the lock
+	 * exclusively so that no other process is appending to it.
+	 */
+	private void writeRefs(Map<String, Integer> counts) throws IOException {
+		final Path tempPath = refsPath.resolveSibling(REFS_FILE_NAME + ".tmp");
+
+		try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+			out.writeInt(REFS_MAGIC);
+			out.writeInt(REFS_VERSION);
+
+			for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+				out.write(record(SET, entry.getKey(), entry.getValue()));
+			}
+		}
+
+		Files.move(tempPath, refsPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			locks.close();
+		}
+	}
+
+	private record Refs(Map<String, Integer> counts, long records) {
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2024 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.decompilers.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.gradle.api.Project;
+
+import net.fabricmc.loom.util.Constants;
+
+/**
+ * How the sources of a {@link CachedData} entry are stored.
+ *
+ * @param codec The codec used to compress the sources
+ * @param level The codec specific compression level
+ */
+public record SourceCompression(Codec codec, int level) {
+	public static final SourceCompression NONE = new SourceCompression(Codec.NONE, 0);
+	public static final SourceCompression DEFAULT = new SourceCompression(Codec.DEFLATE, Deflater.DEFAULT_COMPRESSION);
+
+	public static SourceCompression get(Project project) {
+		final Object codec = project.findProperty(Constants.Properties.DECOMPILE_CACHE_COMPRESSION);
+		final Object level = project.findProperty(Constants.Properties.DECOMPILE_CACHE_COMPRESSION_LEVEL);
+
+		if (codec == null && level == null) {
+			return DEFAULT;
+		}
+
+		return new SourceCompression(
+				codec == null ? DEFAULT.codec() : Codec.valueOf(codec.toString().toUpperCase(Locale.ROOT)),
+				level == null ? DEFAULT.level() : Integer.parseInt(level.toString())
+		);
+	}
+
+	public enum Codec {
+		/**
+		 * Stored as plain UTF-8 in a {@code SRC } chunk, readable by all versions.
+		 */
+		NONE(0) {
+			@Override
+			byte[] compress(byte[] data, int level) {
+				return data;
+			}
+
+			@Override
+			byte[] decompress(ByteBuffer data, int uncompressedLength) {
+				if (data.remaining() != uncompressedLength) {
+					throw new IllegalArgumentException("Stored data length does not match");
+				}
+
+				final byte[] result = new byte[uncompressedLength];
+				data.get(result);
+				return result;
+			}
+		},
+		/**
+		 * Raw deflate, without the zlib header or checksum.
+		 */
+		DEFLATE(1) {
+			@Override
+			byte[] compress(byte[] data, int level) {
+				final Deflater deflater = new Deflater(level, true);
+
+				try {
+					deflater.setInput(data);
+					deflater.finish();
+
+					final ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+					final byte[] buffer = new byte[8192];
+
+					while (!deflater.finished()) {
+						int count = deflater.deflate(buffer);
+						out.write(buffer, 0, count);
+					}
+
+					return out.toByteArray();
+				} finally {
+					deflater.end();
+				}
+			}
+
+			@Override
+			byte[] decompress(ByteBuffer data, int uncompressedLength) throws IOException {
+				final Inflater inflater = new Inflater(true);
+
+				try {
+					inflater.setInput(data);
+
+					final byte[] result = new byte[uncompressedLength];
+					int read = 0;
+
+					while (read < uncompressedLength) {
+						int count = inflater.inflate(result, read, uncompressedLength - read);
+
+						if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+							break;
+						}
+
+						read += count;
+					}
+
+					if (read != uncompressedLength) {
+						throw new IOException("Expected " + uncompressedLength + " bytes of sources but got " + read);
+					}
+
+					return result;
+				} catch (DataFormatException e) {
+					throw new IOException("Failed to inflate sources", e);
+				} finally {
+					inflater.end();
+				}
+			}
+		};
+
+		private final int id;
+
+		Codec(int id) {
+			this.id = id;
+		}
+
+		public int id() {
+			return id;
+		}
+
+		abstract byte[] compress(byte[] data, int level);
+
+		abstract byte[] decompress(ByteBuffer data, int uncompressedLength) throws IOException;
+
+		static Codec byId(int id) throws IOException {
+			for (Codec codec : values()) {
+				if (codec.id == id) {
+					return codec;
+				}
+			}
+
+			throw new IOException("Unknown source codec: " + id);
+		}
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2024 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.decompilers.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Streams entries into the final sources jar as they become available.
+ *
+ * <p>Cache hits are written while the cache is being queried, and the newly decompiled sources are appended once the work
+ * job has finished. Each source file is compressed exactly once, rather than first being written to an intermediate jar
+ * and then copied into the decompiler output.
+ */
+public final class SourcesJarWriter implements Closeable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(SourcesJarWriter.class);
+	private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+	private final Path path;
+	private final ZipOutputStream zipOutputStream;
+	private final Set<String> names = new HashSet<>();
+	private final byte[] copyBuffer = new byte[COPY_BUFFER_SIZE];
+	private boolean finished = false;
+
+	public SourcesJarWriter(Path path) throws IOException {
+		this.path = path;
+		this.zipOutputStream = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(path), COPY_BUFFER_SIZE));
+	}
+
+	public Path path() {
+		return path;
+	}
+
+	/**
+	 * @return true when at least one entry has been written
+	 */
+	public synchronized boolean hasEntries() {
+		return !names.isEmpty();
+	}
+
+	public synchronized void write(String name, ByteBuffer contents) throws IOException {
+		putNextEntry(name);
+
+		final ByteBuffer buffer = contents.duplicate();
+
+		while (buffer.hasRemaining()) {
+			final int length = Math.min(buffer.remaining(), copyBuffer.length);
+			buffer.get(copyBuffer, 0, length);
+			zipOutputStream.write(copyBuffer, 0, length);
+		}
+
+		zipOutputStream.closeEntry();
+	}
+
+	public synchronized void write(String name, byte[] contents) throws IOException {
+		putNextEntry(name);
+		zipOutputStream.write(contents);
+		zipOutputStream.closeEntry();
+	}
+
+	private void putNextEntry(String name) throws IOException {
+		if (finished) {
+			throw new IllegalStateException("Sources jar has already been finished: " + path);
+		}
+
+		if (!names.add(name)) {
+			throw new IllegalStateException("Duplicate sources jar entry: " + name);
+		}
+
+		zipOutputStream.putNextEntry(new ZipEntry(name));
+	}
+
+	/**
+	 * Write the central directory and close the jar.
+	 *
+	 * @return The path of the completed jar
+	 */
+	public synchronized Path finish() throws IOException {
+		if (!finished) {
+			finished = true;
+			zipOutputStream.close();
+		}
+
+		return path;
+	}
+
+	/**
+	 * Close the jar, deleting it if it was never finished.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (finished) {
+			return;
+		}
+
+		finished = true;
+
+		try {
+			zipOutputStream.close();
+		} catch (IOException e) {
+			LOGGER.debug("Failed to close unfinished sources jar: {}", path, e);
+		}
+
+		Files.deleteIfExists(path);
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2024 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.decompilers.cache;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed number of advisory file locks shared between processes, each guarding every key that hashes to it.
+ *
+ * <p>A file lock is held by the whole JVM, so each stripe is also guarded by an in process lock to keep threads of the
+ * same JVM apart. The stripe of a key only depends on {@link String#hashCode()}, so every process agrees on it.
+ *
+ * <p>File locks are acquired by polling {@link FileChannel#tryLock()} rather than blocking in {@link FileChannel#lock()}.
+ * POSIX record locks are owned by the process, so when several threads of two JVMs wait on each other's stripes the
+ * kernel can report a deadlock that does not exist. Another store over the same directory in this JVM holding the file
+ * lock is waited for in the same way.
+ */
+public final class StripedFileLock implements AutoCloseable {
+	static final int DEFAULT_STRIPES = 64;
+	private static final long MAX_BACKOFF_MILLIS = 20;
+
+	private final Path root;
+	private final ReentrantLock[] locks;
+	private final FileChannel[] channels;
+
+	StripedFileLock(Path root, int stripes) {
+		this.root = root;
+		this.locks = new ReentrantLock[stripes];
+		this.channels = new FileChannel[stripes];
+
+		for (int i = 0; i < stripes; i++) {
+			locks[i] = new ReentrantLock();
+		}
+	}
+
+	/**
+	 * Block until the stripe of the key is held by this thread, in this and every other process.
+	 */
+	Held lock(String key) throws IOException {
+		return lock(key, false);
+	}
+
+	/**
+	 * Block until the stripe of the key is held by this thread in shared mode. Other processes can hold it in shared
+	 * mode at the same time, but not through {@link #lock(String)}.
+	 */
+	Held lockShared(String key) throws IOException {
+		return lock(key, true);
+	}
+
+	private Held lock(String key, boolean shared) throws IOException {
+		final int stripe = Math.floorMod(key.hashCode(), locks.length);
+		final ReentrantLock lock = locks[stripe];
+		lock.lock();
+
+		try {
+			final FileLock fileLock = acquire(channel(stripe), 0, Long.MAX_VALUE, shared);
+			return () -> {
+				try {
+					fileLock.release();
+				} finally {
+					lock.unlock();
+				}
+			};
+		} catch (IOException | RuntimeException e) {
+			lock.unlock();
+			throw e;
+		}
+	}
+
+	/**
+	 * Block until the region of the file is locked, see the class doc for why this polls.
+	 */
+	static FileLock acquire(FileChannel channel, long position, long size, boolean shared) throws IOException {
+		long backoff = 1;
+
+		while (true) {
+			FileLock fileLock;
+
+			try {
+				fileLock = channel.tryLock(position, size, shared);
+			} catch (OverlappingFileLockException e) {
+				// Held through another channel of this JVM
+				fileLock = null;
+			}
+
+			if (fileLock != null) {
+				return fileLock;
+			}
+
+			try {
+				Thread.sleep(backoff);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for a cache lock");
+			}
+
+			backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+		}
+	}
+
+	// Only called while holding the in process lock of the stripe
+	private FileChannel channel(int stripe) throws IOException {
+		FileChannel channel = channels[stripe];
+
+		if (channel == null || !channel.isOpen()) {
+			Files.createDirectories(root);
+			channel = FileChannel.open(root.resolve(stripe + ".lock"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			channels[stripe] = channel;
+		}
+
+		return channel;
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (int i = 0; i < locks.length; i++) {
+			locks[i].lock();
+
+			try {
+				if (channels[i] != null) {
+					channels[i].close();
+					channels[i] = null;
+				}
+			} finally {
+				locks[i].unlock();
+			}
+		}
+	}
+
+	interface Held extends AutoCloseable {
+		@Override
+		void close() throws IOException;
+	}
+}
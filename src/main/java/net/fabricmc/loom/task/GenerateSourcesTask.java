@@ -0,0 +1,880 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2024 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.task;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import javax.inject.Inject;
+
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.options.Option;
+import org.gradle.internal.logging.progress.ProgressLoggerFactory;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
+import org.gradle.workers.internal.WorkerDaemonClientsManager;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.fabricmc.loom.api.decompilers.DecompilationMetadata;
+import net.fabricmc.loom.api.decompilers.DecompilerOptions;
+import net.fabricmc.loom.api.decompilers.LoomDecompiler;
+import net.fabricmc.loom.decompilers.ClassLineNumbers;
+import net.fabricmc.loom.decompilers.DecompileStats;
+import net.fabricmc.loom.decompilers.DecompilerSizing;
+import net.fabricmc.loom.decompilers.JarSharder;
+import net.fabricmc.loom.decompilers.JavadocIndex;
+import net.fabricmc.loom.decompilers.JavadocInjector;
+import net.fabricmc.loom.decompilers.LineNumberRemapper;
+import net.fabricmc.loom.decompilers.MappingsJavadocIndex;
+import net.fabricmc.loom.decompilers.cache.CacheWarmupIndex;
+import net.fabricmc.loom.decompilers.cache.CachedData;
+import net.fabricmc.loom.decompilers.cache.CachedFileStore;
+import net.fabricmc.loom.decompilers.cache.CachedFileStoreImpl;
+import net.fabricmc.loom.decompilers.cache.CachedJarProcessor;
+import net.fabricmc.loom.decompilers.cache.DecompileCacheBackend;
+import net.fabricmc.loom.decompilers.cache.SourceBlobStore;
+import net.fabricmc.loom.decompilers.cache.SourceCompression;
+import net.fabricmc.loom.util.Checksum;
+import net.fabricmc.loom.util.Constants;
+import net.fabricmc.loom.util.ExceptionUtil;
+import net.fabricmc.loom.util.FileSystemUtil;
+import net.fabricmc.loom.util.IOStringConsumer;
+import net.fabricmc.loom.util.Platform;
+import net.fabricmc.loom.util.gradle.ThreadedProgressLoggerConsumer;
+import net.fabricmc.loom.util.gradle.ThreadedSimpleProgressLogger;
+import net.fabricmc.loom.util.gradle.WorkerDaemonClientsManagerHelper;
+import net.fabricmc.loom.util.gradle.daemon.DecompilerDaemons;
+import net.fabricmc.loom.util.ipc.IPCClient;
+import net.fabricmc.loom.util.ipc.IPCServer;
+
+/**
+ * Decompiles a game jar with one of the registered decompilers, and remaps the line numbers of the game jar used at
+ * runtime to match the decompiled sources.
+ *
+ * <p>Decompiled classes are stored in the decompile cache, keyed by the decompiler and the hash of each class and its
+ * super types. Only the classes that miss the cache are sent to the decompiler, a fully cached jar does not start a
+ * decompiler at all.
+ */
+public abstract class GenerateSourcesTask extends AbstractLoomTask {
+	private static final Logger LOGGER = LoggerFactory.getLogger(GenerateSourcesTask.class);
+	private static final String CACHE_VERSION = "v1";
+	private static final CachedFileStoreImpl.CacheRules CACHE_RULES = new CachedFileStoreImpl.CacheRules(50_000, 2L * 1024 * 1024 * 1024, Duration.ofDays(90));
+	// A javadoc index is built per version of the mappings, only the most recently used ones are kept
+	private static final CachedFileStoreImpl.CacheRules JAVADOC_INDEX_RULES = new CachedFileStoreImpl.CacheRules(8, CACHE_RULES.maxBytes(), CACHE_RULES.maxAge());
+
+	private final DecompilerOptions decompilerOptions;
+
+	/**
+	 * The game jar to decompile, this is never modified.
+	 */
+	@InputFile
+	public abstract RegularFileProperty getInputJar();
+
+	/**
+	 * The game jar used at runtime, replaced with a copy of the input jar with the line numbers remapped.
+	 */
+	@OutputFile
+	public abstract RegularFileProperty getClassesOutputJar();
+
+	@OutputFile
+	public abstract RegularFileProperty getSourcesOutputJar();
+
+	/**
+	 * The classpath of the decompiler itself.
+	 */
+	@InputFiles
+	public abstract ConfigurableFileCollection getClasspath();
+
+	/**
+	 * The libraries of the game, used by the decompiler to resolve types.
+	 */
+	@InputFiles
+	public abstract ConfigurableFileCollection getLibraries();
+
+	/**
+	 * Mappings whose comments are inserted into the decompiled sources as javadoc. They are indexed once per version of
+	 * the file into the decompile cache directory, see {@link MappingsJavadocIndex}. When using the decompile cache the
+	 * javadoc is inserted after decompiling, so editing it does not invalidate the cache, see {@link JavadocInjector}.
+	 */
+	@InputFile
+	@Optional
+	public abstract RegularFileProperty getJavadocs();
+
+	@Input
+	@Option(option = "use-cache", description = "Use the decompile cache")
+	public abstract Property<Boolean> getUseCache();
+
+	@Input
+	@Option(option = "reset-cache", description = "Delete the decompile cache before decompiling")
+	public abstract Property<Boolean> getResetCache();
+
+	/**
+	 * Only decompile these classes and the classes nested within them, using the rest of the jar as a library. The
+	 * sources jar keeps every class decompiled this way until the whole jar is decompiled again, so it grows as more
+	 * classes are opened. Requires the decompile cache.
+	 */
+	@Input
+	@Optional
+	@Option(option = "class", description = "Only decompile the given class, can be given more than once")
+	public abstract ListProperty<String> getOnlyClasses();
+
+	/**
+	 * The maximum number of JVMs to split the decompilation across, see {@link JarSharder}.
+	 */
+	@Internal
+	public abstract Property<Integer> getMaxShards();
+
+	/**
+	 * How long to keep the decompiler JVMs alive once idle, to be reused by later decompile tasks of the same build.
+	 * Zero stops them as soon as the decompilation is done, see {@link DecompilerDaemons}.
+	 */
+	@Internal
+	public abstract Property<Duration> getDaemonIdleTimeout();
+
+	/**
+	 * Size the heap and threads of the decompiler JVMs from the number of classes and the previous runs, within the
+	 * memory and threads of the decompiler options, see {@link DecompilerSizing}.
+	 */
+	@Internal
+	public abstract Property<Boolean> getAdaptiveSizing();
+
+	@Internal
+	protected abstract DirectoryProperty getDecompileCacheDirectory();
+
+	@Internal
+	protected abstract Property<DecompileCacheBackend> getCacheBackend();
+
+	@Internal
+	protected abstract Property<SourceCompression> getCacheCompression();
+
+	@Inject
+	protected abstract WorkerExecutor getWorkerExecutor();
+
+	@Inject
+	protected abstract WorkerDaemonClientsManager getWorkerDaemonClientsManager();
+
+	@Inject
+	protected abstract ProgressLoggerFactory getProgressLoggerFactory();
+
+	@Inject
+	public GenerateSourcesTask(DecompilerOptions decompilerOptions) {
+		this.decompilerOptions = decompilerOptions;
+
+		getOutputs().upToDateWhen((o) -> false);
+		getClasspath().from(decompilerOptions.getClasspath()).finalizeValueOnRead();
+		dependsOn(decompilerOptions.getClasspath().getBuiltBy());
+
+		getUseCache().convention(true);
+		getResetCache().convention(getExtension().refreshDeps());
+		getDecompileCacheDirectory().set(getExtension().getFiles().getDecompileCache(CACHE_VERSION));
+		getCacheBackend().set(DecompileCacheBackend.get(getProject()));
+		getCacheCompression().set(SourceCompression.get(getProject()));
+
+		final Object daemonIdleTimeout = getProject().findProperty(Constants.Properties.DECOMPILE_DAEMON_IDLE_TIMEOUT);
+		getDaemonIdleTimeout().convention(daemonIdleTimeout != null ? Duration.ofMinutes(Long.parseLong(daemonIdleTimeout.toString())) : Duration.ZERO);
+
+		final Object adaptiveSizing = getProject().findProperty(Constants.Properties.DECOMPILE_ADAPTIVE_SIZING);
+		getAdaptiveSizing().convention(adaptiveSizing == null || Boolean.parseBoolean(adaptiveSizing.toString()));
+
+		final Object maxShards = getProject().findProperty(Constants.Properties.DECOMPILE_SHARDS);
+
+		if (maxShards != null) {
+			getMaxShards().convention(Integer.parseInt(maxShards.toString()));
+		} else {
+			final int maxWorkers = getProject().getGradle().getStartParameter().getMaxWorkerCount();
+			getMaxShards().convention(decompilerOptions.getMemory().map(memory -> JarSharder.maxShards(JarSharder.shardMemory(memory), maxWorkers)));
+		}
+	}
+
+	@Internal
+	public DecompilerOptions getDecompilerOptions() {
+		return decompilerOptions;
+	}
+
+	@TaskAction
+	public void run() throws IOException {
+		if (!Platform.CURRENT.getArchitecture().is64Bit()) {
+			throw new UnsupportedOperationException("GenSources task requires a 64bit JVM to run due to the memory requirements.");
+		}
+
+		try {
+			if (!getOnlyClasses().get().isEmpty()) {
+				if (!getUseCache().get()) {
+					throw new UnsupportedOperationException("Decompiling single classes requires the decompile cache");
+				}
+
+				runForClasses(getOnlyClasses().get());
+			} else if (getUseCache().get()) {
+				runWithCache();
+			} else {
+				runWithoutCache();
+			}
+		} catch (Exception e) {
+			ExceptionUtil.processException(e, getProject());
+			throw ExceptionUtil.createDescriptiveWrapper(RuntimeException::new, "Failed to decompile", e);
+		}
+	}
+
+	private void runWithoutCache() throws IOException {
+		final Path inputJar = getInputJar().get().getAsFile().toPath();
+		final Path sourcesJar = getSourcesOutputJar().get().getAsFile().toPath();
+		Files.deleteIfExists(sourcesJar);
+		Files.deleteIfExists(getOnlyClassesFile());
+
+		final ClassLineNumbers lineNumbers = runDecompileJob(inputJar, sourcesJar, null, getJavadocIndex());
+
+		if (Files.notExists(sourcesJar)) {
+			throw new RuntimeException("Failed to decompile sources");
+		}
+
+		remapLineNumbers(inputJar, lineNumbers);
+	}
+
+	private void runWithCache() throws IOException {
+		final Path cacheRoot = getDecompileCacheDirectory().get().getAsFile().toPath();
+
+		if (getResetCache().get()) {
+			LOGGER.warn("Resetting decompile cache");
+			deleteRecursively(cacheRoot);
+		}
+
+		Files.createDirectories(cacheRoot);
+
+		final Path inputJar = getInputJar().get().getAsFile().toPath();
+		final Path sourcesJar = getSourcesOutputJar().get().getAsFile().toPath();
+		final Path javadocIndex = getJavadocIndex();
+		final String decompilerKey = getDecompilerKey();
+		final String cacheKey = Checksum.sha256Hex(decompilerKey.getBytes(StandardCharsets.UTF_8));
+
+		LOGGER.info("Decompile cache key: {} ({})", cacheKey, decompilerKey);
+
+		final ClassLineNumbers lineNumbers;
+
+		try (SourceBlobStore sourceBlobs = SourceBlobStore.open(cacheRoot.resolve("blobs"), getCacheCompression().get());
+				CachedFileStore<CachedData> decompileCache = getCacheBackend().get().open(cacheRoot.resolve("entries"), CachedData.serializer(sourceBlobs), CACHE_RULES)) {
+			final CachedJarProcessor cachedJarProcessor = new CachedJarProcessor(decompileCache, cacheKey, CachedJarProcessor.DEFAULT_PARALLELISM, sourceBlobs);
+			// The key does not depend on the game version, so the unchanged classes of a new version are plain cache hits
+			final var warmup = new CachedJarProcessor.Warmup(new CacheWarmupIndex(cacheRoot.resolve("warmup")), null);
+			final CachedJarProcessor.WorkRequest workRequest = cachedJarProcessor.prepareJob(inputJar, warmup);
+			final CachedJarProcessor.CacheStats cacheStats = workRequest.stats();
+
+			getLogger().lifecycle("Decompile cache stats: {} hits, {} misses, {} classes changed and {} new since the last decompile",
+					cacheStats.hits(), cacheStats.misses(), cacheStats.changed(), cacheStats.added());
+
+			try (CachedJarProcessor.WorkJob job = workRequest.job()) {
+				ClassLineNumbers outputLineNumbers = null;
+
+				if (job instanceof CachedJarProcessor.WorkToDoJob workToDoJob) {
+					final Path existingClasses = job instanceof CachedJarProcessor.PartialWorkJob partialWorkJob ? partialWorkJob.existingClasses() : null;
+					// The javadoc is inserted afterwards, so that it is not part of the cached sources
+					outputLineNumbers = runDecompileJob(workToDoJob.incomplete(), workToDoJob.output(), existingClasses, null);
+
+					if (Files.notExists(workToDoJob.output())) {
+						throw new RuntimeException("Failed to decompile sources");
+					}
+				}
+
+				Files.deleteIfExists(sourcesJar);
+				Files.deleteIfExists(getOnlyClassesFile());
+				cachedJarProcessor.completeJob(sourcesJar, job, outputLineNumbers);
+				lineNumbers = injectJavadoc(inputJar, sourcesJar, javadocIndex, ClassLineNumbers.merge(workRequest.lineNumbers(), outputLineNumbers));
+			}
+
+			decompileCache.prune();
+			// After the entries, so that the blobs of evicted entries are deleted straight away
+			sourceBlobs.prune();
+		}
+
+		remapLineNumbers(inputJar, lineNumbers);
+	}
+
+	/**
+	 * Decompile the requested classes along with those requested by previous runs, looking each of them up in the
+	 * cache. Only the misses are decompiled, with the whole input jar as a library. The sources jar is rebuilt from the
+	 * cache each time rather than merged into, so it always matches the input jar and the line numbers of the classes jar.
+	 */
+	private void runForClasses(List<String> requestedClasses) throws IOException {
+		final Path cacheRoot = getDecompileCacheDirectory().get().getAsFile().toPath();
+
+		if (getResetCache().get()) {
+			LOGGER.warn("Resetting decompile cache");
+			deleteRecursively(cacheRoot);
+		}
+
+		Files.createDirectories(cacheRoot);
+
+		final Path inputJar = getInputJar().get().getAsFile().toPath();
+		final Path sourcesJar = getSourcesOutputJar().get().getAsFile().toPath();
+		final Path onlyClassesFile = getOnlyClassesFile();
+		final Path javadocIndex = getJavadocIndex();
+		final String cacheKey = Checksum.sha256Hex(getDecompilerKey().getBytes(StandardCharsets.UTF_8));
+
+		final Set<String> classNames = new LinkedHashSet<>();
+
+		if (Files.exists(onlyClassesFile) && Files.exists(sourcesJar)) {
+			classNames.addAll(Files.readAllLines(onlyClassesFile));
+		}
+
+		for (String className : requestedClasses) {
+			classNames.add(className.replace('.', '/'));
+		}
+
+		final ClassLineNumbers lineNumbers;
+
+		try (SourceBlobStore sourceBlobs = SourceBlobStore.open(cacheRoot.resolve("blobs"), getCacheCompression().get());
+				CachedFileStore<CachedData> decompileCache = getCacheBackend().get().open(cacheRoot.resolve("entries"), CachedData.serializer(sourceBlobs), CACHE_RULES)) {
+			final CachedJarProcessor cachedJarProcessor = new CachedJarProcessor(decompileCache, cacheKey, CachedJarProcessor.DEFAULT_PARALLELISM, sourceBlobs);
+			final CachedJarProcessor.WorkRequest workRequest = cachedJarProcessor.prepareClassJob(inputJar, classNames);
+			final CachedJarProcessor.CacheStats cacheStats = workRequest.stats();
+
+			getLogger().lifecycle("Decompile cache stats for {} classes: {} hits, {} misses", classNames.size(), cacheStats.hits(), cacheStats.misses());
+
+			try (CachedJarProcessor.WorkJob job = workRequest.job()) {
+				ClassLineNumbers outputLineNumbers = null;
+
+				if (job instanceof CachedJarProcessor.WorkToDoJob workToDoJob) {
+					// The input jar contains the cache hits too, and every other class the misses may refer to
+					outputLineNumbers = runDecompileJob(workToDoJob.incomplete(), workToDoJob.output(), inputJar, null);
+
+					if (Files.notExists(workToDoJob.output())) {
+						throw new RuntimeException("Failed to decompile sources");
+					}
+				}
+
+				Files.deleteIfExists(sourcesJar);
+				cachedJarProcessor.completeJob(sourcesJar, job, outputLineNumbers);
+				lineNumbers = injectJavadoc(inputJar, sourcesJar, javadocIndex, ClassLineNumbers.merge(workRequest.lineNumbers(), outputLineNumbers));
+			}
+
+			decompileCache.prune();
+			sourceBlobs.prune();
+		}
+
+		try (FileSystemUtil.Delegate sourcesFs = FileSystemUtil.getJarFileSystem(sourcesJar, false)) {
+			for (String className : requestedClasses) {
+				final String topLevelClass = className.replace('.', '/').split("\\$", 2)[0];
+
+				if (Files.notExists(sourcesFs.getPath(topLevelClass + ".java"))) {
+					getLogger().warn("Class {} was not found in {}", className, inputJar.getFileName());
+				}
+			}
+		}
+
+		Files.write(onlyClassesFile, classNames);
+		remapLineNumbers(inputJar, lineNumbers);
+	}
+
+	// Lists the classes in the sources jar when it was decompiled one class at a time
+	private Path getOnlyClassesFile() {
+		final Path sourcesJar = getSourcesOutputJar().get().getAsFile().toPath();
+		return sourcesJar.resolveSibling(sourcesJar.getFileName() + ".classes");
+	}
+
+	/**
+	 * Insert the javadoc into a sources jar that was decompiled without it, see {@link JavadocInjector}.
+	 *
+	 * @return The line numbers moved past the inserted javadoc
+	 */
+	@Nullable
+	private ClassLineNumbers injectJavadoc(Path inputJar, Path sourcesJar, @Nullable Path javadocIndex, @Nullable ClassLineNumbers lineNumbers) throws IOException {
+		if (javadocIndex == null) {
+			return lineNumbers;
+		}
+
+		final Path tempJar = sourcesJar.resolveSibling(sourcesJar.getFileName() + ".javadoc");
+		Files.deleteIfExists(tempJar);
+
+		final long start = System.nanoTime();
+		final var injector = new JavadocInjector(JavadocIndex.open(javadocIndex));
+		final ClassLineNumbers injectedLineNumbers = injector.injectJar(inputJar, sourcesJar, tempJar, lineNumbers, CachedJarProcessor.DEFAULT_PARALLELISM);
+		Files.move(tempJar, sourcesJar, StandardCopyOption.REPLACE_EXISTING);
+
+		getLogger().info("Inserted javadoc in {} ms", (System.nanoTime() - start) / 1_000_000);
+		return injectedLineNumbers;
+	}
+
+	private void remapLineNumbers(Path inputJar, @Nullable ClassLineNumbers lineNumbers) throws IOException {
+		final Path classesJar = getClassesOutputJar().get().getAsFile().toPath();
+		final Path tempJar = classesJar.resolveSibling(classesJar.getFileName() + ".linemapped");
+
+		if (lineNumbers == null) {
+			LOGGER.info("No line numbers to remap, restoring the unmodified jar");
+			Files.copy(inputJar, tempJar, StandardCopyOption.REPLACE_EXISTING);
+		} else {
+			Files.deleteIfExists(tempJar);
+			new LineNumberRemapper(lineNumbers).process(inputJar, tempJar);
+		}
+
+		Files.move(tempJar, classesJar, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Decompile a jar, split into shards that are each decompiled by their own JVM when it is large enough.
+	 */
+	@Nullable
+	private ClassLineNumbers runDecompileJob(Path inputJar, Path outputJar, @Nullable Path existingClasses, @Nullable Path javadocIndex) throws IOException {
+		final Path workDir = Files.createTempDirectory("loom-decompile");
+
+		try {
+			final List<Path> shardJars = JarSharder.split(inputJar, workDir.resolve("shards"), getMaxShards().get());
+			final List<DecompileShard> shards = new ArrayList<>(shardJars.size());
+
+			for (int i = 0; i < shardJars.size(); i++) {
+				final Path shardOutput = shardJars.size() == 1 ? outputJar : workDir.resolve("output-" + i + ".jar");
+				shards.add(new DecompileShard(shardJars.get(i), shardOutput, workDir.resolve("linemap-" + i), workDir.resolve("stats-" + i), JarSharder.countClasses(shardJars.get(i))));
+			}
+
+			final List<File> classpath = new ArrayList<>();
+
+			if (shards.size() > 1) {
+				// The other shards are needed to resolve references between them
+				classpath.add(inputJar.toFile());
+			}
+
+			if (existingClasses != null) {
+				classpath.add(existingClasses.toFile());
+			}
+
+			decompileShards(shards, classpath, javadocIndex);
+
+			ClassLineNumbers lineNumbers = null;
+
+			for (DecompileShard shard : shards) {
+				lineNumbers = ClassLineNumbers.merge(lineNumbers, readLineNumbers(shard.lineMapFile()));
+			}
+
+			if (shards.size() > 1) {
+				for (DecompileShard shard : shards) {
+					if (Files.notExists(shard.outputJar())) {
+						throw new RuntimeException("Failed to decompile " + shard.inputJar().getFileName());
+					}
+				}
+
+				JarSharder.merge(shards.stream().map(DecompileShard::outputJar).toList(), outputJar);
+			}
+
+			if (lineNumbers != null && !useProcessIsolation()) {
+				// The line map is handed over in binary, keep a readable copy when debugging the decompiler
+				final Path sourcesJar = getSourcesOutputJar().get().getAsFile().toPath();
+				final Path textFile = sourcesJar.resolveSibling(sourcesJar.getFileName() + ".linemap.txt");
+
+				try (Writer writer = Files.newBufferedWriter(textFile)) {
+					lineNumbers.write(writer);
+				}
+
+				getLogger().lifecycle("Wrote line map to {}", textFile);
+			}
+
+			return lineNumbers;
+		} finally {
+			deleteRecursively(workDir);
+		}
+	}
+
+	// Needed on every run with javadoc, even a fully cached one, as the cached sources are stored without it
+	@Nullable
+	private Path getJavadocIndex() throws IOException {
+		if (!getJavadocs().isPresent()) {
+			return null;
+		}
+
+		final Path directory = getDecompileCacheDirectory().get().getAsFile().toPath().resolve("javadoc");
+		final Path index = MappingsJavadocIndex.getOrBuild(getJavadocs().get().getAsFile().toPath(), directory);
+		MappingsJavadocIndex.prune(directory, JAVADOC_INDEX_RULES);
+		return index;
+	}
+
+	private void decompileShards(List<DecompileShard> shards, List<File> classpath, @Nullable Path javadocIndex) throws IOException {
+		if (!Platform.CURRENT.supportsUnixDomainSockets()) {
+			getLogger().warn("Decompile worker logging disabled as Unix Domain Sockets is not supported on your operating system.");
+			doWork(shards, List.of(), classpath, javadocIndex);
+			return;
+		}
+
+		// Set up an IPC path per worker to get the log output back from the forked JVMs
+		final List<ThreadedProgressLoggerConsumer> loggerConsumers = new ArrayList<>();
+		final List<IPCServer> logReceivers = new ArrayList<>();
+
+		try {
+			for (int i = 0; i < shards.size(); i++) {
+				final Path ipcPath = Files.createTempFile("loom", "ipc");
+				Files.deleteIfExists(ipcPath);
+
+				final String name = shards.size() == 1 ? decompilerOptions.getName() : "%s (%d/%d)".formatted(decompilerOptions.getName(), i + 1, shards.size());
+				final var loggerConsumer = new ThreadedProgressLoggerConsumer(getLogger(), getProgressLoggerFactory(), name, "Decompiling game sources");
+				loggerConsumers.add(loggerConsumer);
+				logReceivers.add(new IPCServer(ipcPath, loggerConsumer));
+			}
+
+			doWork(shards, logReceivers, classpath, javadocIndex);
+		} finally {
+			for (IPCServer logReceiver : logReceivers) {
+				try {
+					logReceiver.close();
+				} catch (InterruptedException e) {
+					throw new RuntimeException("Failed to shutdown log receiver", e);
+				} finally {
+					Files.deleteIfExists(logReceiver.getPath());
+				}
+			}
+
+			loggerConsumers.forEach(ThreadedProgressLoggerConsumer::close);
+		}
+	}
+
+	private void doWork(List<DecompileShard> shards, List<IPCServer> ipcServers, List<File> classpath, @Nullable Path javadocIndex) throws IOException {
+		final DecompilerOptions.Dto options = decompilerOptions.toDto();
+		// Split the threads between the shards, as they all run at the same time
+		final int maxThreads = Math.max(1, (options.maxThreads() + shards.size() - 1) / shards.size());
+		final long maxMemory = shards.size() == 1 ? decompilerOptions.getMemory().get() : JarSharder.shardMemory(decompilerOptions.getMemory().get());
+
+		// Only measured in a JVM of its own
+		final DecompilerSizing sizing = getAdaptiveSizing().get() && useProcessIsolation() ? DecompilerSizing.load(getSizingHistory(options.className())) : null;
+		// Every shard is sized for the largest one, so that they share the same fork options
+		final int maxClasses = shards.stream().mapToInt(DecompileShard::classes).max().orElse(-1);
+		final DecompilerSizing.Size size = sizing != null && maxClasses >= 0 ? sizing.size(maxClasses, maxMemory, maxThreads) : new DecompilerSizing.Size(maxMemory, maxThreads);
+		final long memory = size.memory();
+
+		if (sizing != null) {
+			getLogger().info("Decompiling up to {} classes per JVM with {} MB of heap and {} threads", maxClasses, memory, size.threads());
+		}
+
+		final Duration idleTimeout = getDaemonIdleTimeout().get();
+		final boolean keepAlive = useProcessIsolation() && idleTimeout.compareTo(Duration.ZERO) > 0;
+		// Identifies the fork options, Gradle hands the work to any idle JVM with the same options and starts more as needed
+		final String daemonMarker = keepAlive ? DecompilerDaemons.marker(String.join(",", options.className(), fileCollectionHash(getClasspath()), Long.toString(memory))) : null;
+
+		final List<String> jvmMarkerValues = new ArrayList<>();
+		final List<WorkQueue> workQueues = new ArrayList<>();
+
+		for (int i = 0; i < shards.size(); i++) {
+			final DecompileShard shard = shards.get(i);
+			final IPCServer ipcServer = ipcServers.isEmpty() ? null : ipcServers.get(i);
+
+			// Every shard gets its own JVM, the marker is used to find and stop it afterwards
+			final String jvmMarkerValue = keepAlive ? daemonMarker : UUID.randomUUID().toString();
+			final WorkQueue workQueue = createWorkQueue(jvmMarkerValue, memory);
+			jvmMarkerValues.add(jvmMarkerValue);
+			workQueues.add(workQueue);
+
+			workQueue.submit(DecompileAction.class, params -> {
+				params.getDecompilerOptions().set(new DecompilerOptions.Dto(options.className(), options.options(), size.threads()));
+
+				params.getInputJar().set(shard.inputJar().toFile());
+				params.getOutputJar().set(shard.outputJar().toFile());
+				params.getLinemapFile().set(shard.lineMapFile().toFile());
+
+				if (sizing != null) {
+					params.getStatsFile().set(shard.statsFile().toFile());
+				}
+
+				if (ipcServer != null) {
+					params.getIPCPath().set(ipcServer.getPath().toFile());
+				}
+
+				if (javadocIndex != null) {
+					params.getJavadocIndex().set(javadocIndex.toFile());
+				}
+
+				params.getClassPath().from(getLibraries());
+				params.getClassPath().from(classpath);
+			});
+		}
+
+		// Submitting only queues the work, so this is paired with the release below
+		final boolean warm = keepAlive && DecompilerDaemons.acquire(daemonMarker);
+		final long start = System.nanoTime();
+
+		try {
+			workQueues.forEach(WorkQueue::await);
+
+			if (keepAlive) {
+				getLogger().lifecycle("Decompiled in {} ms with {} decompiler JVMs", (System.nanoTime() - start) / 1_000_000, warm ? "warm" : "new");
+			}
+
+			if (sizing != null) {
+				recordSizing(sizing, shards, size);
+			}
+		} finally {
+			if (keepAlive) {
+				DecompilerDaemons.release(getWorkerDaemonClientsManager(), daemonMarker, idleTimeout);
+			} else if (useProcessIsolation()) {
+				// The decompiler JVMs hold gigabytes of heap, don't keep them around as idle workers
+				for (int i = 0; i < jvmMarkerValues.size(); i++) {
+					boolean stopped = WorkerDaemonClientsManagerHelper.stopIdleJVM(getWorkerDaemonClientsManager(), jvmMarkerValues.get(i));
+
+					if (!stopped && !ipcServers.isEmpty() && ipcServers.get(i).hasReceivedMessage()) {
+						LOGGER.info("Failed to stop decompile worker JVM, it may have already been stopped?");
+					}
+				}
+			}
+		}
+	}
+
+	private static void recordSizing(DecompilerSizing sizing, List<DecompileShard> shards, DecompilerSizing.Size size) throws IOException {
+		for (DecompileShard shard : shards) {
+			if (shard.classes() < 0 || Files.notExists(shard.statsFile())) {
+				continue;
+			}
+
+			final DecompileStats stats = DecompileStats.read(shard.statsFile());
+			LOGGER.info("Decompiled {} classes in {} ms, {} ms in GC with up to {} MB live", shard.classes(), stats.wallMillis(), stats.gcMillis(), stats.peakLiveBytes() / (1024 * 1024));
+			sizing.record(shard.classes(), size, stats);
+		}
+
+		sizing.save();
+	}
+
+	private Path getSizingHistory(String decompilerClassName) throws IOException {
+		final String name = Checksum.sha256Hex(decompilerClassName.getBytes(StandardCharsets.UTF_8));
+		return getDecompileCacheDirectory().get().getAsFile().toPath().resolve("sizing").resolve(name + ".hist");
+	}
+
+	private WorkQueue createWorkQueue(String jvmMarkerValue, long memory) {
+		if (!useProcessIsolation()) {
+			return getWorkerExecutor().classLoaderIsolation(spec -> {
+				spec.getClasspath().from(getClasspath());
+			});
+		}
+
+		return getWorkerExecutor().processIsolation(spec -> {
+			spec.forkOptions(forkOptions -> {
+				forkOptions.setMinHeapSize(String.format(Locale.ENGLISH, "%dm", Math.min(512, memory)));
+				forkOptions.setMaxHeapSize(String.format(Locale.ENGLISH, "%dm", memory));
+				forkOptions.systemProperty(WorkerDaemonClientsManagerHelper.MARKER_PROP, jvmMarkerValue);
+			});
+			spec.getClasspath().from(getClasspath());
+		});
+	}
+
+	private static boolean useProcessIsolation() {
+		// Useful if you want to debug the decompiler, make sure you run gradle with enough memory.
+		return !Boolean.getBoolean("fabric.loom.genSources.debug");
+	}
+
+	@Nullable
+	private static ClassLineNumbers readLineNumbers(Path lineMapFile) throws IOException {
+		if (Files.notExists(lineMapFile) || Files.size(lineMapFile) == 0) {
+			return null;
+		}
+
+		return ClassLineNumbers.read(lineMapFile);
+	}
+
+	// Everything that changes the output of the decompiler for the same input
+	private String getDecompilerKey() {
+		var sj = new StringJoiner(",");
+		sj.add(CACHE_VERSION);
+		sj.add(decompilerOptions.getDecompilerClassName().get());
+		sj.add(fileCollectionHash(decompilerOptions.getClasspath()));
+
+		for (Map.Entry<String, String> entry : decompilerOptions.getOptions().get().entrySet()) {
+			sj.add(entry.getKey() + "=" + entry.getValue());
+		}
+
+		return sj.toString();
+	}
+
+	private static String fileCollectionHash(FileCollection files) {
+		var sj = new StringJoiner(",");
+
+		files.getFiles().stream()
+				.sorted()
+				.map(file -> {
+					try {
+						return Checksum.sha256Hex(file.toPath());
+					} catch (IOException e) {
+						throw new UncheckedIOException("Failed to hash " + file, e);
+					}
+				})
+				.forEach(sj::add);
+
+		return sj.toString();
+	}
+
+	private static void deleteRecursively(Path path) throws IOException {
+		if (Files.notExists(path)) {
+			return;
+		}
+
+		try (var walk = Files.walk(path)) {
+			for (Path file : walk.sorted(Comparator.reverseOrder()).toList()) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	/**
+	 * @param classes The number of classes in the input jar, or -1 if unknown
+	 */
+	private record DecompileShard(Path inputJar, Path outputJar, Path lineMapFile, Path statsFile, int classes) {
+	}
+
+	public interface DecompileParams extends WorkParameters {
+		Property<DecompilerOptions.Dto> getDecompilerOptions();
+
+		RegularFileProperty getInputJar();
+		RegularFileProperty getOutputJar();
+		RegularFileProperty getLinemapFile();
+
+		/**
+		 * Where to write the {@link DecompileStats} of the decompilation.
+		 */
+		RegularFileProperty getStatsFile();
+
+		RegularFileProperty getIPCPath();
+
+		/**
+		 * A {@link net.fabricmc.loom.decompilers.JavadocIndex}, if javadoc should be inserted.
+		 */
+		RegularFileProperty getJavadocIndex();
+
+		ConfigurableFileCollection getClassPath();
+	}
+
+	public abstract static class DecompileAction implements WorkAction<DecompileParams> {
+		@Override
+		public void execute() {
+			if (!getParameters().getIPCPath().isPresent() || !Platform.CURRENT.supportsUnixDomainSockets()) {
+				// Does not support unix domain sockets, print to sout.
+				doDecompile(System.out::println);
+				return;
+			}
+
+			final Path ipcPath = getParameters().getIPCPath().get().getAsFile().toPath();
+
+			try (IPCClient ipcClient = new IPCClient(ipcPath)) {
+				doDecompile(new ThreadedSimpleProgressLogger(ipcClient));
+			} catch (Exception e) {
+				throw ExceptionUtil.createDescriptiveWrapper(RuntimeException::new, "Failed to decompile", e);
+			}
+		}
+
+		private void doDecompile(IOStringConsumer logger) {
+			final Path inputJar = getParameters().getInputJar().get().getAsFile().toPath();
+			final Path linemap = getParameters().getLinemapFile().get().getAsFile().toPath();
+			final Path outputJar = getParameters().getOutputJar().get().getAsFile().toPath();
+
+			final DecompilerOptions.Dto decompilerOptions = getParameters().getDecompilerOptions().get();
+
+			final LoomDecompiler decompiler;
+
+			try {
+				final String className = decompilerOptions.className();
+				final Constructor<LoomDecompiler> decompilerConstructor = getDecompilerConstructor(className);
+				Objects.requireNonNull(decompilerConstructor, "%s must have a no args constructor".formatted(className));
+
+				decompiler = decompilerConstructor.newInstance();
+			} catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+				throw new RuntimeException("Failed to create decompiler", e);
+			}
+
+			final Path javadocIndex = getParameters().getJavadocIndex().isPresent() ? getParameters().getJavadocIndex().get().getAsFile().toPath() : null;
+
+			final var metadata = new DecompilationMetadata(
+					decompilerOptions.maxThreads(),
+					javadocIndex,
+					getLibraries(),
+					logger,
+					decompilerOptions.options()
+			);
+
+			try (DecompileStats.Recorder stats = DecompileStats.start()) {
+				decompiler.decompile(
+						inputJar,
+						outputJar,
+						linemap,
+						metadata
+				);
+
+				if (getParameters().getStatsFile().isPresent()) {
+					stats.finish().write(getParameters().getStatsFile().get().getAsFile().toPath());
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException("Failed to write decompile stats", e);
+			}
+
+			try {
+				// Close the decompile loggers
+				logger.accept(ThreadedProgressLoggerConsumer.CLOSE_LOGGERS);
+			} catch (IOException e) {
+				throw new UncheckedIOException("Failed to close loggers", e);
+			}
+		}
+
+		private Collection<Path> getLibraries() {
+			return getParameters().getClassPath().getFiles().stream().map(File::toPath).collect(Collectors.toSet());
+		}
+	}
+
+	@Nullable
+	@SuppressWarnings("unchecked")
+	private static Constructor<LoomDecompiler> getDecompilerConstructor(String clazz) {
+		try {
+			return (Constructor<LoomDecompiler>) Class.forName(clazz).getConstructor();
+		} catch (NoSuchMethodException e) {
+			return null;
+		} catch (ClassNotFoundException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -39,8 +39,11 @@ import org.gradle.api.tasks.TaskContainer;
 import org.gradle.api.tasks.TaskProvider;
 
 import net.fabricmc.loom.LoomGradleExtension;
+import net.fabricmc.loom.api.decompilers.DecompilerOptions;
 import net.fabricmc.loom.configuration.ide.RunConfigSettings;
+import net.fabricmc.loom.configuration.providers.cosmicreach.CosmicReachJar;
 import net.fabricmc.loom.configuration.providers.cosmicreach.CosmicReachJarConfiguration;
+import net.fabricmc.loom.configuration.providers.cosmicreach.FinalizedCosmicReachProvider;
 import net.fabricmc.loom.task.launch.GenerateDLIConfigTask;
 import net.fabricmc.loom.task.launch.GenerateLog4jConfigTask;
 import net.fabricmc.loom.util.Constants;
@@ -48,9 +51,15 @@ import net.fabricmc.loom.util.gradle.GradleUtils;
 
 import org.gradle.api.tasks.bundling.Jar;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
 
 public abstract class LoomTasks implements Runnable {
+	private static final String DEFAULT_DECOMPILER = "vineflower";
+
 	@Inject
 	protected abstract Project getProject();
 
@@ -120,6 +129,7 @@ public abstract class LoomTasks implements Runnable {
 
 		registerIDETasks();
 		registerRunTasks();
+		registerDecompileTasks();
 
 		// Must be done in afterEvaluate to allow time for the build script to configure the jar config.
 		GradleUtils.afterSuccessfulEvaluation(getProject(), () -> {
@@ -141,6 +151,43 @@ public abstract class LoomTasks implements Runnable {
 		});
 	}
 
+	private void registerDecompileTasks() {
+		// Must be done in afterEvaluate to allow time for the build script to configure the decompilers and jar config.
+		GradleUtils.afterSuccessfulEvaluation(getProject(), () -> {
+			LoomGradleExtension extension = LoomGradleExtension.get(getProject());
+			final List<CosmicReachJar> cosmicReachJars = extension.getFinalizedCosmicReachProvider().getCosmicReachJars();
+			final List<TaskProvider<GenerateSourcesTask>> defaultTasks = new ArrayList<>();
+
+			for (DecompilerOptions options : extension.getDecompilerOptions()) {
+				for (CosmicReachJar cosmicReachJar : cosmicReachJars) {
+					final String jarName = cosmicReachJars.size() == 1 ? "" : cosmicReachJar.getName().substring(0, 1).toUpperCase(Locale.ROOT) + cosmicReachJar.getName().substring(1);
+					final String taskName = "gen" + jarName + "SourcesWith" + options.getFormattedName();
+
+					final TaskProvider<GenerateSourcesTask> task = getTasks().register(taskName, GenerateSourcesTask.class, options);
+					task.configure(t -> {
+						t.setDescription("Decompile the " + cosmicReachJar.getName() + " jar using " + options.getFormattedName());
+
+						final Path runtimeJar = cosmicReachJar.getPath();
+						t.getInputJar().set(FinalizedCosmicReachProvider.getBackupJarPath(cosmicReachJar).toFile());
+						t.getClassesOutputJar().set(runtimeJar.toFile());
+						t.getSourcesOutputJar().set(runtimeJar.resolveSibling(runtimeJar.getFileName().toString().replace(".jar", "-sources.jar")).toFile());
+						t.getLibraries().from(getProject().getConfigurations().named(Constants.Configurations.COSMICREACH_COMPILE_LIBRARIES));
+					});
+
+					if (options.getName().equals(DEFAULT_DECOMPILER)) {
+						defaultTasks.add(task);
+					}
+				}
+			}
+
+			getTasks().register("genSources", task -> {
+				task.setDescription("Decompile the game jars using the default decompiler (" + DEFAULT_DECOMPILER + ")");
+				task.setGroup(Constants.TaskGroup.PUZZLE);
+				task.dependsOn(defaultTasks);
+			});
+		});
+	}
+
 	private void registerIDETasks() {
 		getTasks().register("genEclipseRuns", GenEclipseRunsTask.class, t -> {
 			t.setDescription("Generates Eclipse run configurations for this project.");
@@ -138,6 +138,34 @@ public class Constants {
 		 * Only set this when you have a good reason to do so, the default should be fine for almost all cases.
 		 */
 		public static final String RUNTIME_JAVA_COMPATIBILITY_VERSION = "fabric.loom.runtimeJavaCompatibilityVersion";
+		/**
+		 * The storage layout used by the decompile cache, either {@code files} (the default) or {@code packed}.
+		 */
+		public static final String DECOMPILE_CACHE_BACKEND = "fabric.loom.decompileCacheBackend";
+		/**
+		 * The codec used to compress sources stored in the decompile cache, either {@code deflate} (the default) or {@code none}.
+		 */
+		public static final String DECOMPILE_CACHE_COMPRESSION = "fabric.loom.decompileCacheCompression";
+		/**
+		 * The compression level passed to the decompile cache codec.
+		 */
+		public static final String DECOMPILE_CACHE_COMPRESSION_LEVEL = "fabric.loom.decompileCacheCompressionLevel";
+		/**
+		 * The maximum number of JVMs a jar is split across when decompiling, {@code 1} disables sharding. Defaults to
+		 * what the available cores and memory allow.
+		 */
+		public static final String DECOMPILE_SHARDS = "fabric.loom.decompileShards";
+		/**
+		 * Keep the decompiler JVMs alive for this many minutes after decompiling, so that later decompile tasks of the same
+		 * build start warm. Gradle stops them at the end of the build regardless. Disabled by default, as each JVM holds on
+		 * to the full decompiler heap.
+		 */
+		public static final String DECOMPILE_DAEMON_IDLE_TIMEOUT = "fabric.loom.decompileDaemonIdleTimeout";
+		/**
+		 * Size the heap and threads of the decompiler JVMs from the number of classes to decompile and the previous runs,
+		 * within the configured memory and threads. Enabled by default, set to {@code false} to always use the maximums.
+		 */
+		public static final String DECOMPILE_ADAPTIVE_SIZING = "fabric.loom.decompileAdaptiveSizing";
 	}
 
 	public static final class Manifest {
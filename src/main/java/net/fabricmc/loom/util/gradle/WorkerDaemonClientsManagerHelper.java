@@ -26,10 +26,11 @@ package net.fabricmc.loom.util.gradle;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 
 import org.gradle.api.Transformer;
 import org.gradle.workers.internal.DaemonForkOptions;
@@ -39,24 +40,44 @@ public class WorkerDaemonClientsManagerHelper {
 	public static final String MARKER_PROP = "fabric.loom.decompile.worker";
 
 	public static boolean stopIdleJVM(WorkerDaemonClientsManager manager, String jvmMarkerValue) {
-		AtomicBoolean stopped = new AtomicBoolean(false);
+		return stopIdleJVMs(manager, jvmMarkerValue) > 0;
+	}
+
+	/**
+	 * Stop every idle JVM with the marker, JVMs that are busy are left running.
+	 *
+	 * @return The number of JVMs that were stopped
+	 */
+	public static int stopIdleJVMs(WorkerDaemonClientsManager manager, String jvmMarkerValue) {
+		return stopIdleJVMs(manager, jvmMarkerValue::equals);
+	}
+
+	/**
+	 * Stop every idle JVM with a marker accepted by the filter, JVMs that are busy are left running.
+	 *
+	 * @return The number of JVMs that were stopped
+	 */
+	public static int stopIdleJVMs(WorkerDaemonClientsManager manager, Predicate<String> jvmMarkerFilter) {
+		AtomicInteger stopped = new AtomicInteger();
 
 		/* Transformer<List<WorkerDaemonClient>, List<WorkerDaemonClient>> */
 		Transformer<List<Object>, List<Object>> transformer = workerDaemonClients -> {
+			List<Object> toStop = new ArrayList<>();
+
 			for (Object /* WorkerDaemonClient */ client : workerDaemonClients) {
 				DaemonForkOptions forkOptions = getForkOptions(client);
 				Map<String, Object> systemProperties = forkOptions.getJavaForkOptions().getSystemProperties();
 
-				if (systemProperties == null || !jvmMarkerValue.equals(systemProperties.get(MARKER_PROP))) {
+				if (systemProperties == null || !(systemProperties.get(MARKER_PROP) instanceof String marker) || !jvmMarkerFilter.test(marker)) {
 					// Not the JVM we are looking for
 					continue;
 				}
 
-				stopped.set(true);
-				return Collections.singletonList(client);
+				toStop.add(client);
 			}
 
-			return Collections.emptyList();
+			stopped.set(toStop.size());
+			return toStop;
 		};
 
 		try {
@@ -0,0 +1,158 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2024 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util.gradle.daemon;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.gradle.workers.internal.WorkerDaemonClientsManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.fabricmc.loom.util.Checksum;
+import net.fabricmc.loom.util.gradle.WorkerDaemonClientsManagerHelper;
+
+/**
+ * Keeps decompiler worker JVMs alive between the decompile tasks of a build, so later tasks skip the class loading and
+ * JIT warm up of the decompiler. Gradle stops process isolated workers at the end of every build, so the JVMs are never
+ * kept for the next build.
+ *
+ * <p>Gradle hands work to an idle worker JVM when the fork options of the work queue match, these JVMs are only told
+ * apart by a marker system property derived from the decompiler classpath, options and heap size. Once no task has
+ * used the JVMs of a marker for the idle timeout they are stopped, the same way the decompile task stops its JVMs when
+ * they are not kept alive.
+ *
+ * <p>The markers in use are tracked in a static map, which is not shared when the plugin is loaded again by another
+ * class loader, for example for a project with another build script classpath. Expiring a marker therefore also stops
+ * every idle JVM with a daemon marker that the map does not track. A task running on the other copy of the plugin may
+ * then have to start its JVMs again, but no JVM is left idle until the end of the build.
+ */
+public final class DecompilerDaemons {
+	private static final Logger LOGGER = LoggerFactory.getLogger(DecompilerDaemons.class);
+	private static final String MARKER_PREFIX = "daemon-";
+	private static final ScheduledThreadPoolExecutor EXPIRY_EXECUTOR = createExpiryExecutor();
+	// Guarded by itself
+	private static final Map<String, Daemon> DAEMONS = new HashMap<>();
+
+	private DecompilerDaemons() {
+	}
+
+	/**
+	 * @param key Everything that identifies the fork options of the worker JVMs
+	 */
+	public static String marker(String key) throws IOException {
+		return MARKER_PREFIX + Checksum.sha256Hex(key.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Mark the JVMs of the marker as in use, cancelling any pending stop.
+	 *
+	 * @return true if JVMs with the marker have been started before and should still be running
+	 */
+	public static boolean acquire(String marker) {
+		synchronized (DAEMONS) {
+			final Daemon daemon = DAEMONS.get(marker);
+
+			if (daemon == null) {
+				DAEMONS.put(marker, new Daemon());
+				return false;
+			}
+
+			if (daemon.expiry != null) {
+				daemon.expiry.cancel(false);
+				daemon.expiry = null;
+			}
+
+			daemon.users++;
+			return true;
+		}
+	}
+
+	/**
+	 * Release the JVMs of the marker, they are stopped after the idle timeout unless they are acquired again.
+	 */
+	public static void release(WorkerDaemonClientsManager manager, String marker, Duration idleTimeout) {
+		synchronized (DAEMONS) {
+			final Daemon daemon = DAEMONS.get(marker);
+
+			if (daemon == null || --daemon.users > 0) {
+				return;
+			}
+
+			daemon.expiry = EXPIRY_EXECUTOR.schedule(() -> expire(manager, marker), idleTimeout.toMillis(), TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private static void expire(WorkerDaemonClientsManager manager, String marker) {
+		final Set<String> tracked;
+
+		synchronized (DAEMONS) {
+			final Daemon daemon = DAEMONS.get(marker);
+
+			if (daemon == null || daemon.users > 0) {
+				// Acquired again since the stop was scheduled
+				return;
+			}
+
+			DAEMONS.remove(marker);
+			tracked = new HashSet<>(DAEMONS.keySet());
+		}
+
+		try {
+			// Along with the JVMs of markers that were started by a previous copy of the plugin, which can't stop them now
+			final int stopped = WorkerDaemonClientsManagerHelper.stopIdleJVMs(manager, value -> value.equals(marker) || (value.startsWith(MARKER_PREFIX) && !tracked.contains(value)));
+			LOGGER.info("Stopped {} idle decompiler JVM(s) with marker {} or an untracked marker", stopped, marker);
+		} catch (RuntimeException e) {
+			LOGGER.warn("Failed to stop idle decompiler JVMs with marker {}", marker, e);
+		}
+	}
+
+	private static ScheduledThreadPoolExecutor createExpiryExecutor() {
+		final var executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+			final var thread = new Thread(runnable, "Loom decompiler daemon expiry");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		// Don't keep a thread around between builds when nothing is waiting to expire
+		executor.setKeepAliveTime(1, TimeUnit.MINUTES);
+		executor.allowCoreThreadTimeOut(true);
+		executor.setRemoveOnCancelPolicy(true);
+		return executor;
+	}
+
+	private static final class Daemon {
+		private int users = 1;
+		private ScheduledFuture<?> expiry;
+	}
+}